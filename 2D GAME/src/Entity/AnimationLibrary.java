@@ -0,0 +1,134 @@
+package Entity;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Registry of animation clips shared by every entity that uses them.
+ *
+ * A clip is a frame sequence plus the number of ticks each frame is shown, and is referred to by an
+ * int id. Clips are defined once at load time; entities only store which clip they are playing, the
+ * frame index and a timer, so a thousand NPCs with the same look cost one set of clips.
+ *
+ * Characters are registered as a block of 8 consecutive clips: a walk clip per direction followed by
+ * an idle clip per direction. From any clip in the block, clipFor() finds the right clip for a direction
+ * and moving state with plain integer arithmetic.
+ *
+ * Register clips while loading, before the game thread starts; lookups are then safe from any thread.
+ */
+public class AnimationLibrary {
+    // Offsets inside a character block
+    public static final int WALK = 0;
+    public static final int IDLE = Direction.COUNT;
+    public static final int CHARACTER_CLIPS = 2 * Direction.COUNT;
+
+    private static final AnimationLibrary SHARED = new AnimationLibrary();
+
+    private BufferedImage[][] frames = new BufferedImage[16][];
+    private int[] delays = new int[16];
+    private int[] characterBase = new int[16];
+    private int clipCount;
+
+    private final Map<String, Integer> characters = new HashMap<>();
+
+    /**
+     * @return The library used by the game's entities
+     */
+    public static AnimationLibrary shared() {
+        return SHARED;
+    }
+
+    /**
+     * Registers the walk and idle clips of a character, or returns the existing ones if a character
+     * with this name was registered before.
+     *
+     * @param walkFrames Walk sequence per direction id (see Direction)
+     * @param idleFrames Idle sprite per direction id
+     * @param walkDelays Ticks per walk frame per direction id
+     * @return Id of the first clip of the character's block
+     */
+    public synchronized int registerCharacter(String name, BufferedImage[][] walkFrames,
+                                              BufferedImage[] idleFrames, int[] walkDelays) {
+        Integer existing = characters.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        int base = registerCharacter(walkFrames, idleFrames, walkDelays);
+        characters.put(name, base);
+        return base;
+    }
+
+    /**
+     * Registers the walk and idle clips of a character that isn't looked up by name.
+     *
+     * @return Id of the first clip of the character's block
+     */
+    public synchronized int registerCharacter(BufferedImage[][] walkFrames, BufferedImage[] idleFrames, int[] walkDelays) {
+        int base = clipCount;
+        for (int dir = 0; dir < Direction.COUNT; dir++) {
+            addClip(walkFrames[dir], walkDelays[dir], base);
+        }
+        for (int dir = 0; dir < Direction.COUNT; dir++) {
+            addClip(new BufferedImage[]{idleFrames[dir]}, 1, base);
+        }
+        return base;
+    }
+
+    /**
+     * @return Id of the character's first clip, or -1 if there's no character with that name
+     */
+    public synchronized int findCharacter(String name) {
+        Integer base = characters.get(name);
+        return base == null ? -1 : base;
+    }
+
+    /**
+     * Finds the clip of the same character for a direction and moving state.
+     *
+     * @param clip Any clip of the character
+     */
+    public int clipFor(int clip, int direction, boolean moving) {
+        return characterBase[clip] + (moving ? WALK : IDLE) + direction;
+    }
+
+    /**
+     * @return The frame of a clip, wrapping the index around the clip length
+     */
+    public BufferedImage frame(int clip, int index) {
+        BufferedImage[] clipFrames = frames[clip];
+        return clipFrames[index % clipFrames.length];
+    }
+
+    public int frameCount(int clip) {
+        return frames[clip].length;
+    }
+
+    public int getDelay(int clip) {
+        return delays[clip];
+    }
+
+    /**
+     * Changes how many ticks each frame of a clip is shown. Affects every entity playing the clip.
+     */
+    public void setDelay(int clip, int delay) {
+        delays[clip] = delay;
+    }
+
+    public int size() {
+        return clipCount;
+    }
+
+    private void addClip(BufferedImage[] clipFrames, int delay, int base) {
+        if (clipCount == frames.length) {
+            frames = Arrays.copyOf(frames, clipCount * 2);
+            delays = Arrays.copyOf(delays, clipCount * 2);
+            characterBase = Arrays.copyOf(characterBase, clipCount * 2);
+        }
+        frames[clipCount] = clipFrames;
+        delays[clipCount] = Math.max(1, delay);
+        characterBase[clipCount] = base;
+        clipCount++;
+    }
+}
@@ -0,0 +1,47 @@
+package Entity;
+
+/**
+ * Integer ids for the four facing directions.
+ * Entities store their facing direction as one of these, so no String compares happen per frame.
+ */
+public final class Direction {
+    public static final int UP = 0;
+    public static final int DOWN = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+    public static final int COUNT = 4;
+
+    // Indexed by direction id
+    private static final String[] NAMES = {"up", "down", "left", "right"};
+
+    // Movement per step for each direction id
+    public static final int[] DX = {0, 0, -1, 1};
+    public static final int[] DY = {-1, 1, 0, 0};
+
+    private Direction() {
+    }
+
+    /**
+     * @param name "up", "down", "left" or "right"
+     * @return The direction id, DOWN for anything unknown
+     */
+    public static int fromName(String name) {
+        if (name == null) {
+            return DOWN;
+        }
+        switch (name) {
+            case "up":
+                return UP;
+            case "left":
+                return LEFT;
+            case "right":
+                return RIGHT;
+            default:
+                return DOWN;
+        }
+    }
+
+    public static String name(int direction) {
+        return NAMES[direction];
+    }
+}
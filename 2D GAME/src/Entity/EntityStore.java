@@ -0,0 +1,456 @@
+package Entity;
+
+import Main.CollisionChecker;
+import Main.FrameSnapshot;
+import ai.FlowField;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Data-oriented storage for large numbers of entities.
+ *
+ * Instead of one object per entity, every property lives in its own primitive array indexed by
+ * entity id (struct-of-arrays). An update walks the arrays front to back, touching only the data
+ * it needs, and big stores are split into ranges that are updated in parallel on a fork/join pool.
+ *
+ * Entities are either wanderers, which the store moves itself, chasers, which follow a shared
+ * FlowField one tile at a time, or controlled, whose position is written in from outside each tick
+ * (like the Player).
+ *
+ * Once collision is enabled wanderers stop at solid tiles, and after each update a SpatialHash
+ * finds entities that walked into each other; the wanderers involved step back and pick a new direction.
+ */
+public class EntityStore {
+    public static final byte WANDER = 0;
+    public static final byte CONTROLLED = 1;
+    public static final byte CHASE = 2;
+
+    // Ints saveState writes per entity
+    public static final int SAVED_INTS = 6;
+
+    // Below this many entities per task a range is updated sequentially
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    private int count;
+
+    // Position in world pixels and movement speed in pixels per tick
+    public int[] x;
+    public int[] y;
+    public int[] speed;
+
+    // Facing direction id (see Direction) and whether the entity moved this tick
+    public byte[] direction;
+    public boolean[] moving;
+
+    // Animation state: clip playing (an AnimationLibrary id), frame index in it and ticks spent on the frame
+    public int[] animClip;
+    public int[] animFrame;
+    public int[] animTimer;
+
+    public byte[] kind;
+
+    // Wandering: ticks until the next decision, and a per-entity xorshift random state
+    private int[] brainTimer;
+    private int[] rng;
+
+    // Position before this tick's move, and whether the entity bumped into another one this tick
+    private int[] lastX;
+    private int[] lastY;
+    private boolean[] blocked;
+
+    // Collision: tiles to stop at and the box every entity in the store occupies, null to pass through everything
+    private CollisionChecker tiles;
+    private Rectangle hitbox;
+    private SpatialHash grid;
+    private final SpatialHash.PairVisitor blocker = this::block;
+    private int contacts;
+
+    // Where chasers are heading; they pick a new step each time they stand exactly on a tile
+    private FlowField chaseField;
+    private int chaseTileSize = 1;
+
+    // Where the clips of all entities in this store are defined
+    private final AnimationLibrary library;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean parallel = true;
+
+    public EntityStore(int initialCapacity) {
+        this(initialCapacity, AnimationLibrary.shared());
+    }
+
+    public EntityStore(int initialCapacity, AnimationLibrary library) {
+        this.library = library;
+        int capacity = Math.max(16, initialCapacity);
+        x = new int[capacity];
+        y = new int[capacity];
+        speed = new int[capacity];
+        direction = new byte[capacity];
+        moving = new boolean[capacity];
+        animClip = new int[capacity];
+        animFrame = new int[capacity];
+        animTimer = new int[capacity];
+        kind = new byte[capacity];
+        brainTimer = new int[capacity];
+        rng = new int[capacity];
+        lastX = new int[capacity];
+        lastY = new int[capacity];
+        blocked = new boolean[capacity];
+    }
+
+    /**
+     * Adds a wandering entity.
+     *
+     * @param seed Seed of its random walk, the same seed always walks the same way
+     * @param character First clip of the entity's character in the library
+     * @return The new entity's id
+     */
+    public int addWanderer(int x, int y, int speed, int seed, int character) {
+        int id = allocate();
+        this.x[id] = x;
+        this.y[id] = y;
+        this.speed[id] = speed;
+        this.direction[id] = Direction.DOWN;
+        this.animClip[id] = library.clipFor(character, Direction.DOWN, false);
+        this.kind[id] = WANDER;
+        this.rng[id] = seed == 0 ? 0x9E3779B9 : seed;
+        return id;
+    }
+
+    /**
+     * Adds an entity that follows the flow field set with setChaseField.
+     * It must start on a tile boundary and its speed must divide the tile size.
+     *
+     * @param character First clip of the entity's character in the library
+     * @return The new entity's id
+     */
+    public int addChaser(int x, int y, int speed, int character) {
+        int id = allocate();
+        this.x[id] = x;
+        this.y[id] = y;
+        this.speed[id] = speed;
+        this.direction[id] = Direction.DOWN;
+        this.animClip[id] = library.clipFor(character, Direction.DOWN, false);
+        this.kind[id] = CHASE;
+        return id;
+    }
+
+    /**
+     * Sets the field every chaser follows, usually the one leading to the player.
+     * Chasers stand still while it is null.
+     *
+     * @param tileSize Size of the field's tiles in pixels
+     */
+    public void setChaseField(FlowField field, int tileSize) {
+        this.chaseField = field;
+        this.chaseTileSize = tileSize;
+    }
+
+    /**
+     * Adds an entity that is moved from outside the store, copying its current state.
+     *
+     * @param character First clip of the entity's character in the library
+     * @return The new entity's id
+     */
+    public int addControlled(entity e, int character) {
+        int id = allocate();
+        this.kind[id] = CONTROLLED;
+        this.animClip[id] = library.clipFor(character, Direction.DOWN, false);
+        set(id, e);
+        return id;
+    }
+
+    /**
+     * Copies position, speed, direction and moving state of an object entity into a slot.
+     */
+    public void set(int id, entity e) {
+        x[id] = e.x;
+        y[id] = e.y;
+        speed[id] = e.speed;
+        direction[id] = (byte) e.direction;
+        moving[id] = e.moving;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Copies what an entity needs to carry on where it left off into dest: position, speed, kind, facing
+     * direction and moving state, and its wandering timer and random state. The animation starts over.
+     */
+    public void saveState(int id, int[] dest, int offset) {
+        dest[offset] = x[id];
+        dest[offset + 1] = y[id];
+        dest[offset + 2] = speed[id];
+        dest[offset + 3] = (moving[id] ? 1 << 16 : 0) | (kind[id] << 8) | (direction[id] & 0xFF);
+        dest[offset + 4] = brainTimer[id];
+        dest[offset + 5] = rng[id];
+    }
+
+    /**
+     * Puts an entity back in the state saveState copied.
+     */
+    public void restoreState(int id, int[] src, int offset) {
+        x[id] = src[offset];
+        y[id] = src[offset + 1];
+        lastX[id] = x[id];
+        lastY[id] = y[id];
+        speed[id] = src[offset + 2];
+        kind[id] = (byte) (src[offset + 3] >> 8);
+        direction[id] = (byte) src[offset + 3];
+        moving[id] = (src[offset + 3] & (1 << 16)) != 0;
+        brainTimer[id] = src[offset + 4];
+        rng[id] = src[offset + 5];
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Turns on collision for the entities of this store.
+     *
+     * @param tiles Keeps wanderers out of solid tiles, null to ignore tiles
+     * @param hitbox Collision box of every entity relative to its position, null to turn collision off
+     */
+    public void setCollision(CollisionChecker tiles, Rectangle hitbox) {
+        this.tiles = tiles;
+        this.hitbox = hitbox;
+        this.grid = hitbox != null ? new SpatialHash(Math.max(hitbox.width, hitbox.height)) : null;
+    }
+
+    /**
+     * Tells whether an entity of this store standing at (x, y) would overlap another one,
+     * as of the end of the last update.
+     *
+     * @param skipId Id of the entity asking, -1 if it isn't in the store
+     */
+    public boolean isOccupied(int x, int y, int skipId) {
+        return grid != null && grid.findOverlap(x, y, hitbox.width, hitbox.height, skipId) >= 0;
+    }
+
+    /**
+     * @return Number of overlapping entity pairs found by the last update
+     */
+    public int getContacts() {
+        return contacts;
+    }
+
+    /**
+     * Advances every entity by one tick.
+     * Large stores are split across the fork/join pool; entities only read their own slots while moving,
+     * so ranges are independent. Contacts between entities are resolved afterwards in one pass.
+     */
+    public void update() {
+        if (parallel && count > PARALLEL_THRESHOLD) {
+            pool.invoke(new UpdateTask(0, count));
+        } else {
+            updateRange(0, count);
+        }
+        if (grid != null) {
+            resolveContacts();
+        }
+    }
+
+    private void updateRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            lastX[i] = x[i];
+            lastY[i] = y[i];
+            if (kind[i] == WANDER) {
+                think(i);
+                if (moving[i]) {
+                    move(i);
+                }
+            } else if (kind[i] == CHASE) {
+                steer(i);
+                if (moving[i]) {
+                    move(i);
+                }
+            }
+            animate(i);
+        }
+    }
+
+    private void move(int i) {
+        int dir = direction[i];
+        int dx = Direction.DX[dir] * speed[i];
+        int dy = Direction.DY[dir] * speed[i];
+        if (tiles != null && hitbox != null) {
+            int movedX = tiles.sweepX(x[i], y[i], hitbox, dx);
+            int movedY = tiles.sweepY(x[i] + movedX, y[i], hitbox, dy);
+            if (movedX != dx || movedY != dy) {
+                brainTimer[i] = 0; // Hit a wall, choose again next tick
+                if (kind[i] == CHASE) {
+                    direction[i] ^= 1; // Head back to the tile it came from, it steers again there
+                }
+            }
+            dx = movedX;
+            dy = movedY;
+        }
+        x[i] += dx;
+        y[i] += dy;
+    }
+
+    // Wanderers that walked into another entity go back to where they were and rethink
+    private void resolveContacts() {
+        grid.build(x, y, count);
+        contacts = grid.forEachPair(hitbox.width, hitbox.height, blocker);
+        if (contacts == 0) {
+            return;
+        }
+        boolean moved = false;
+        for (int i = 0; i < count; i++) {
+            if (blocked[i]) {
+                blocked[i] = false;
+                if (kind[i] != CONTROLLED && (x[i] != lastX[i] || y[i] != lastY[i])) {
+                    x[i] = lastX[i];
+                    y[i] = lastY[i];
+                    brainTimer[i] = 0;
+                    if (kind[i] == CHASE && (x[i] % chaseTileSize != 0 || y[i] % chaseTileSize != 0)) {
+                        direction[i] ^= 1;
+                    }
+                    moved = true;
+                }
+            }
+        }
+        if (moved) {
+            grid.build(x, y, count);
+        }
+    }
+
+    private void block(int a, int b) {
+        blocked[a] = true;
+        blocked[b] = true;
+    }
+
+    // Picks a new random direction (or standing still) whenever the entity's timer runs out
+    private void think(int i) {
+        if (--brainTimer[i] > 0) {
+            return;
+        }
+        int r = rng[i];
+        r ^= r << 13;
+        r ^= r >>> 17;
+        r ^= r << 5;
+        rng[i] = r;
+
+        int choice = (r >>> 8) % 6; // 4 directions and 2 chances to stand still
+        if (choice < Direction.COUNT) {
+            direction[i] = (byte) choice;
+            moving[i] = true;
+        } else {
+            moving[i] = false;
+        }
+        brainTimer[i] = 60 + ((r >>> 20) & 127);
+    }
+
+    // Chasers only change course on a tile boundary, so they walk tile centre to tile centre like the field does.
+    // They stop next to the target rather than trying to walk into it.
+    private void steer(int i) {
+        int size = chaseTileSize;
+        if (x[i] % size != 0 || y[i] % size != 0) {
+            return;
+        }
+        FlowField field = chaseField;
+        int col = x[i] / size;
+        int row = y[i] / size;
+        int dir = field != null && field.getDistance(col, row) > 1 ? field.getDirection(col, row) : -1;
+        if (dir < 0) {
+            moving[i] = false;
+        } else {
+            direction[i] = (byte) dir;
+            moving[i] = true;
+        }
+    }
+
+    // Same rules as WalkAnimation.update: switch to the clip for the current direction and moving state,
+    // advance after the clip's delay while moving, reset when idle
+    private void animate(int i) {
+        int clip = library.clipFor(animClip[i], direction[i], moving[i]);
+        animClip[i] = clip;
+        if (moving[i]) {
+            if (++animTimer[i] >= library.getDelay(clip)) {
+                animTimer[i] = 0;
+                animFrame[i] = (animFrame[i] + 1) % library.frameCount(clip);
+            }
+        } else {
+            animFrame[i] = 0;
+            animTimer[i] = 0;
+        }
+    }
+
+    /**
+     * Adds the sprite of every entity of the store that is on screen to a frame snapshot, except one
+     * (usually the player, who is added separately). Called by the game thread at the end of a tick.
+     *
+     * @param cameraX World position of the left edge of the view
+     * @param cameraY World position of the top edge of the view
+     * @param skipId Id not to add, -1 to add all
+     */
+    public void collect(FrameSnapshot dest, int size, int cameraX, int cameraY, int viewWidth, int viewHeight, int skipId) {
+        dest.clearSprites();
+        for (int i = 0; i < count; i++) {
+            int sx = x[i] - cameraX;
+            int sy = y[i] - cameraY;
+            if (i == skipId || sx <= -size || sy <= -size || sx >= viewWidth || sy >= viewHeight) {
+                continue;
+            }
+            BufferedImage image = library.frame(animClip[i], animFrame[i]);
+            if (image != null) {
+                dest.addSprite(image, x[i], y[i], i);
+            }
+        }
+    }
+
+    private int allocate() {
+        if (count == x.length) {
+            int capacity = x.length * 2;
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            speed = Arrays.copyOf(speed, capacity);
+            direction = Arrays.copyOf(direction, capacity);
+            moving = Arrays.copyOf(moving, capacity);
+            animClip = Arrays.copyOf(animClip, capacity);
+            animFrame = Arrays.copyOf(animFrame, capacity);
+            animTimer = Arrays.copyOf(animTimer, capacity);
+            kind = Arrays.copyOf(kind, capacity);
+            brainTimer = Arrays.copyOf(brainTimer, capacity);
+            rng = Arrays.copyOf(rng, capacity);
+            lastX = Arrays.copyOf(lastX, capacity);
+            lastY = Arrays.copyOf(lastY, capacity);
+            blocked = Arrays.copyOf(blocked, capacity);
+        }
+        return count++;
+    }
+
+    private class UpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        UpdateTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                updateRange(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new UpdateTask(from, mid), new UpdateTask(mid, to));
+        }
+    }
+}
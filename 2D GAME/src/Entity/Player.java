@@ -2,9 +2,10 @@ package Entity;
 
 import Main.KeyHandler;
 import Main.gamePanel;
+import asset.SpriteAtlas;
 
-import javax.imageio.ImageIO;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -21,6 +22,13 @@ public class Player extends entity {
     
     // Walking animation handler
     private WalkAnimation walkAnimation;
+
+    // First clip of the player's walk/idle clips in the shared AnimationLibrary, -1 until loaded
+    private int character = -1;
+
+    // Slot of the player in a shared EntityStore, -1 if it isn't in one
+    private EntityStore store;
+    private int storeId = -1;
     
     // Walking animation sprites for each direction
     BufferedImage up1, up2;                    // Up direction walking frames
@@ -51,43 +59,76 @@ public class Player extends entity {
         x = 100;              // Starting X position on screen
         y = 100;              // Starting Y position on screen
         speed = 4;            // Pixels moved per frame
-        direction = "down";   // Initial facing direction
+        direction = Direction.DOWN; // Initial facing direction
+
+        // Collide with the lower middle of the sprite so the head can overlap walls above
+        solidArea = new Rectangle(gp.tileSize / 6, gp.tileSize / 3, gp.tileSize * 2 / 3, gp.tileSize * 2 / 3);
+    }
+
+    /**
+     * Puts the player into an EntityStore so it is updated and queried alongside the other entities.
+     * The player keeps moving itself and copies its state into its slot every update.
+     *
+     * @param store The store to join
+     * @return The player's id in the store
+     */
+    public int joinStore(EntityStore store) {
+        if (character < 0) {
+            throw new IllegalStateException("Player images are not loaded");
+        }
+        this.store = store;
+        this.storeId = store.addControlled(this, character);
+        return storeId;
+    }
+
+    /**
+     * @return The player's character in AnimationLibrary.shared(), -1 if its images failed to load
+     */
+    public int getCharacter() {
+        return character;
+    }
+
+    public int getStoreId() {
+        return storeId;
     }
 
     /**
-     * Loads all player sprite images from the resources folder.
+     * Loads all player sprite images from the sprite atlas.
      * Creates animation frame arrays with proper sequences:
      * - Up/Down: Simple looping animations (up1, up2, up1, up2...)
      * - Left/Right: Complex sequences with idle frames (idle -> left1 -> left2 -> left1 -> idle -> left3 -> left4 -> idle -> left1...)
-     * Initializes the WalkAnimation instance with these sequences.
+     * Registers these sequences as shared animation clips and initializes the WalkAnimation with them.
      */
     public void getPlayerImage() {
         try {
+            // All sprites come from the shared atlas, already in the screen's fastest image format
+            SpriteAtlas atlas = SpriteAtlas.game();
+
             // Load idle sprites (standing still) for each direction
-            idleup = ImageIO.read(getClass().getResourceAsStream("/player/up.png"));
-            idledown = ImageIO.read(getClass().getResourceAsStream("/player/down.png"));
-            idleleft = ImageIO.read(getClass().getResourceAsStream("/player/left.png"));
-            idleright = ImageIO.read(getClass().getResourceAsStream("/player/right.png"));
+            idleup = atlas.get("/player/up.png");
+            idledown = atlas.get("/player/down.png");
+            idleleft = atlas.get("/player/left.png");
+            idleright = atlas.get("/player/right.png");
 
             // Load walking animation frames for up direction
-            up1 = ImageIO.read(getClass().getResourceAsStream("/player/up1.png"));
-            up2 = ImageIO.read(getClass().getResourceAsStream("/player/up2.png"));
+            up1 = atlas.get("/player/up1.png");
+            up2 = atlas.get("/player/up2.png");
 
             // Load walking animation frames for down direction
-            down1 = ImageIO.read(getClass().getResourceAsStream("/player/down1.png"));
-            down2 = ImageIO.read(getClass().getResourceAsStream("/player/down2.png"));
+            down1 = atlas.get("/player/down1.png");
+            down2 = atlas.get("/player/down2.png");
 
             // Load walking animation frames for left direction
-            left1 = ImageIO.read(getClass().getResourceAsStream("/player/left1.png"));
-            left2 = ImageIO.read(getClass().getResourceAsStream("/player/left2.png"));
-            left3 = ImageIO.read(getClass().getResourceAsStream("/player/left3.png"));
-            left4 = ImageIO.read(getClass().getResourceAsStream("/player/left4.png"));
+            left1 = atlas.get("/player/left1.png");
+            left2 = atlas.get("/player/left2.png");
+            left3 = atlas.get("/player/left3.png");
+            left4 = atlas.get("/player/left4.png");
 
             // Load walking animation frames for right direction
-            right1 = ImageIO.read(getClass().getResourceAsStream("/player/right1.png"));
-            right2 = ImageIO.read(getClass().getResourceAsStream("/player/right2.png"));
-            right3 = ImageIO.read(getClass().getResourceAsStream("/player/right3.png"));
-            right4 = ImageIO.read(getClass().getResourceAsStream("/player/right4.png"));
+            right1 = atlas.get("/player/right1.png");
+            right2 = atlas.get("/player/right2.png");
+            right3 = atlas.get("/player/right3.png");
+            right4 = atlas.get("/player/right4.png");
 
             // Create animation frame arrays for each direction
             
@@ -115,10 +156,13 @@ public class Player extends entity {
                 left1 != null && left2 != null && left3 != null && left4 != null &&
                 right1 != null && right2 != null && right3 != null && right4 != null) {
                 
-                walkAnimation = new WalkAnimation(
-                        upFrames, downFrames, leftFrames, rightFrames,
-                        idleup, idledown, idleleft, idleright
-                );
+                // Register the sequences once as the shared "player" clips; every entity that looks
+                // like the player (including NPCs in the EntityStore) plays these same clips
+                character = AnimationLibrary.shared().registerCharacter("player",
+                        new BufferedImage[][]{upFrames, downFrames, leftFrames, rightFrames},
+                        new BufferedImage[]{idleup, idledown, idleleft, idleright},
+                        new int[]{16, 16, 5, 5});
+                walkAnimation = new WalkAnimation(AnimationLibrary.shared(), character);
             } else {
                 System.err.println("Warning: Some player images failed to load. WalkAnimation not initialized.");
             }
@@ -138,32 +182,78 @@ public class Player extends entity {
         // Reset moving state - will be set to true if any movement key is pressed
         moving = false;
 
-        // Check for movement input and update player position accordingly
+        // Check for movement input and work out the step the player wants to take
         // Only one direction can be active at a time (using else-if chain)
+        int dx = 0;
+        int dy = 0;
         if (keyH.upPressed) {
-            direction = "up";
-            y -= speed;        // Move up by decreasing Y coordinate
+            direction = Direction.UP;
+            dy = -speed;       // Move up by decreasing Y coordinate
             moving = true;
         } else if (keyH.downPressed) {
-            direction = "down";
-            y += speed;        // Move down by increasing Y coordinate
+            direction = Direction.DOWN;
+            dy = speed;        // Move down by increasing Y coordinate
             moving = true;
         } else if (keyH.leftPressed) {
-            direction = "left";
-            x -= speed;        // Move left by decreasing X coordinate
+            direction = Direction.LEFT;
+            dx = -speed;       // Move left by decreasing X coordinate
             moving = true;
         } else if (keyH.rightPressed) {
-            direction = "right";
-            x += speed;        // Move right by increasing X coordinate
+            direction = Direction.RIGHT;
+            dx = speed;        // Move right by increasing X coordinate
             moving = true;
         }
 
+        // Take the step, stopping at solid tiles and not walking into other entities
+        collisionOn = false;
+        if (moving) {
+            int oldX = x;
+            int oldY = y;
+            gp.getCollisionChecker().move(this, dx, dy);
+            if (store != null && store.isOccupied(x, y, storeId) && !store.isOccupied(oldX, oldY, storeId)) {
+                x = oldX;
+                y = oldY;
+                collisionOn = true;
+            }
+        }
+
         // Update animation using WalkAnimation class
         // This handles frame timing and sequence progression
         // Always update animation state, even when not moving (so it knows to show idle)
         if (walkAnimation != null) {
             walkAnimation.update(moving, direction);
         }
+
+        // Keep the player's slot in the shared entity store in sync
+        if (store != null) {
+            store.set(storeId, this);
+        }
+    }
+
+    /**
+     * Puts the player where something other than the keyboard moved it, such as a game server,
+     * and animates it as if it had walked there.
+     */
+    public void place(int x, int y, int direction, boolean moving) {
+        this.x = x;
+        this.y = y;
+        this.direction = direction;
+        this.moving = moving;
+        if (walkAnimation != null) {
+            walkAnimation.update(moving, direction);
+        }
+        if (store != null) {
+            store.set(storeId, this);
+        }
+    }
+
+    /**
+     * Draws the player sprite on the screen where the camera currently sees it.
+     * 
+     * @param g2 The Graphics2D object used for drawing
+     */
+    public void draw(Graphics2D g2) {
+        draw(g2, gp.getCamera().getX(), gp.getCamera().getY());
     }
 
     /**
@@ -171,8 +261,17 @@ public class Player extends entity {
      * Gets the current animation frame from WalkAnimation and draws it.
      * 
      * @param g2 The Graphics2D object used for drawing
+     * @param cameraX World position of the left edge of the view
+     * @param cameraY World position of the top edge of the view
      */
-    public void draw(Graphics2D g2) {
+    public void draw(Graphics2D g2, int cameraX, int cameraY) {
+        drawAt(g2, getCurrentImage(), x - cameraX, y - cameraY, gp.tileSize);
+    }
+
+    /**
+     * @return The sprite to show for the player's current animation state, or null if the images didn't load
+     */
+    public BufferedImage getCurrentImage() {
         BufferedImage image = null;
 
         // First, try to get the current frame from WalkAnimation if it's initialized
@@ -183,16 +282,16 @@ public class Player extends entity {
         // Fallback to entity's idle sprites directly if WalkAnimation failed or isn't initialized
         if (image == null) {
             switch (direction) {
-                case "up":
+                case Direction.UP:
                     image = idleup;
                     break;
-                case "down":
+                case Direction.DOWN:
                     image = idledown;
                     break;
-                case "left":
+                case Direction.LEFT:
                     image = idleleft;
                     break;
-                case "right":
+                case Direction.RIGHT:
                     image = idleright;
                     break;
                 default:
@@ -200,18 +299,26 @@ public class Player extends entity {
                     break;
             }
         }
+        return image;
+    }
 
+    /**
+     * Draws a player sprite at a screen position.
+     *
+     * @param image The sprite, or null to draw a placeholder box
+     */
+    public static void drawAt(Graphics2D g2, BufferedImage image, int screenX, int screenY, int size) {
         // Draw the sprite at the player's position
         // If image is still null, draw a white rectangle for debugging
         if (image != null) {
-            g2.drawImage(image, x, y, gp.tileSize, gp.tileSize, null);
+            g2.drawImage(image, screenX, screenY, size, size, null);
         } else {
             // Debug fallback: Draw a white rectangle to verify positioning
             // If you see a white rectangle, the images aren't loading properly
             g2.setColor(java.awt.Color.WHITE);
-            g2.fillRect(x, y, gp.tileSize, gp.tileSize);
+            g2.fillRect(screenX, screenY, size, size);
             g2.setColor(java.awt.Color.RED);
-            g2.drawRect(x, y, gp.tileSize, gp.tileSize);
+            g2.drawRect(screenX, screenY, size, size);
         }
     }
 }
@@ -0,0 +1,156 @@
+package Entity;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid broadphase for finding entities whose boxes overlap.
+ *
+ * Entities are bucketed by the grid cell of their position with a counting sort into flat arrays,
+ * so building it is two passes over the entities and allocates nothing once the arrays are big enough.
+ * Positions are copied in bucket order too, so scanning a cell reads contiguous memory.
+ * Cells are hashed into a table twice the entity count, so an unbounded world needs no grid array.
+ * A box can only overlap boxes in its own and the 8 neighbouring cells as long as the cell size is
+ * at least the box size, so the cost of a query grows with local density, not with the number of entities.
+ */
+public class SpatialHash {
+
+    public interface PairVisitor {
+        void visit(int a, int b);
+    }
+
+    private final int cellShift;
+
+    private int mask;
+    private int size;
+    // Start of each bucket in entries, bucketStart[b + 1] is its end
+    private int[] bucketStart = new int[2];
+    // Entity ids sorted by bucket, and their positions at build time in the same order
+    private int[] entries = new int[0];
+    private int[] sortedX = new int[0];
+    private int[] sortedY = new int[0];
+    // Buckets already scanned by the current query; neighbouring cells can hash to the same one
+    private final int[] seen = new int[9];
+
+    /**
+     * @param cellSize Grid cell size in pixels, rounded up to a power of two. Must be at least the box size.
+     */
+    public SpatialHash(int cellSize) {
+        cellShift = 32 - Integer.numberOfLeadingZeros(Math.max(1, cellSize) - 1);
+    }
+
+    public int getCellSize() {
+        return 1 << cellShift;
+    }
+
+    /**
+     * Buckets the first count entities by position. Queries see the positions as they were here.
+     */
+    public void build(int[] x, int[] y, int count) {
+        int table = Integer.highestOneBit(Math.max(8, count)) << 1;
+        if (bucketStart.length < table + 1) {
+            bucketStart = new int[table + 1];
+        } else {
+            Arrays.fill(bucketStart, 0, table + 1, 0);
+        }
+        if (entries.length < count) {
+            int capacity = Math.max(count, entries.length * 2);
+            entries = new int[capacity];
+            sortedX = new int[capacity];
+            sortedY = new int[capacity];
+        }
+        mask = table - 1;
+        size = count;
+
+        // Count per bucket, turn the counts into bucket ends, then fill each bucket back to front
+        for (int i = 0; i < count; i++) {
+            bucketStart[bucket(x[i] >> cellShift, y[i] >> cellShift)]++;
+        }
+        for (int b = 1; b < table; b++) {
+            bucketStart[b] += bucketStart[b - 1];
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            int k = --bucketStart[bucket(x[i] >> cellShift, y[i] >> cellShift)];
+            entries[k] = i;
+            sortedX[k] = x[i];
+            sortedY[k] = y[i];
+        }
+        bucketStart[table] = count;
+    }
+
+    /**
+     * Calls the visitor once for every pair of entities whose width x height boxes overlap.
+     *
+     * @return The number of overlapping pairs
+     */
+    public int forEachPair(int width, int height, PairVisitor visitor) {
+        int pairs = 0;
+        // Walk the entities in bucket order so neighbouring queries touch the same cells
+        for (int n = 0; n < size; n++) {
+            int i = entries[n];
+            int xi = sortedX[n];
+            int yi = sortedY[n];
+            int cx = xi >> cellShift;
+            int cy = yi >> cellShift;
+            int seenCount = 0;
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int dx = -1; dx <= 1; dx++) {
+                    int b = bucket(cx + dx, cy + dy);
+                    if (wasSeen(b, seenCount)) {
+                        continue;
+                    }
+                    seen[seenCount++] = b;
+                    for (int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++) {
+                        int j = entries[k];
+                        if (j > i && Math.abs(sortedX[k] - xi) < width && Math.abs(sortedY[k] - yi) < height) {
+                            visitor.visit(i, j);
+                            pairs++;
+                        }
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Finds an entity whose width x height box overlaps one at (qx, qy).
+     *
+     * @param skip Id to ignore, usually the entity asking
+     * @return The id of an overlapping entity, or -1 if there is none
+     */
+    public int findOverlap(int qx, int qy, int width, int height, int skip) {
+        int cx = qx >> cellShift;
+        int cy = qy >> cellShift;
+        int seenCount = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                int b = bucket(cx + dx, cy + dy);
+                if (wasSeen(b, seenCount)) {
+                    continue;
+                }
+                seen[seenCount++] = b;
+                for (int k = bucketStart[b], end = bucketStart[b + 1]; k < end; k++) {
+                    int j = entries[k];
+                    if (j != skip && Math.abs(sortedX[k] - qx) < width && Math.abs(sortedY[k] - qy) < height) {
+                        return j;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean wasSeen(int b, int seenCount) {
+        for (int s = 0; s < seenCount; s++) {
+            if (seen[s] == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int bucket(int cx, int cy) {
+        int h = cx * 0x9E3779B1 + cy * 0x85EBCA77;
+        return (h ^ (h >>> 15)) & mask;
+    }
+}
@@ -4,92 +4,58 @@ import java.awt.image.BufferedImage;
 
 /**
  * WalkAnimation class handles walking animation logic for entities.
- * Manages animation frame sequences, timing, and frame selection.
- * Supports simple looping animations (up/down) and complex sequences with idle frames (left/right).
+ * Plays the walk and idle clips of a character registered in an AnimationLibrary.
+ * The frame sequences themselves are shared; an instance only holds the current clip id,
+ * the frame index and the timer, and per-frame evaluation is integer arithmetic only.
  */
 public class WalkAnimation {
-    // Animation frame arrays for each direction
-    private BufferedImage[] upFrames;
-    private BufferedImage[] downFrames;
-    private BufferedImage[] leftFrames;
-    private BufferedImage[] rightFrames;
-    
-    // Idle sprites for each direction
-    private BufferedImage idleUp;
-    private BufferedImage idleDown;
-    private BufferedImage idleLeft;
-    private BufferedImage idleRight;
-    
-    // Animation timing
-    private int spriteCounter = 0;  // Counter for frame timing
-    private int spriteNum = 0;       // Current frame index in the animation array
-    
-    // Per-direction frame delays (frames to wait before advancing animation)
-    // At 60 FPS: frameDelay = 60 / desiredAnimationFPS
-    private int upFrameDelay = 16;      // Up direction frame delay (keeps current speed)
-    private int downFrameDelay = 16;    // Down direction frame delay (keeps current speed)
-    private int leftFrameDelay = 5;      // Left direction frame delay (12 FPS: 60/12 = 5)
-    private int rightFrameDelay = 5;    // Right direction frame delay (12 FPS: 60/12 = 5)
-    
-    // Current state
-    private boolean moving = false;
-    private String direction = "down";
-    
+    private final AnimationLibrary library;
+
+    // Animation state
+    private int clip;               // Clip currently playing
+    private int spriteNum = 0;      // Current frame index in the clip
+    private int spriteCounter = 0;  // Ticks spent on the current frame
+
     /**
      * Constructor for WalkAnimation.
-     * Initializes the animation with frame arrays and idle sprites.
-     * 
-     * @param upFrames Array of up direction walking frames
-     * @param downFrames Array of down direction walking frames
-     * @param leftFrames Array of left direction walking frames (includes idle frames)
-     * @param rightFrames Array of right direction walking frames (includes idle frames)
-     * @param idleUp Idle sprite for up direction
-     * @param idleDown Idle sprite for down direction
-     * @param idleLeft Idle sprite for left direction
-     * @param idleRight Idle sprite for right direction
+     * Plays a character that is already registered in the library.
+     *
+     * @param library The library holding the character's clips
+     * @param character Id of the character's first clip, as returned by registerCharacter
      */
-    public WalkAnimation(BufferedImage[] upFrames, BufferedImage[] downFrames,
-                        BufferedImage[] leftFrames, BufferedImage[] rightFrames,
-                        BufferedImage idleUp, BufferedImage idleDown,
-                        BufferedImage idleLeft, BufferedImage idleRight) {
-        this.upFrames = upFrames;
-        this.downFrames = downFrames;
-        this.leftFrames = leftFrames;
-        this.rightFrames = rightFrames;
-        this.idleUp = idleUp;
-        this.idleDown = idleDown;
-        this.idleLeft = idleLeft;
-        this.idleRight = idleRight;
+    public WalkAnimation(AnimationLibrary library, int character) {
+        this.library = library;
+        this.clip = library.clipFor(character, Direction.DOWN, false);
     }
-    
+
     /**
      * Updates the animation state.
      * Should be called every frame to advance animation timing.
-     * 
+     *
      * @param isMoving Whether the entity is currently moving
      * @param currentDirection The current facing direction ("up", "down", "left", "right")
      */
     public void update(boolean isMoving, String currentDirection) {
-        this.moving = isMoving;
-        this.direction = currentDirection;
-        
-        if (moving) {
+        update(isMoving, Direction.fromName(currentDirection));
+    }
+
+    /**
+     * Updates the animation state.
+     *
+     * @param isMoving Whether the entity is currently moving
+     * @param direction The current facing direction id (see Direction)
+     */
+    public void update(boolean isMoving, int direction) {
+        clip = library.clipFor(clip, direction, isMoving);
+
+        if (isMoving) {
             spriteCounter++;
-            
-            // Get the frame delay for the current direction
-            int currentFrameDelay = getFrameDelayForDirection();
-            
-            // Advance animation frame after the direction-specific frame delay
-            if (spriteCounter >= currentFrameDelay) {
+
+            // Advance animation frame after the clip's frame delay
+            if (spriteCounter >= library.getDelay(clip)) {
                 spriteCounter = 0;
-                
-                // Get the appropriate frames array for current direction
-                BufferedImage[] currentFrames = getCurrentFramesArray();
-                
-                if (currentFrames != null) {
-                    // Advance to next frame and wrap around using modulo
-                    spriteNum = (spriteNum + 1) % currentFrames.length;
-                }
+                // Advance to next frame and wrap around using modulo
+                spriteNum = (spriteNum + 1) % library.frameCount(clip);
             }
         } else {
             // Reset to idle when not moving
@@ -97,146 +63,46 @@ public class WalkAnimation {
             spriteCounter = 0;
         }
     }
-    
-    /**
-     * Gets the current frame array based on the current direction.
-     * 
-     * @return The BufferedImage array for the current direction, or null if invalid direction
-     */
-    private BufferedImage[] getCurrentFramesArray() {
-        switch (direction) {
-            case "up":
-                return upFrames;
-            case "down":
-                return downFrames;
-            case "left":
-                return leftFrames;
-            case "right":
-                return rightFrames;
-            default:
-                return null;
-        }
-    }
-    
+
     /**
-     * Gets the frame delay for the current direction.
-     * Different directions can have different animation speeds.
-     * 
-     * @return The frame delay for the current direction
+     * Gets the current sprite to display.
+     *
+     * @return The BufferedImage to display for the current animation state
      */
-    private int getFrameDelayForDirection() {
-        switch (direction) {
-            case "up":
-                return upFrameDelay;
-            case "down":
-                return downFrameDelay;
-            case "left":
-                return leftFrameDelay;
-            case "right":
-                return rightFrameDelay;
-            default:
-                return 12; // Default frame delay
-        }
+    public BufferedImage getCurrentFrame() {
+        return library.frame(clip, spriteNum);
     }
-    
+
     /**
-     * Gets the current sprite to display.
-     * Returns the appropriate frame from the animation sequence or idle sprite.
-     * 
-     * @return The BufferedImage to display for the current animation state, or null if not available
+     * @return Id of the clip currently playing
      */
-    public BufferedImage getCurrentFrame() {
-        if (!moving) {
-            // Return idle sprite when not moving
-            switch (direction) {
-                case "up":
-                    return idleUp;
-                case "down":
-                    return idleDown;
-                case "left":
-                    return idleLeft;
-                case "right":
-                    return idleRight;
-                default:
-                    return idleDown;
-            }
-        }
-        
-        // Return current frame from animation sequence when moving
-        BufferedImage[] currentFrames = getCurrentFramesArray();
-        if (currentFrames != null && currentFrames.length > 0 && spriteNum >= 0) {
-            // Use modulo to ensure index is within bounds
-            int index = spriteNum % currentFrames.length;
-            if (index >= 0 && index < currentFrames.length) {
-                BufferedImage frame = currentFrames[index];
-                // Return frame if it's not null, otherwise fall back to idle
-                if (frame != null) {
-                    return frame;
-                }
-            }
-        }
-        
-        // Fallback to idle sprite if something goes wrong
-        switch (direction) {
-            case "up":
-                return idleUp;
-            case "down":
-                return idleDown;
-            case "left":
-                return idleLeft;
-            case "right":
-                return idleRight;
-            default:
-                return idleDown;
-        }
+    public int getClip() {
+        return clip;
     }
-    
+
     /**
      * Sets the frame delay (animation speed) for a specific direction.
      * Lower values = faster animation, higher values = slower animation.
      * At 60 FPS: frameDelay = 60 / desiredAnimationFPS
-     * 
+     * The clip is shared, so this changes the speed for every entity of the same character.
+     *
      * @param direction The direction to set ("up", "down", "left", "right")
      * @param delay Number of frames to wait before advancing animation
      */
     public void setFrameDelay(String direction, int delay) {
-        switch (direction.toLowerCase()) {
-            case "up":
-                this.upFrameDelay = delay;
-                break;
-            case "down":
-                this.downFrameDelay = delay;
-                break;
-            case "left":
-                this.leftFrameDelay = delay;
-                break;
-            case "right":
-                this.rightFrameDelay = delay;
-                break;
-        }
+        library.setDelay(library.clipFor(clip, Direction.fromName(direction.toLowerCase()), true), delay);
     }
-    
+
     /**
      * Gets the frame delay for a specific direction.
-     * 
+     *
      * @param direction The direction to get ("up", "down", "left", "right")
      * @return The frame delay value for that direction
      */
     public int getFrameDelay(String direction) {
-        switch (direction.toLowerCase()) {
-            case "up":
-                return upFrameDelay;
-            case "down":
-                return downFrameDelay;
-            case "left":
-                return leftFrameDelay;
-            case "right":
-                return rightFrameDelay;
-            default:
-                return 12;
-        }
+        return library.getDelay(library.clipFor(clip, Direction.fromName(direction.toLowerCase()), true));
     }
-    
+
     /**
      * Resets the animation to the beginning.
      * Useful when changing directions or stopping movement.
@@ -246,4 +112,3 @@ public class WalkAnimation {
         spriteCounter = 0;
     }
 }
-
@@ -1,5 +1,6 @@
 package Entity;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 
 /**
@@ -24,9 +25,8 @@ public class entity {
     public BufferedImage[] leftFrames;
     public BufferedImage[] rightFrames;
 
-    // Current facing direction of the entity
-    // Possible values: "up", "down", "left", "right"
-    public String direction;
+    // Current facing direction of the entity, a Direction id (UP, DOWN, LEFT or RIGHT)
+    public int direction = Direction.DOWN;
 
     // Animation timing counter
     // Increments each frame to control when to change animation frames
@@ -39,4 +39,10 @@ public class entity {
     // Whether the entity is currently moving
     // Used to determine if walking or idle animation should be displayed
     public boolean moving = false;
+
+    // Part of the sprite that collides with solid tiles and other entities, relative to (x, y)
+    public Rectangle solidArea = new Rectangle(0, 0, 0, 0);
+
+    // Whether the last move was cut short by a collision
+    public boolean collisionOn = false;
 }
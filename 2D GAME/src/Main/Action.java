@@ -0,0 +1,21 @@
+package Main;
+
+/**
+ * Things the player can do with the keyboard. Keys are mapped to actions by KeyBindings,
+ * so the game never looks at raw key codes.
+ */
+public enum Action {
+    UP,
+    DOWN,
+    LEFT,
+    RIGHT,
+    DEBUG; // Toggles the frame-time overlay
+
+    public static final int COUNT = values().length;
+
+    private static final Action[] VALUES = values();
+
+    public static Action of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
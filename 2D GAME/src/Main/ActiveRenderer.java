@@ -0,0 +1,84 @@
+package Main;
+
+import java.awt.BorderLayout;
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.awt.image.BufferStrategy;
+
+/**
+ * Active rendering path.
+ *
+ * A Canvas is placed inside the gamePanel and the thread presenting frames (the render thread, or
+ * the game thread when game.renderThread is off) draws straight into its BufferStrategy, then flips it. Nothing goes through the EDT or repaint(), so every frame the
+ * loop renders is presented exactly when the loop decides to, not when Swing gets round to it.
+ */
+public class ActiveRenderer {
+    private final gamePanel gp;
+    private final Canvas canvas = new Canvas();
+    private final boolean sync;
+    private BufferStrategy strategy;
+
+    public ActiveRenderer(gamePanel gp, boolean sync) {
+        this.gp = gp;
+        this.sync = sync;
+
+        canvas.setPreferredSize(gp.getPreferredSize());
+        canvas.setBackground(Color.black);
+        canvas.setIgnoreRepaint(true);
+        canvas.setFocusable(true);
+        canvas.addKeyListener(gp.keyH);
+
+        gp.setLayout(new BorderLayout());
+        gp.add(canvas, BorderLayout.CENTER);
+        gp.setIgnoreRepaint(true);
+    }
+
+    /**
+     * Draws one frame into the back buffer and shows it.
+     * Called on the render thread, or the game thread without one. Does nothing until the window is on screen.
+     */
+    public void render() {
+        if (strategy == null) {
+            if (!canvas.isDisplayable()) {
+                return;
+            }
+            canvas.createBufferStrategy(2);
+            strategy = canvas.getBufferStrategy();
+            canvas.requestFocusInWindow();
+        }
+
+        long presentNanos = 0;
+
+        // The buffer contents can be lost (e.g. the display mode changed), in which case the frame is drawn again
+        do {
+            do {
+                Graphics2D g2 = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    g2.setColor(Color.black);
+                    g2.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                    gp.drawFrame(g2, canvas.getWidth(), canvas.getHeight());
+                } finally {
+                    g2.dispose();
+                }
+            } while (strategy.contentsRestored());
+
+            long presentStart = System.nanoTime();
+            strategy.show();
+            presentNanos += System.nanoTime() - presentStart;
+        } while (strategy.contentsLost());
+
+        // Flush the window system's queue so the frame isn't held back (matters on X11)
+        if (sync) {
+            long syncStart = System.nanoTime();
+            Toolkit.getDefaultToolkit().sync();
+            presentNanos += System.nanoTime() - syncStart;
+        }
+        gp.getProfiler().record(FrameProfiler.Phase.PRESENT, presentNanos);
+    }
+
+    public Canvas getCanvas() {
+        return canvas;
+    }
+}
@@ -0,0 +1,65 @@
+package Main;
+
+/**
+ * The part of the world shown on screen.
+ *
+ * The camera position is the world pixel at the top-left corner of the view. It is moved by the
+ * game thread and read by whoever draws, which should read it once per frame and draw everything
+ * with the same values.
+ */
+public class Camera {
+    private final int viewWidth;
+    private final int viewHeight;
+
+    private volatile int x;
+    private volatile int y;
+
+    public Camera(int viewWidth, int viewHeight) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+    }
+
+    /**
+     * Centers the view on a world position, without showing anything past the edges of the world.
+     * A world smaller than the view stays in the top-left corner.
+     *
+     * @param worldWidth Width of the world in pixels
+     * @param worldHeight Height of the world in pixels
+     */
+    public void follow(int targetX, int targetY, int worldWidth, int worldHeight) {
+        x = clamp(targetX - viewWidth / 2, worldWidth - viewWidth);
+        y = clamp(targetY - viewHeight / 2, worldHeight - viewHeight);
+    }
+
+    public void setPosition(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getViewWidth() {
+        return viewWidth;
+    }
+
+    public int getViewHeight() {
+        return viewHeight;
+    }
+
+    /**
+     * @return true if any part of the given world rectangle is on screen
+     */
+    public boolean isVisible(int worldX, int worldY, int width, int height) {
+        return worldX + width > x && worldY + height > y && worldX < x + viewWidth && worldY < y + viewHeight;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, max));
+    }
+}
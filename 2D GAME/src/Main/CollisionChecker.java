@@ -0,0 +1,118 @@
+package Main;
+
+import Entity.entity;
+import tile.CollisionMap;
+
+import java.awt.Rectangle;
+
+/**
+ * Moves collision boxes through the tile grid without letting them enter solid tiles.
+ *
+ * Movement is swept one axis at a time: every tile column (or row) the leading edge of the box
+ * crosses on its way is checked, and the move stops flush against the first solid one. Nothing
+ * tunnels through thin walls, however large the step.
+ */
+public class CollisionChecker {
+    private final CollisionMap map;
+    private final int tileSize;
+
+    public CollisionChecker(CollisionMap map, int tileSize) {
+        this.map = map;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Moves an entity by up to (dx, dy), horizontally first, and sets its collisionOn flag
+     * if a solid tile cut the move short.
+     */
+    public void move(entity e, int dx, int dy) {
+        int movedX = sweepX(e.x, e.y, e.solidArea, dx);
+        e.x += movedX;
+        int movedY = sweepY(e.x, e.y, e.solidArea, dy);
+        e.y += movedY;
+        e.collisionOn = movedX != dx || movedY != dy;
+    }
+
+    /**
+     * @param x Position of the entity owning the box
+     * @param y Position of the entity owning the box
+     * @param box Collision box relative to the entity position
+     * @param dx Wanted horizontal move in pixels
+     * @return How far the box can actually move, between 0 and dx
+     */
+    public int sweepX(int x, int y, Rectangle box, int dx) {
+        if (dx == 0) {
+            return 0;
+        }
+        int left = x + box.x;
+        int right = left + box.width - 1;
+        int firstRow = Math.floorDiv(y + box.y, tileSize);
+        int lastRow = Math.floorDiv(y + box.y + box.height - 1, tileSize);
+
+        if (dx > 0) {
+            int last = Math.floorDiv(right + dx, tileSize);
+            for (int col = Math.floorDiv(right, tileSize) + 1; col <= last; col++) {
+                if (blocked(col, col, firstRow, lastRow)) {
+                    return col * tileSize - 1 - right;
+                }
+            }
+        } else {
+            int last = Math.floorDiv(left + dx, tileSize);
+            for (int col = Math.floorDiv(left, tileSize) - 1; col >= last; col--) {
+                if (blocked(col, col, firstRow, lastRow)) {
+                    return (col + 1) * tileSize - left;
+                }
+            }
+        }
+        return dx;
+    }
+
+    /**
+     * Vertical counterpart of sweepX.
+     */
+    public int sweepY(int x, int y, Rectangle box, int dy) {
+        if (dy == 0) {
+            return 0;
+        }
+        int top = y + box.y;
+        int bottom = top + box.height - 1;
+        int firstCol = Math.floorDiv(x + box.x, tileSize);
+        int lastCol = Math.floorDiv(x + box.x + box.width - 1, tileSize);
+
+        if (dy > 0) {
+            int last = Math.floorDiv(bottom + dy, tileSize);
+            for (int row = Math.floorDiv(bottom, tileSize) + 1; row <= last; row++) {
+                if (blocked(firstCol, lastCol, row, row)) {
+                    return row * tileSize - 1 - bottom;
+                }
+            }
+        } else {
+            int last = Math.floorDiv(top + dy, tileSize);
+            for (int row = Math.floorDiv(top, tileSize) - 1; row >= last; row--) {
+                if (blocked(firstCol, lastCol, row, row)) {
+                    return (row + 1) * tileSize - top;
+                }
+            }
+        }
+        return dy;
+    }
+
+    /**
+     * @return true if the box at the given position touches any solid tile
+     */
+    public boolean overlapsSolid(int x, int y, Rectangle box) {
+        return blocked(Math.floorDiv(x + box.x, tileSize), Math.floorDiv(x + box.x + box.width - 1, tileSize),
+                Math.floorDiv(y + box.y, tileSize), Math.floorDiv(y + box.y + box.height - 1, tileSize));
+    }
+
+    private boolean blocked(int firstCol, int lastCol, int firstRow, int lastRow) {
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                if (map.isSolid(col, row)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
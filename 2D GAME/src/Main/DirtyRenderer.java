@@ -0,0 +1,261 @@
+package Main;
+
+import tile.ChunkedWorld;
+import tile.MapLayer;
+import tile.TileListener;
+import tile.tileManager;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Dirty-rectangle rendering for scenes that are mostly still.
+ *
+ * The last frame is kept in an image. Each time a frame is due, the latest snapshot is compared with
+ * the one on screen: sprites that moved or changed animation frame, sprites that came or went,
+ * edited tiles and animated tiles that moved on to their next frame each mark their rectangles dirty. Only those rectangles are redrawn into
+ * the image and repainted; when nothing is dirty the frame is skipped and nothing is painted at all.
+ * A moving camera, chunks streaming in or out, or the profiler overlay being shown repaint everything.
+ */
+public class DirtyRenderer implements TileListener {
+    // Past this many rectangles, or this share of the screen, one full redraw is cheaper
+    private static final int MAX_RECTS = 64;
+    private static final double FULL_REDRAW_SHARE = 0.5;
+
+    private final gamePanel gp;
+    private final int width;
+    private final int height;
+    private final BufferedImage frame;
+    private final Graphics2D g2;
+
+    // What the image currently shows
+    private final FrameSnapshot shown = new FrameSnapshot();
+    private long shownResidency = -1;
+    private boolean shownOverlay;
+    private boolean full = true;
+
+    // Dirty rectangles in screen pixels
+    private final int[] rectX = new int[MAX_RECTS];
+    private final int[] rectY = new int[MAX_RECTS];
+    private final int[] rectW = new int[MAX_RECTS];
+    private final int[] rectH = new int[MAX_RECTS];
+    private int rects;
+    private long dirtyArea;
+
+    // Tiles edited since the last frame, written by the game thread
+    private int[] editCols = new int[16];
+    private int[] editRows = new int[16];
+    private int edits;
+
+    private long framesDrawn;
+    private long framesSkipped;
+    private long fullRedraws;
+    private long pixelsDrawn;
+
+    public DirtyRenderer(gamePanel gp) {
+        this.gp = gp;
+        this.width = gp.screenWidth;
+        this.height = gp.screenHeight;
+        frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g2 = frame.createGraphics();
+    }
+
+    /**
+     * Brings the retained frame up to date with the latest snapshot and asks Swing to repaint what changed.
+     * Does nothing, not even a repaint, if nothing changed.
+     */
+    public void render() {
+        FrameSnapshot snapshot = gp.snapshots.getLatest();
+        findDirty(snapshot);
+        if (!full && rects == 0) {
+            framesSkipped++;
+            return;
+        }
+
+        synchronized (frame) {
+            if (full) {
+                g2.setClip(0, 0, width, height);
+            } else {
+                Area clip = new Area();
+                for (int i = 0; i < rects; i++) {
+                    clip.add(new Area(new Rectangle(rectX[i], rectY[i], rectW[i], rectH[i])));
+                }
+                g2.setClip(clip);
+            }
+            g2.setColor(Color.BLACK);
+            g2.fillRect(0, 0, width, height);
+            gp.drawFrame(g2, snapshot);
+        }
+        shown.copyFrom(snapshot);
+        framesDrawn++;
+
+        if (full) {
+            fullRedraws++;
+            pixelsDrawn += (long) width * height;
+            gp.repaint();
+        } else {
+            pixelsDrawn += dirtyArea;
+            for (int i = 0; i < rects; i++) {
+                gp.repaint(rectX[i], rectY[i], rectW[i], rectH[i]);
+            }
+        }
+        full = false;
+    }
+
+    /**
+     * Copies the retained frame to the screen. Swing's clip limits it to the repainted regions.
+     */
+    public void paint(Graphics2D g) {
+        synchronized (frame) {
+            g.drawImage(frame, 0, 0, null);
+        }
+    }
+
+    // Called on the game thread whenever a tile is edited
+    @Override
+    public synchronized void tileChanged(int layer, int col, int row, int oldTile, int newTile) {
+        if (edits == editCols.length) {
+            editCols = Arrays.copyOf(editCols, edits * 2);
+            editRows = Arrays.copyOf(editRows, edits * 2);
+        }
+        editCols[edits] = col;
+        editRows[edits] = row;
+        edits++;
+    }
+
+    private void findDirty(FrameSnapshot now) {
+        rects = 0;
+        dirtyArea = 0;
+        int size = gp.tileSize;
+
+        ChunkedWorld world = gp.getTileManager().getWorld();
+        long residency = world != null ? world.getResidencyVersion() : 0;
+        boolean overlay = gp.getProfiler().isOverlayVisible();
+        if (residency != shownResidency || overlay || overlay != shownOverlay
+                || now.cameraX != shown.cameraX || now.cameraY != shown.cameraY) {
+            full = true;
+        }
+        shownResidency = residency;
+        shownOverlay = overlay;
+
+        synchronized (this) {
+            for (int i = 0; i < edits && !full; i++) {
+                add(editCols[i] * size - now.cameraX, editRows[i] * size - now.cameraY, size);
+            }
+            edits = 0;
+        }
+        if (full) {
+            return;
+        }
+
+        int camX = now.cameraX;
+        int camY = now.cameraY;
+        tileManager tileM = gp.getTileManager();
+        if (world != null && tileM.framesChanged(shown.tileTick, now.tileTick)) {
+            // The camera hasn't moved, so the cells on screen are the same as last frame
+            int firstCol = Math.floorDiv(camX, size);
+            int firstRow = Math.floorDiv(camY, size);
+            int lastCol = Math.floorDiv(camX + width - 1, size);
+            int lastRow = Math.floorDiv(camY + height - 1, size);
+            for (int row = firstRow; row <= lastRow && !full; row++) {
+                for (int col = firstCol; col <= lastCol && !full; col++) {
+                    if (tileM.frameChanged(world.getTile(MapLayer.GROUND, col, row), shown.tileTick, now.tileTick)
+                            || tileM.frameChanged(world.getTile(MapLayer.DECORATION, col, row), shown.tileTick, now.tileTick)
+                            || tileM.frameChanged(world.getTile(MapLayer.OVERLAY, col, row), shown.tileTick, now.tileTick)) {
+                        add(col * size - camX, row * size - camY, size);
+                    }
+                }
+            }
+        }
+        if (now.playerImage != shown.playerImage || now.playerX != shown.playerX || now.playerY != shown.playerY) {
+            add(shown.playerX - camX, shown.playerY - camY, size);
+            add(now.playerX - camX, now.playerY - camY, size);
+        }
+
+        // Both lists are in ascending id order, so one merge pass pairs up the same entity in both
+        int a = 0;
+        int b = 0;
+        while ((a < shown.spriteCount || b < now.spriteCount) && !full) {
+            int oldId = a < shown.spriteCount ? shown.spriteIds[a] : Integer.MAX_VALUE;
+            int newId = b < now.spriteCount ? now.spriteIds[b] : Integer.MAX_VALUE;
+            if (oldId == newId) {
+                if (shown.spriteImages[a] != now.spriteImages[b] || shown.spriteX[a] != now.spriteX[b]
+                        || shown.spriteY[a] != now.spriteY[b]) {
+                    add(shown.spriteX[a] - camX, shown.spriteY[a] - camY, size);
+                    add(now.spriteX[b] - camX, now.spriteY[b] - camY, size);
+                }
+                a++;
+                b++;
+            } else if (oldId < newId) {
+                add(shown.spriteX[a] - camX, shown.spriteY[a] - camY, size); // Left the view
+                a++;
+            } else {
+                add(now.spriteX[b] - camX, now.spriteY[b] - camY, size); // Came into view
+                b++;
+            }
+        }
+    }
+
+    // Marks a size x size square dirty, clipped to the screen, merging it into a rectangle it overlaps or touches
+    private void add(int x, int y, int size) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(width, x + size);
+        int y1 = Math.min(height, y + size);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        for (int i = 0; i < rects; i++) {
+            if (x0 <= rectX[i] + rectW[i] && x1 >= rectX[i] && y0 <= rectY[i] + rectH[i] && y1 >= rectY[i]) {
+                int ux0 = Math.min(x0, rectX[i]);
+                int uy0 = Math.min(y0, rectY[i]);
+                int ux1 = Math.max(x1, rectX[i] + rectW[i]);
+                int uy1 = Math.max(y1, rectY[i] + rectH[i]);
+                dirtyArea += (long) (ux1 - ux0) * (uy1 - uy0) - (long) rectW[i] * rectH[i];
+                rectX[i] = ux0;
+                rectY[i] = uy0;
+                rectW[i] = ux1 - ux0;
+                rectH[i] = uy1 - uy0;
+                checkFull();
+                return;
+            }
+        }
+        if (rects == MAX_RECTS) {
+            full = true;
+            return;
+        }
+        rectX[rects] = x0;
+        rectY[rects] = y0;
+        rectW[rects] = x1 - x0;
+        rectH[rects] = y1 - y0;
+        rects++;
+        dirtyArea += (long) (x1 - x0) * (y1 - y0);
+        checkFull();
+    }
+
+    private void checkFull() {
+        if (dirtyArea > FULL_REDRAW_SHARE * width * height) {
+            full = true;
+        }
+    }
+
+    public long getFramesDrawn() {
+        return framesDrawn;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    @Override
+    public String toString() {
+        long frames = Math.max(1, framesDrawn);
+        return String.format("dirty drawn=%d skipped=%d full=%d avgPixels=%.0f (%.1f%% of screen)", framesDrawn,
+                framesSkipped, fullRedraws, pixelsDrawn / (double) frames,
+                100.0 * pixelsDrawn / frames / ((double) width * height));
+    }
+}
@@ -0,0 +1,207 @@
+package Main;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps frames inside their time budget by giving up some quality while the machine can't keep up,
+ * and handing it back once there is headroom again.
+ *
+ * Updates and drawn frames report how long they took. Every quarter second the governor works out
+ * what each frame that was due cost on average. When one thread both updates and draws, that is the
+ * two added up; with a render thread of its own they run side by side, so it is the busier of the two.
+ * It smooths that over the last few windows and compares it with the frame time target (one frame at
+ * config.fps). While the cost stays above the target it
+ * steps down one Level at a time; after it has stayed well below for a few seconds it steps back up.
+ * Coming back up to a level that soon proves too slow again makes the next attempt wait twice as long,
+ * so an overloaded machine settles instead of flickering between two levels.
+ * Every step is printed with the numbers behind it.
+ */
+public class FrameGovernor {
+
+    /**
+     * Quality steps, each one giving up a little more than the one before and keeping what those gave up.
+     */
+    public enum Level {
+        FULL("full quality"),
+        SKIP_REPEATS("skip frames that would show the same tick again"),
+        NATIVE_SCALE("compose frames at native resolution and scale them up once"),
+        NO_EFFECTS("freeze tile animation"),
+        HALF_RATE("draw every second frame");
+
+        final String description;
+
+        Level(String description) {
+            this.description = description;
+        }
+    }
+
+    private static final Level[] LEVELS = Level.values();
+    private static final long WINDOW_NANOS = 250_000_000L;
+    // Loading and JIT compilation make the first frames slow however fast the machine is
+    private static final long WARM_UP_NANOS = 1_000_000_000L;
+    // Step down while the smoothed cost is above this share of the target, step up while below the lower one
+    private static final double HIGH = 0.9;
+    private static final double LOW = 0.5;
+    private static final int WINDOWS_TO_DEGRADE = 2;
+    private static final int WINDOWS_TO_RECOVER = 12;
+    private static final int MAX_WINDOWS_TO_RECOVER = 240;
+    // A step down this soon after stepping up to a level doubles the wait before trying that level again
+    private static final long RELAPSE_NANOS = 10_000_000_000L;
+    private static final double SMOOTHING = 0.5;
+
+    private final long targetNanos;
+    private final boolean canLowerScale;
+    private final boolean separateThreads;
+
+    // Written by the game thread (updates) and whichever thread draws (frames)
+    private final AtomicLong updateNanos = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+
+    // Owned by the thread that calls beginFrame
+    private long windowStart;
+    private int dueFrames;
+    private double average = -1;
+    private int windowsOver;
+    private int windowsUnder;
+    private final int[] recoverWindows = new int[LEVELS.length];
+    private long steppedUpAt;
+    private boolean skipNext;
+    private long skipped;
+    private int adjustments;
+    private volatile Level level = Level.FULL;
+
+    /**
+     * @param targetNanos Time one frame may take
+     * @param canLowerScale Whether NATIVE_SCALE would change anything; the level is passed over when it wouldn't
+     * @param separateThreads Whether updates and drawing run on threads of their own
+     */
+    public FrameGovernor(long targetNanos, boolean canLowerScale, boolean separateThreads) {
+        this.targetNanos = targetNanos;
+        this.canLowerScale = canLowerScale;
+        this.separateThreads = separateThreads;
+        Arrays.fill(recoverWindows, WINDOWS_TO_RECOVER);
+    }
+
+    public void recordUpdate(long nanos) {
+        updateNanos.addAndGet(nanos);
+    }
+
+    public void recordRender(long nanos) {
+        renderNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Called whenever a frame is due, by the one thread that presents frames.
+     *
+     * @param newTick Whether a tick was published since the last frame was drawn
+     * @return true to draw the frame, false to skip it
+     */
+    public boolean beginFrame(boolean newTick, long now) {
+        dueFrames++;
+        evaluate(now);
+        Level current = level;
+        boolean draw = true;
+        if (current.compareTo(Level.SKIP_REPEATS) >= 0 && !newTick) {
+            draw = false;
+        } else if (current == Level.HALF_RATE) {
+            draw = !skipNext;
+            skipNext = !skipNext;
+        }
+        if (!draw) {
+            skipped++;
+        }
+        return draw;
+    }
+
+    private void evaluate(long now) {
+        if (windowStart == 0) {
+            windowStart = now + WARM_UP_NANOS;
+            updateNanos.set(0);
+            renderNanos.set(0);
+            return;
+        }
+        if (now - windowStart < WINDOW_NANOS) {
+            if (now < windowStart) {
+                // Still warming up, nothing counts yet
+                dueFrames = 0;
+                updateNanos.set(0);
+                renderNanos.set(0);
+            }
+            return;
+        }
+        long updates = updateNanos.getAndSet(0);
+        long renders = renderNanos.getAndSet(0);
+        double cost = (separateThreads ? Math.max(updates, renders) : updates + renders) / (double) dueFrames;
+        average = average < 0 ? cost : average + SMOOTHING * (cost - average);
+        windowStart = now;
+        dueFrames = 0;
+
+        Level current = level;
+        if (average > targetNanos * HIGH) {
+            windowsUnder = 0;
+            if (++windowsOver >= WINDOWS_TO_DEGRADE && current != Level.HALF_RATE) {
+                if (now - steppedUpAt < RELAPSE_NANOS) {
+                    // The level we came back to couldn't hold; wait longer before trying it again
+                    recoverWindows[current.ordinal()] = Math.min(MAX_WINDOWS_TO_RECOVER,
+                            recoverWindows[current.ordinal()] * 2);
+                }
+                step(current, next(current, 1));
+            }
+        } else if (average < targetNanos * LOW) {
+            windowsOver = 0;
+            if (current != Level.FULL && ++windowsUnder >= recoverWindows[next(current, -1).ordinal()]) {
+                steppedUpAt = now;
+                step(current, next(current, -1));
+            }
+        } else {
+            windowsOver = 0;
+            windowsUnder = 0;
+        }
+    }
+
+    private Level next(Level from, int direction) {
+        int i = from.ordinal() + direction;
+        if (LEVELS[i] == Level.NATIVE_SCALE && !canLowerScale) {
+            i += direction;
+        }
+        return LEVELS[i];
+    }
+
+    private void step(Level from, Level to) {
+        System.out.printf("Frame governor: %.2fms per frame against a %.2fms target, %s -> %s (%s)%n",
+                average / 1e6, targetNanos / 1e6, from, to, to.description);
+        level = to;
+        adjustments++;
+        windowsOver = 0;
+        windowsUnder = 0;
+        // The cost changes with the level, so start averaging afresh
+        average = -1;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isNativeScale() {
+        return canLowerScale && level.compareTo(Level.NATIVE_SCALE) >= 0;
+    }
+
+    public boolean isAnimating() {
+        return level.compareTo(Level.NO_EFFECTS) < 0;
+    }
+
+    // Frames that were due but not drawn
+    public long getSkippedFrames() {
+        return skipped;
+    }
+
+    public int getAdjustments() {
+        return adjustments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("quality %s skipped=%d", level, skipped);
+    }
+}
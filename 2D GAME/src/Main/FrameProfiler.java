@@ -0,0 +1,302 @@
+package Main;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects how long each phase of a frame takes.
+ *
+ * Every phase has its own LatencyHistogram. The one-second window feeds the on-screen overlay
+ * (toggled with F3) and is folded into a longer interval that is written to a CSV or JSON-lines
+ * file on a background thread, so spikes that an FPS average hides show up as p99/max.
+ *
+ * Samples come from several threads (the game loop, the render thread, the EDT), and roll() runs on
+ * the game thread while they keep recording. Each recording thread therefore fills window histograms
+ * of its own, and roll() swaps in a fresh set before reading the old one.
+ */
+public class FrameProfiler {
+
+    public enum Phase {
+        UPDATE,  // gamePanel.update()
+        TILES,   // tileManager.draw
+        PLAYER,  // Player.draw
+        ENTITIES, // EntityStore.draw for NPCs
+        PRESENT, // BufferStrategy.show() plus sync, active rendering only
+        FRAME,   // Time between the starts of consecutive frames
+        INPUT    // From a key event to the end of the first frame drawn after the game reacted to it
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    // Windows of every thread that has recorded something, and the one of the calling thread
+    private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+        Recorder r = new Recorder();
+        recorders.add(r);
+        return r;
+    });
+    // The rest belongs to whichever thread rolls. The last closed window of all threads together
+    private final LatencyHistogram[] window = new LatencyHistogram[PHASES.length];
+    private final LatencyHistogram[] interval = new LatencyHistogram[PHASES.length];
+    // Everything since the profiler was created
+    private final LatencyHistogram[] total = new LatencyHistogram[PHASES.length];
+
+    private final String dumpFile;
+    private final int dumpIntervalSeconds;
+    private final boolean json;
+    private ExecutorService writer;
+    private int secondsSinceDump;
+
+    private volatile boolean overlayVisible;
+    private volatile String[] overlayLines = new String[0];
+    private final Font overlayFont = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private final Color overlayBackground = new Color(0, 0, 0, 160);
+
+    // One thread's window histograms. The thread records into the active set; roll() swaps the two
+    // sets and waits out a record() that may still be writing to the old one before reading it.
+    private static final class Recorder {
+        private final LatencyHistogram[] first = newHistograms();
+        private final LatencyHistogram[] second = newHistograms();
+        private volatile LatencyHistogram[] active = first;
+        // Odd while the thread is inside record()
+        private final AtomicLong writes = new AtomicLong();
+
+        void record(int phase, long nanos) {
+            writes.incrementAndGet();
+            active[phase].record(nanos);
+            writes.incrementAndGet();
+        }
+
+        // Only called by the rolling thread. The returned set stays untouched until the next swap.
+        LatencyHistogram[] swap() {
+            LatencyHistogram[] old = active;
+            active = old == first ? second : first;
+            long seen = writes.get();
+            if ((seen & 1) != 0) {
+                while (writes.get() == seen) {
+                    Thread.onSpinWait();
+                }
+            }
+            return old;
+        }
+    }
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * @param dumpFile File to append the interval statistics to, or null to not write any
+     * @param dumpIntervalSeconds How many one-second windows go into each written record
+     */
+    public FrameProfiler(String dumpFile, int dumpIntervalSeconds) {
+        for (int i = 0; i < PHASES.length; i++) {
+            window[i] = new LatencyHistogram();
+            interval[i] = new LatencyHistogram();
+            total[i] = new LatencyHistogram();
+        }
+        this.dumpFile = dumpFile;
+        this.dumpIntervalSeconds = Math.max(1, dumpIntervalSeconds);
+        this.json = dumpFile != null && dumpFile.endsWith(".json");
+    }
+
+    public void record(Phase phase, long nanos) {
+        recorder.get().record(phase.ordinal(), nanos);
+    }
+
+    /**
+     * @return The last closed one-second window of the phase
+     */
+    public LatencyHistogram getWindow(Phase phase) {
+        return window[phase.ordinal()];
+    }
+
+    public LatencyHistogram getInterval(Phase phase) {
+        return interval[phase.ordinal()];
+    }
+
+    /**
+     * @return Every sample of the phase up to the last roll()
+     */
+    public LatencyHistogram getTotal(Phase phase) {
+        return total[phase.ordinal()];
+    }
+
+    public void toggleOverlay() {
+        overlayVisible = !overlayVisible;
+    }
+
+    public boolean isOverlayVisible() {
+        return overlayVisible;
+    }
+
+    /**
+     * Closes the one-second window: refreshes the overlay text and, every dumpIntervalSeconds,
+     * hands the interval statistics to the writer thread. Called once a second by the game loop.
+     */
+    public synchronized void roll() {
+        collect();
+        String[] lines = new String[PHASES.length + 1];
+        lines[0] = "phase      p50ms   p99ms   maxms";
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = window[i];
+            lines[i + 1] = String.format("%-8s %7.2f %7.2f %7.2f", PHASES[i],
+                    h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6);
+        }
+        overlayLines = lines;
+
+        if (++secondsSinceDump >= dumpIntervalSeconds) {
+            dumpInterval();
+        }
+    }
+
+    // Moves what every thread recorded since the last call into window, interval and total
+    private void collect() {
+        for (LatencyHistogram h : window) {
+            h.reset();
+        }
+        for (Recorder r : recorders) {
+            LatencyHistogram[] recorded = r.swap();
+            for (int i = 0; i < PHASES.length; i++) {
+                window[i].add(recorded[i]);
+                recorded[i].reset();
+            }
+        }
+        for (int i = 0; i < PHASES.length; i++) {
+            interval[i].add(window[i]);
+            total[i].add(window[i]);
+        }
+    }
+
+    private void dumpInterval() {
+        secondsSinceDump = 0;
+        if (dumpFile != null) {
+            String record = json ? toJson() : toCsv();
+            submit(record);
+        }
+        for (LatencyHistogram h : interval) {
+            h.reset();
+        }
+    }
+
+    /**
+     * Draws the statistics of the last second in the top left corner if the overlay is on.
+     */
+    public void drawOverlay(Graphics2D g2) {
+        if (!overlayVisible) {
+            return;
+        }
+        String[] lines = overlayLines;
+        g2.setFont(overlayFont);
+        g2.setColor(overlayBackground);
+        g2.fillRect(4, 4, 250, 16 * lines.length + 8);
+        g2.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g2.drawString(lines[i], 10, 20 + 16 * i);
+        }
+    }
+
+    /**
+     * Appends one CSV line per phase summarising everything recorded so far, writing a header first
+     * if the file is new. Used at the end of a replay so runs of different builds can be compared.
+     *
+     * @param label Tag of the build or machine being measured
+     * @param run Name of the run, e.g. the replay file
+     */
+    public void appendSummary(String file, String label, String run) {
+        StringBuilder sb = new StringBuilder();
+        if (new File(file).length() == 0) {
+            sb.append("time,label,run,phase,count,mean_ms,p50_ms,p99_ms,max_ms").append(System.lineSeparator());
+        }
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = total[i];
+            sb.append(time).append(',').append(label).append(',').append(run).append(',').append(PHASES[i])
+                    .append(',').append(h.getCount())
+                    .append(String.format(",%.4f,%.4f,%.4f,%.4f%n", h.getMean() / 1e6,
+                            h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        append(file, sb.toString());
+    }
+
+    /**
+     * Writes any statistics collected so far and stops the writer thread.
+     */
+    public synchronized void close() {
+        collect();
+        for (LatencyHistogram h : interval) {
+            if (h.getCount() > 0) {
+                dumpInterval();
+                break;
+            }
+        }
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+
+    private String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = interval[i];
+            sb.append(time).append(',').append(PHASES[i]).append(',').append(h.getCount())
+                    .append(String.format(",%.4f,%.4f,%.4f,%.4f%n", h.getMean() / 1e6,
+                            h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+    private String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"time\":").append(System.currentTimeMillis()).append(",\"phases\":{");
+        for (int i = 0; i < PHASES.length; i++) {
+            LatencyHistogram h = interval[i];
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(PHASES[i]).append("\":")
+                    .append(String.format("{\"count\":%d,\"meanMs\":%.4f,\"p50Ms\":%.4f,\"p99Ms\":%.4f,\"maxMs\":%.4f}",
+                            h.getCount(), h.getMean() / 1e6, h.getPercentile(50) / 1e6,
+                            h.getPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        sb.append("}}").append(System.lineSeparator());
+        return sb.toString();
+    }
+
+    private void submit(String record) {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "stats-writer");
+                t.setDaemon(true);
+                return t;
+            });
+            if (!json && new File(dumpFile).length() == 0) {
+                writer.execute(() -> append(dumpFile, "time,phase,count,mean_ms,p50_ms,p99_ms,max_ms" + System.lineSeparator()));
+            }
+        }
+        writer.execute(() -> append(dumpFile, record));
+    }
+
+    private static void append(String file, String text) {
+        try (Writer out = new FileWriter(file, true)) {
+            out.write(text);
+        } catch (IOException e) {
+            System.err.println("Error writing frame statistics: " + e.getMessage());
+        }
+    }
+}
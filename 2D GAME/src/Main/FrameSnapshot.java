@@ -0,0 +1,81 @@
+package Main;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Everything needed to draw one frame, copied out of the game state at the end of a tick.
+ *
+ * A snapshot is filled by the game thread while it owns it and is read-only once published through
+ * the SnapshotBuffer, so the renderer never sees a half-updated player or entity. Snapshots are
+ * pooled and reused every tick; the sprite arrays only ever grow.
+ */
+public class FrameSnapshot {
+    // Tick the snapshot was taken at
+    public long tick;
+
+    // World pixel at the top-left corner of the view
+    public int cameraX;
+    public int cameraY;
+
+    // Tick of the tile animation clock, which decides the frame of every animated tile
+    public long tileTick;
+
+    // Player sprite and world position. The image is null if the player's sprites failed to load.
+    public BufferedImage playerImage;
+    public int playerX;
+    public int playerY;
+
+    // Other entities in view: sprite, world position and entity id, in drawing order (ascending id)
+    public int spriteCount;
+    public BufferedImage[] spriteImages = new BufferedImage[64];
+    public int[] spriteX = new int[64];
+    public int[] spriteY = new int[64];
+    public int[] spriteIds = new int[64];
+
+    public void clearSprites() {
+        // Drop the image references so the pool doesn't keep old sprites alive
+        Arrays.fill(spriteImages, 0, spriteCount, null);
+        spriteCount = 0;
+    }
+
+    public void addSprite(BufferedImage image, int x, int y, int id) {
+        if (spriteCount == spriteImages.length) {
+            grow(spriteCount * 2);
+        }
+        spriteImages[spriteCount] = image;
+        spriteX[spriteCount] = x;
+        spriteY[spriteCount] = y;
+        spriteIds[spriteCount] = id;
+        spriteCount++;
+    }
+
+    /**
+     * Makes this snapshot a copy of another one, e.g. to remember what is currently on screen.
+     */
+    public void copyFrom(FrameSnapshot other) {
+        tick = other.tick;
+        cameraX = other.cameraX;
+        cameraY = other.cameraY;
+        tileTick = other.tileTick;
+        playerImage = other.playerImage;
+        playerX = other.playerX;
+        playerY = other.playerY;
+        clearSprites();
+        if (other.spriteCount > spriteImages.length) {
+            grow(other.spriteCount);
+        }
+        System.arraycopy(other.spriteImages, 0, spriteImages, 0, other.spriteCount);
+        System.arraycopy(other.spriteX, 0, spriteX, 0, other.spriteCount);
+        System.arraycopy(other.spriteY, 0, spriteY, 0, other.spriteCount);
+        System.arraycopy(other.spriteIds, 0, spriteIds, 0, other.spriteCount);
+        spriteCount = other.spriteCount;
+    }
+
+    private void grow(int capacity) {
+        spriteImages = Arrays.copyOf(spriteImages, capacity);
+        spriteX = Arrays.copyOf(spriteX, capacity);
+        spriteY = Arrays.copyOf(spriteY, capacity);
+        spriteIds = Arrays.copyOf(spriteIds, capacity);
+    }
+}
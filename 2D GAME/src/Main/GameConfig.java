@@ -0,0 +1,149 @@
+package Main;
+
+/**
+ * Runtime settings for the game, read from -D system properties so they can be changed
+ * without recompiling, e.g. java -Dgame.fps=144 -Dgame.pacing=sleep Main.Main
+ */
+public class GameConfig {
+    // Map resource to load, or generated:WIDTHxHEIGHT[:seed] for a made-up world of any size
+    public String map = "/maps/map2.txt";
+
+    // Number of wandering NPCs spawned into the entity store
+    public int npcs = 0;
+
+    // How many of those NPCs chase the player through a shared flow field instead of wandering
+    public int chasers = 0;
+
+    // Frames rendered per second. 0 or less renders as fast as possible.
+    public int fps = 60;
+
+    // Simulation ticks per second. The game logic assumes 60 (speeds and animation delays are per tick).
+    public int ups = 60;
+
+    // How the loop waits for the next tick or frame
+    public PacingStrategy pacing = PacingStrategy.PARK_SPIN;
+
+    // Most updates run back to back to catch up after a stall before the backlog is dropped
+    public int maxCatchUpSteps = 5;
+
+    // PARK_SPIN: how long before a deadline to stop parking and start spinning
+    public long spinNanos = 1_000_000;
+
+    // PASSIVE paints through repaint() on the EDT, ACTIVE presents from the game thread via a BufferStrategy
+    public RenderMode renderMode = RenderMode.PASSIVE;
+
+    // How frames are scaled up to the window; anything but OFF makes the window resizable. Ignored by DIRTY.
+    public ScaleMode scaleMode = ScaleMode.INTEGER;
+
+    // ACTIVE: call Toolkit.sync() after every flip so the frame reaches the screen right away
+    public boolean sync = true;
+
+    // ACTIVE: present frames from a render thread of their own instead of the game thread
+    public boolean renderThread = true;
+
+    // Print loop statistics once a second
+    public boolean printStats = true;
+
+    // Lower frame quality step by step while frames take longer than 1 / fps, and raise it again once they don't
+    public boolean governor = true;
+
+    // File the frame-time histograms are appended to (.json for JSON lines, anything else for CSV), null for none
+    public String statsFile = null;
+
+    // Seconds of frame-time data summarised in each record written to statsFile
+    public int statsInterval = 10;
+
+    // Key bindings in the KeyBindings format, null for the defaults
+    public String keys = null;
+
+    // Seed of everything random in the simulation (NPC placement and wandering)
+    public long seed = 42;
+
+    // File to record this session's input to, null to not record
+    public String record = null;
+
+    // Server to play on as host[:port] (see net.GameServer), null to play alone. Takes the map from the server.
+    public String connect = null;
+
+    // Save file to continue from if it exists and to save to, null for no saves. Not used online, recording or replaying.
+    public String save = null;
+
+    // Seconds between autosaves to the save file, 0 to only save when the game exits
+    public int autosave = 30;
+
+    // Light where no light reaches, 0 (night) to 255 (day), with the player carrying a torch; -1 for no lighting
+    public int light = -1;
+
+    // Fog of war: only what the player can see is shown, what it has seen stays dimly visible
+    public boolean fog = false;
+
+    // Input recording to play back instead of reading the keyboard, null to play normally
+    public String replay = null;
+
+    // "real" replays at the recorded tick rate, "fast" as fast as possible. Null: fast when headless, real otherwise
+    public String replaySpeed = null;
+
+    // CSV file each replay appends its frame-time summary to, null for the replay file name + ".stats.csv"
+    public String replayStats = null;
+
+    // Tag written with every replay summary, e.g. the build or commit being measured
+    public String label = "";
+
+    public static GameConfig fromSystemProperties() {
+        GameConfig config = new GameConfig();
+        config.map = System.getProperty("game.map", config.map);
+        config.npcs = Math.max(0, Integer.getInteger("game.npcs", config.npcs));
+        config.chasers = Math.max(0, Integer.getInteger("game.chasers", config.chasers));
+        config.fps = Integer.getInteger("game.fps", config.fps);
+        config.ups = Math.max(1, Integer.getInteger("game.ups", config.ups));
+        config.maxCatchUpSteps = Math.max(1, Integer.getInteger("game.maxCatchUp", config.maxCatchUpSteps));
+        config.spinNanos = Long.getLong("game.spinMicros", config.spinNanos / 1000) * 1000;
+        config.printStats = Boolean.parseBoolean(System.getProperty("game.stats", "true"));
+        config.governor = Boolean.parseBoolean(System.getProperty("game.governor", "true"));
+        config.sync = Boolean.parseBoolean(System.getProperty("game.sync", "true"));
+        config.renderThread = Boolean.parseBoolean(System.getProperty("game.renderThread", "true"));
+        config.statsFile = System.getProperty("game.statsFile", config.statsFile);
+        config.statsInterval = Math.max(1, Integer.getInteger("game.statsInterval", config.statsInterval));
+        config.keys = System.getProperty("game.keys", config.keys);
+        config.seed = Long.getLong("game.seed", config.seed);
+        config.record = System.getProperty("game.record", config.record);
+        config.connect = System.getProperty("game.connect", config.connect);
+        config.save = System.getProperty("game.save", config.save);
+        config.autosave = Math.max(0, Integer.getInteger("game.autosave", config.autosave));
+        config.light = Math.min(255, Integer.getInteger("game.light", config.light));
+        config.fog = Boolean.parseBoolean(System.getProperty("game.fog", "false"));
+        config.replay = System.getProperty("game.replay", config.replay);
+        config.replaySpeed = System.getProperty("game.replaySpeed", config.replaySpeed);
+        config.replayStats = System.getProperty("game.replayStats", config.replayStats);
+        config.label = System.getProperty("game.label", config.label);
+
+        String pacing = System.getProperty("game.pacing");
+        if (pacing != null) {
+            try {
+                config.pacing = PacingStrategy.valueOf(pacing.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown game.pacing '" + pacing + "', using " + config.pacing);
+            }
+        }
+        String render = System.getProperty("game.render");
+        if (render != null) {
+            try {
+                config.renderMode = RenderMode.valueOf(render.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown game.render '" + render + "', using " + config.renderMode);
+            }
+        }
+        String scale = System.getProperty("game.scale");
+        if (scale != null) {
+            try {
+                config.scaleMode = ScaleMode.valueOf(scale.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown game.scale '" + scale + "', using " + config.scaleMode);
+            }
+        }
+        if (config.fps <= 0) {
+            config.pacing = PacingStrategy.UNCAPPED;
+        }
+        return config;
+    }
+}
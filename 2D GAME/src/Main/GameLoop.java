@@ -0,0 +1,138 @@
+package Main;
+
+/**
+ * Fixed-timestep game loop.
+ *
+ * Updates run at a fixed rate (config.ups) and catch up after a stall, but never more than
+ * config.maxCatchUpSteps in a row so a slow machine can't fall into a spiral of ever longer frames.
+ * Frames are rendered at config.fps, and between deadlines the thread waits using the configured
+ * PacingStrategy instead of spinning on the clock. When a RenderLoop presents the frames on its own
+ * thread, this loop only runs updates.
+ */
+public class GameLoop implements Runnable {
+    private final gamePanel gp;
+    private final GameConfig config;
+    private final LoopStats stats = new LoopStats();
+    private final FrameProfiler profiler;
+    private volatile boolean running = true;
+
+    public GameLoop(gamePanel gp, GameConfig config) {
+        this.gp = gp;
+        this.config = config;
+        this.profiler = gp.getProfiler();
+    }
+
+    @Override
+    public void run() {
+        if (gp.isReplayFast()) {
+            runFast();
+            profiler.close();
+            return;
+        }
+
+        final long updateInterval = 1_000_000_000L / config.ups;
+        final boolean uncapped = config.pacing == PacingStrategy.UNCAPPED || config.fps <= 0;
+        final boolean renders = !gp.hasRenderThread();
+        final long drawInterval = uncapped ? 0 : 1_000_000_000L / config.fps;
+
+        long now = System.nanoTime();
+        long nextUpdate = now;
+        long nextDraw = now;
+        long lastDraw = now;
+        stats.start(now);
+
+        while (running) {
+            now = System.nanoTime();
+
+            // 1 UPDATE: run every tick that is due, up to the catch-up limit
+            int steps = 0;
+            while (now - nextUpdate >= 0 && steps < config.maxCatchUpSteps) {
+                long start = System.nanoTime();
+                gp.update();
+                profiler.record(FrameProfiler.Phase.UPDATE, System.nanoTime() - start);
+                stats.recordUpdate();
+                nextUpdate += updateInterval;
+                steps++;
+            }
+            if (gp.isReplayFinished()) {
+                break;
+            }
+            if (now - nextUpdate >= 0) {
+                // Still behind: drop the backlog instead of trying to simulate it all at once
+                stats.recordDropped((int) ((now - nextUpdate) / updateInterval) + 1);
+                nextUpdate = now + updateInterval;
+            }
+
+            // 2 DRAW: present a frame when one is due
+            if (renders && (uncapped || now - nextDraw >= 0)) {
+                stats.recordFrame(uncapped ? 0 : now - nextDraw);
+                profiler.record(FrameProfiler.Phase.FRAME, now - lastDraw);
+                lastDraw = now;
+                gp.render();
+                nextDraw += drawInterval;
+                if (System.nanoTime() - nextDraw >= 0) {
+                    nextDraw = System.nanoTime() + drawInterval; // Missed a frame, don't try to make it up
+                }
+            }
+
+            if (stats.roll(System.nanoTime())) {
+                profiler.roll();
+                if (config.printStats) {
+                    System.out.println(stats + " | " + gp.getStatusLine());
+                }
+            }
+
+            if (!renders) {
+                try {
+                    // Uncapped only means uncapped frames; updates stay on their fixed rate
+                    config.pacing.waitUntil(nextUpdate, config.spinNanos);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            } else if (!uncapped) {
+                try {
+                    config.pacing.waitUntil(Math.min(nextUpdate, nextDraw), config.spinNanos);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+        }
+        profiler.close();
+    }
+
+    // Replays as fast as possible: one update and one frame after another, no waiting
+    private void runFast() {
+        long lastDraw = System.nanoTime();
+        stats.start(lastDraw);
+        while (running && !gp.isReplayFinished()) {
+            long start = System.nanoTime();
+            gp.update();
+            long now = System.nanoTime();
+            profiler.record(FrameProfiler.Phase.UPDATE, now - start);
+            stats.recordUpdate();
+
+            // With a render thread, frames keep coming from there
+            if (!gp.hasRenderThread()) {
+                stats.recordFrame(0);
+                profiler.record(FrameProfiler.Phase.FRAME, now - lastDraw);
+                lastDraw = now;
+                gp.render();
+            }
+
+            if (stats.roll(System.nanoTime())) {
+                profiler.roll();
+                if (config.printStats) {
+                    System.out.println(stats + " | " + gp.getStatusLine());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public LoopStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,183 @@
+package Main;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Runs the game without a window.
+ *
+ * Input comes from a script instead of the keyboard and every tick is rendered into an off-screen
+ * image, so the update and draw paths can be exercised and timed on a machine with no display.
+ * With -Dgame.render=dirty frames go through the DirtyRenderer instead, as they would in a window.
+ * Ticks run back to back, not in real time, and the frame governor judges them against the frame
+ * budget all the same, so -Dgame.fps sets how much time each tick and its frame may take.
+ *
+ * java Main.HeadlessRunner [ticks] [script]
+ * The script is a comma separated list of KEY:TICKS steps, where KEY is U, D, L, R or _ (no key),
+ * e.g. "R:120,D:60,_:30,L:120". It repeats until all ticks have run.
+ * With -Dgame.replay=file the input comes from a recording instead and the run ends with it;
+ * -Dgame.replaySpeed=real paces it at the recorded tick rate. With -Dgame.record=file the
+ * scripted input is recorded.
+ */
+public class HeadlessRunner {
+    private final gamePanel gp;
+    private final char[] keys;
+    private final int[] durations;
+    private final BufferedImage frame;
+    private final Graphics2D g2;
+
+    private int step;
+    private int ticksInStep;
+    private long tick;
+    private char currentKey = '_';
+
+    public HeadlessRunner(gamePanel gp, String script) {
+        this.gp = gp;
+
+        String[] steps = script.split(",");
+        keys = new char[steps.length];
+        durations = new int[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            String[] parts = steps[i].trim().split(":");
+            keys[i] = Character.toUpperCase(parts[0].charAt(0));
+            durations[i] = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+        }
+
+        frame = new BufferedImage(gp.screenWidth, gp.screenHeight, BufferedImage.TYPE_INT_RGB);
+        g2 = frame.createGraphics();
+    }
+
+    /**
+     * Applies the scripted input for the current tick, updates the game and renders one frame.
+     */
+    public void tick() {
+        if (!gp.isReplaying()) {
+            applyInput(keys[step]);
+            if (++ticksInStep >= durations[step]) {
+                ticksInStep = 0;
+                step = (step + 1) % keys.length;
+            }
+        }
+
+        FrameProfiler profiler = gp.getProfiler();
+        long start = System.nanoTime();
+        gp.update();
+        long updated = System.nanoTime();
+        profiler.record(FrameProfiler.Phase.UPDATE, updated - start);
+
+        // Every tick is due a frame, which the governor may skip like it would in a window
+        FrameGovernor governor = gp.getGovernor();
+        boolean draw = governor == null || governor.beginFrame(gp.snapshots.hasNew(), updated);
+        if (draw && gp.getDirtyRenderer() != null) {
+            long drawStart = System.nanoTime();
+            gp.getDirtyRenderer().render();
+            if (governor != null) {
+                governor.recordRender(System.nanoTime() - drawStart);
+            }
+        } else if (draw) {
+            gp.drawFrame(g2);
+        }
+        profiler.record(FrameProfiler.Phase.FRAME, System.nanoTime() - start);
+
+        // One simulated second has passed
+        if (++tick % gp.config.ups == 0) {
+            profiler.roll();
+        }
+    }
+
+    /**
+     * Runs up to the given number of ticks, stopping early when a replay ends.
+     * Ticks run back to back unless a replay is to be played at its real speed.
+     */
+    public void run(long ticks) {
+        boolean realTime = gp.isReplaying() && !gp.isReplayFast();
+        long interval = 1_000_000_000L / gp.config.ups;
+        long next = System.nanoTime();
+        for (long i = 0; i < ticks && !gp.isReplayFinished(); i++) {
+            if (realTime) {
+                try {
+                    gp.config.pacing.waitUntil(next, gp.config.spinNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                next += interval;
+            }
+            tick();
+        }
+        gp.getProfiler().roll();
+    }
+
+    public long getTicks() {
+        return tick;
+    }
+
+    public BufferedImage getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return Per-phase histograms over everything run so far
+     */
+    public LatencyHistogram getTotal(FrameProfiler.Phase phase) {
+        return gp.getProfiler().getTotal(phase);
+    }
+
+    // Posts the key changes like the keyboard would, so they go through the input queue
+    private void applyInput(char key) {
+        if (key == currentKey) {
+            return;
+        }
+        long now = System.nanoTime();
+        Action released = toAction(currentKey);
+        if (released != null) {
+            gp.keyH.post(released, false, now);
+        }
+        Action pressed = toAction(key);
+        if (pressed != null) {
+            gp.keyH.post(pressed, true, now);
+        }
+        currentKey = key;
+    }
+
+    private static Action toAction(char key) {
+        switch (key) {
+            case 'U': return Action.UP;
+            case 'D': return Action.DOWN;
+            case 'L': return Action.LEFT;
+            case 'R': return Action.RIGHT;
+            default: return null;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        GameConfig config = GameConfig.fromSystemProperties();
+        gamePanel gp = new gamePanel(config);
+
+        // A replay runs until the recording ends (one extra tick notices the end)
+        long ticks = args.length > 0 ? Long.parseLong(args[0]) : gp.isReplaying() ? Long.MAX_VALUE : 3600;
+        String script = args.length > 1 ? args[1] : "R:120,D:60,L:120,U:60,_:30";
+        HeadlessRunner runner = new HeadlessRunner(gp, script);
+
+        long start = System.nanoTime();
+        runner.run(ticks);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ticks = runner.getTicks();
+
+        System.out.printf("%d ticks in %.2fs (%.0f ticks/s)%n", ticks, seconds, ticks / seconds);
+        for (FrameProfiler.Phase phase : FrameProfiler.Phase.values()) {
+            LatencyHistogram h = runner.getTotal(phase);
+            if (h.getCount() > 0) {
+                System.out.printf("%-8s n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n", phase, h.getCount(),
+                        h.getMean() / 1e6, h.getPercentile(50) / 1e6, h.getPercentile(99) / 1e6, h.getMax() / 1e6);
+            }
+        }
+        System.out.println(gp.getStatusLine());
+        gp.getProfiler().close();
+        if (gp.getTileManager().getWorld() != null) {
+            gp.getTileManager().getWorld().close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package Main;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer ring buffer of timestamped input events.
+ *
+ * The EDT (the only producer) appends events as keys go down and up, and the game thread (the only
+ * consumer) drains them once per tick. Each side owns one index and publishes it with a release
+ * write, so the event data written before an index update is visible to the side that reads it.
+ * Nothing is allocated per event.
+ */
+public class InputQueue {
+
+    public interface Handler {
+        void onEvent(Action action, boolean pressed, long nanos);
+    }
+
+    private final int mask;
+    private final long[] times;
+    private final int[] events; // action ordinal << 1 | pressed
+
+    // Next slot to read, advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // The producer's last look at head, so it only reads the consumer's index when the buffer seems full
+    private long cachedHead;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of events that can wait, rounded up to a power of two
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        times = new long[size];
+        events = new int[size];
+    }
+
+    /**
+     * Appends an event. Producer thread only.
+     *
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean offer(Action action, boolean pressed, long nanos) {
+        long t = tail.getPlain();
+        if (t - cachedHead > mask) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead > mask) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        times[slot] = nanos;
+        events[slot] = action.ordinal() << 1 | (pressed ? 1 : 0);
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * Hands every waiting event to the handler, oldest first. Consumer thread only.
+     *
+     * @return The number of events drained
+     */
+    public int drain(Handler handler) {
+        long h = head.getPlain();
+        long t = tail.getAcquire();
+        for (long i = h; i < t; i++) {
+            int slot = (int) i & mask;
+            int event = events[slot];
+            handler.onEvent(Action.of(event >>> 1), (event & 1) != 0, times[slot]);
+        }
+        head.setRelease(t);
+        return (int) (t - h);
+    }
+
+    /**
+     * @return Events lost because the game thread fell too far behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
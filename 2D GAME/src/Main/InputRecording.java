@@ -0,0 +1,154 @@
+package Main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The input of a play session, one set of held actions per tick, plus everything else the
+ * simulation depends on (map, NPC counts, random seed and tick rate). Replaying it runs exactly
+ * the same ticks again, so a session can be timed on different builds or machines.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * int    magic "2DRP"
+ * short  version (2)
+ * int    ticks per second
+ * long   random seed
+ * int    NPC count
+ * int    how many of the NPCs are chasers (not in version 1 files, where it is 0)
+ * UTF    map name
+ * int    tick count
+ * runs   (byte action mask, varint number of ticks) until tick count ticks are covered
+ * </pre>
+ * Input rarely changes from one tick to the next, so a minute of play is a few hundred bytes.
+ */
+public class InputRecording {
+    public static final int MAGIC = 0x32445250; // "2DRP"
+    public static final int VERSION = 2;
+
+    public final String map;
+    public final long seed;
+    public final int npcs;
+    public final int chasers;
+    public final int ups;
+
+    private byte[] masks = new byte[1024];
+    private int length;
+
+    public InputRecording(String map, long seed, int npcs, int chasers, int ups) {
+        this.map = map;
+        this.seed = seed;
+        this.npcs = npcs;
+        this.chasers = chasers;
+        this.ups = ups;
+    }
+
+    /**
+     * Appends the actions held during the next tick (see KeyHandler.getActions).
+     */
+    public synchronized void add(int actions) {
+        if (length == masks.length) {
+            masks = Arrays.copyOf(masks, length * 2);
+        }
+        masks[length++] = (byte) actions;
+    }
+
+    public synchronized int get(int tick) {
+        return masks[tick];
+    }
+
+    public synchronized int length() {
+        return length;
+    }
+
+    public synchronized void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(ups);
+            out.writeLong(seed);
+            out.writeInt(npcs);
+            out.writeInt(chasers);
+            out.writeUTF(map);
+            out.writeInt(length);
+
+            int i = 0;
+            while (i < length) {
+                byte mask = masks[i];
+                int run = 1;
+                while (i + run < length && masks[i + run] == mask) {
+                    run++;
+                }
+                out.writeByte(mask);
+                writeVarint(out, run);
+                i += run;
+            }
+        }
+    }
+
+    public static InputRecording load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an input recording");
+            }
+            int version = in.readShort();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported recording version " + version + " in " + file);
+            }
+            int ups = in.readInt();
+            long seed = in.readLong();
+            int npcs = in.readInt();
+            int chasers = version >= 2 ? in.readInt() : 0;
+            String map = in.readUTF();
+            int ticks = in.readInt();
+
+            if (ticks < 0) {
+                throw new IOException("Corrupt input recording " + file);
+            }
+
+            InputRecording recording = new InputRecording(map, seed, npcs, chasers, ups);
+            // Grown as runs are read rather than sized from the header, so a file that claims more ticks
+            // than it holds fails at its end instead of allocating for them up front
+            while (recording.length < ticks) {
+                byte mask = in.readByte();
+                int run = readVarint(in);
+                if (run <= 0 || run > ticks - recording.length) {
+                    throw new IOException("Corrupt input recording " + file);
+                }
+                if (recording.length + run > recording.masks.length) {
+                    recording.masks = Arrays.copyOf(recording.masks,
+                            (int) Math.min(ticks, Math.max(recording.length + run, 2L * recording.masks.length)));
+                }
+                Arrays.fill(recording.masks, recording.length, recording.length + run, mask);
+                recording.length += run;
+            }
+            return recording;
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
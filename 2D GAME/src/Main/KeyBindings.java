@@ -0,0 +1,92 @@
+package Main;
+
+import java.awt.event.KeyEvent;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Which keys trigger which action.
+ *
+ * Defaults to WASD and the arrow keys for movement and F3 for the overlay. Bindings can be changed
+ * with -Dgame.keys, a comma separated list of ACTION=KEY|KEY entries using the names of the
+ * KeyEvent.VK_ constants, e.g. -Dgame.keys=up=I|UP,down=K,left=J,right=L. An action listed there
+ * loses its default keys; actions not listed keep them.
+ */
+public class KeyBindings {
+    private final Map<Integer, Action> actions = new HashMap<>();
+
+    public static KeyBindings defaults() {
+        KeyBindings bindings = new KeyBindings();
+        bindings.bind(KeyEvent.VK_W, Action.UP);
+        bindings.bind(KeyEvent.VK_UP, Action.UP);
+        bindings.bind(KeyEvent.VK_S, Action.DOWN);
+        bindings.bind(KeyEvent.VK_DOWN, Action.DOWN);
+        bindings.bind(KeyEvent.VK_A, Action.LEFT);
+        bindings.bind(KeyEvent.VK_LEFT, Action.LEFT);
+        bindings.bind(KeyEvent.VK_D, Action.RIGHT);
+        bindings.bind(KeyEvent.VK_RIGHT, Action.RIGHT);
+        bindings.bind(KeyEvent.VK_F3, Action.DEBUG);
+        return bindings;
+    }
+
+    /**
+     * Reads bindings in the -Dgame.keys format on top of the defaults. Unknown actions or keys are
+     * reported and skipped.
+     *
+     * @param spec The bindings, null or empty for the defaults
+     */
+    public static KeyBindings parse(String spec) {
+        KeyBindings bindings = defaults();
+        if (spec == null || spec.trim().isEmpty()) {
+            return bindings;
+        }
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.split("=");
+            if (parts.length != 2) {
+                System.err.println("Ignoring key binding '" + entry + "', expected ACTION=KEY");
+                continue;
+            }
+            Action action;
+            try {
+                action = Action.valueOf(parts[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring key binding '" + entry + "', unknown action");
+                continue;
+            }
+            bindings.unbind(action);
+            for (String key : parts[1].split("\\|")) {
+                int code = keyCode(key.trim());
+                if (code == KeyEvent.VK_UNDEFINED) {
+                    System.err.println("Ignoring unknown key '" + key + "' for " + action);
+                } else {
+                    bindings.bind(code, action);
+                }
+            }
+        }
+        return bindings;
+    }
+
+    public void bind(int keyCode, Action action) {
+        actions.put(keyCode, action);
+    }
+
+    public void unbind(Action action) {
+        actions.values().removeIf(a -> a == action);
+    }
+
+    /**
+     * @return The action bound to the key, or null if it has none
+     */
+    public Action get(int keyCode) {
+        return actions.get(keyCode);
+    }
+
+    // Looks up a KeyEvent.VK_ constant by name, e.g. "W", "SPACE", "F3"
+    private static int keyCode(String name) {
+        try {
+            return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return KeyEvent.VK_UNDEFINED;
+        }
+    }
+}
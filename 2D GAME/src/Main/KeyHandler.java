@@ -2,10 +2,45 @@ package Main;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Turns keyboard events into per-tick action state.
+ *
+ * The listener methods run on the EDT and only post timestamped events into an InputQueue.
+ * The game thread calls poll() at the start of every tick, which drains the queue and updates the
+ * pressed fields below, so those are only ever touched by the game thread. A key that goes down and
+ * up again within one tick still counts as pressed for that tick.
+ */
 public class KeyHandler implements KeyListener {
+    // State of each action for the current tick, written by poll()
     public boolean upPressed, downPressed, leftPressed, rightPressed;
+    public boolean debugPressed; // F3, toggles the frame-time overlay
+
+    private final KeyBindings bindings;
+    private final InputQueue queue = new InputQueue(256);
+
+    // EDT side: which actions are down, to drop the repeated presses of a held key
+    private final boolean[] down = new boolean[Action.COUNT];
+
+    // Game thread side
+    private final boolean[] held = new boolean[Action.COUNT];
+    private final boolean[] tapped = new boolean[Action.COUNT];
+    private final InputQueue.Handler applier = this::apply;
+    private static final InputQueue.Handler IGNORE = (action, pressed, nanos) -> { };
+    private long oldestEvent;
 
+    // Time of the oldest event the game has reacted to that no frame has shown yet, 0 if none
+    private final AtomicLong unpresented = new AtomicLong();
+
+    public KeyHandler() {
+        this(KeyBindings.defaults());
+    }
+
+    public KeyHandler(KeyBindings bindings) {
+        this.bindings = bindings;
+    }
 
     @Override
     public void keyTyped(KeyEvent e) {
@@ -14,45 +49,104 @@ public class KeyHandler implements KeyListener {
 
     @Override
     public void keyPressed(KeyEvent e) {
-
-        int code =e.getKeyCode();
-
-        if(code == KeyEvent.VK_W){
-            upPressed = true;
-
-        }
-        if (code == KeyEvent.VK_A){
-            leftPressed = true;
+        Action action = bindings.get(e.getKeyCode());
+        if (action != null && !down[action.ordinal()]) {
+            down[action.ordinal()] = true;
+            post(action, true, System.nanoTime());
         }
-        if(code == KeyEvent.VK_S){
-            downPressed = true;
+    }
 
+    @Override
+    public void keyReleased(KeyEvent e) {
+        Action action = bindings.get(e.getKeyCode());
+        if (action != null) {
+            down[action.ordinal()] = false;
+            post(action, false, System.nanoTime());
         }
-        if (code == KeyEvent.VK_D){
-            rightPressed = true;
+    }
 
-        }
+    /**
+     * Queues an action change for the next tick. Must always be called from the same thread.
+     */
+    public boolean post(Action action, boolean pressed, long nanos) {
+        return queue.offer(action, pressed, nanos);
+    }
 
+    /**
+     * Applies every event posted since the last call. Called by the game thread once per tick.
+     */
+    public void poll() {
+        Arrays.fill(tapped, false);
+        oldestEvent = 0;
+        queue.drain(applier);
+
+        upPressed = isActive(Action.UP);
+        downPressed = isActive(Action.DOWN);
+        leftPressed = isActive(Action.LEFT);
+        rightPressed = isActive(Action.RIGHT);
+        debugPressed = isActive(Action.DEBUG);
+
+        if (oldestEvent != 0) {
+            // Keep the older time if the previous input hasn't been drawn yet
+            unpresented.compareAndSet(0, oldestEvent);
+        }
     }
 
-    @Override
-    public void keyReleased(KeyEvent e) {
-        int code =e.getKeyCode();
+    /**
+     * Called when a frame has been drawn.
+     *
+     * @return When the oldest input reflected in that frame happened (System.nanoTime), 0 if there was none
+     */
+    public long takeInputTime() {
+        return unpresented.getAndSet(0);
+    }
 
-        if(code == KeyEvent.VK_W){
-            upPressed = false;
+    public long getDropped() {
+        return queue.getDropped();
+    }
 
+    /**
+     * @return The actions active this tick as a bit mask, bit n set for Action n
+     */
+    public int getActions() {
+        int mask = 0;
+        for (int i = 0; i < Action.COUNT; i++) {
+            if (isActive(Action.of(i))) {
+                mask |= 1 << i;
+            }
         }
-        if (code == KeyEvent.VK_A){
-            leftPressed = false;
-        }
-        if(code == KeyEvent.VK_S){
-            downPressed = false;
+        return mask;
+    }
 
+    /**
+     * Sets this tick's actions from a mask instead of the keyboard, e.g. when replaying a recording.
+     * Live key events are discarded. Called by the game thread in place of poll().
+     */
+    public void setActions(int mask) {
+        queue.drain(IGNORE);
+        for (int i = 0; i < Action.COUNT; i++) {
+            held[i] = (mask & (1 << i)) != 0;
+            tapped[i] = false;
         }
-        if (code == KeyEvent.VK_D){
-            rightPressed = false;
+        upPressed = isActive(Action.UP);
+        downPressed = isActive(Action.DOWN);
+        leftPressed = isActive(Action.LEFT);
+        rightPressed = isActive(Action.RIGHT);
+        debugPressed = isActive(Action.DEBUG);
+    }
 
+    private boolean isActive(Action action) {
+        return held[action.ordinal()] || tapped[action.ordinal()];
+    }
+
+    private void apply(Action action, boolean pressed, long nanos) {
+        int i = action.ordinal();
+        if (pressed) {
+            tapped[i] = true;
+        }
+        held[i] = pressed;
+        if (oldestEvent == 0) {
+            oldestEvent = nanos;
         }
     }
 }
@@ -0,0 +1,103 @@
+package Main;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of durations in nanoseconds.
+ *
+ * Buckets are log-linear: every power of two is split into 16 equal buckets, so any recorded value
+ * is reported within about 6% while the whole range from 1ns to over a minute fits in a few hundred
+ * longs. Recording is a couple of bit operations and an array increment, and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int MAX_BITS = 36; // ~68 seconds
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int index = Math.min(BUCKETS - 1, index(nanos));
+        counts[index]++;
+        count++;
+        total += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The upper edge of the bucket holding that percentile, capped at the real maximum
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(max, lowerBound(i + 1) - 1);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : total / (double) count;
+    }
+
+    /**
+     * Adds all values recorded in another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB - 1);
+        return (shift + 1) * SUB + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB) {
+            return index;
+        }
+        int shift = index / SUB - 1;
+        return (long) (SUB + index % SUB) << shift;
+    }
+}
@@ -0,0 +1,124 @@
+package Main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Per-second statistics of the game loop: frame and tick rates, how far frames land from their
+ * scheduled time (jitter) and how much CPU the loop thread used.
+ * Only touched by the loop thread.
+ */
+public class LoopStats {
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimeSupported;
+
+    private long windowStart;
+    private long windowCpuStart;
+    private int frames;
+    private int updates;
+    private int droppedUpdates;
+    private long jitterTotal;
+    private long jitterMax;
+
+    // Results of the last completed window
+    private int lastFps;
+    private int lastUps;
+    private int lastDropped;
+    private double lastJitterMeanMs;
+    private double lastJitterMaxMs;
+    private double lastCpuPercent = -1;
+
+    public LoopStats() {
+        boolean supported = threads.isCurrentThreadCpuTimeSupported();
+        if (supported && !threads.isThreadCpuTimeEnabled()) {
+            try {
+                threads.setThreadCpuTimeEnabled(true);
+            } catch (UnsupportedOperationException | SecurityException e) {
+                supported = false;
+            }
+        }
+        cpuTimeSupported = supported;
+    }
+
+    void start(long now) {
+        windowStart = now;
+        windowCpuStart = cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    void recordUpdate() {
+        updates++;
+    }
+
+    void recordDropped(int count) {
+        droppedUpdates += count;
+    }
+
+    /**
+     * @param lateness How many nanoseconds after its scheduled time the frame started
+     */
+    void recordFrame(long lateness) {
+        frames++;
+        long jitter = Math.abs(lateness);
+        jitterTotal += jitter;
+        if (jitter > jitterMax) {
+            jitterMax = jitter;
+        }
+    }
+
+    /**
+     * Closes the current window if a second has passed.
+     *
+     * @return true if a new set of results is available
+     */
+    boolean roll(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < 1_000_000_000L) {
+            return false;
+        }
+        lastFps = frames;
+        lastUps = updates;
+        lastDropped = droppedUpdates;
+        lastJitterMeanMs = frames == 0 ? 0 : jitterTotal / (double) frames / 1e6;
+        lastJitterMaxMs = jitterMax / 1e6;
+        if (cpuTimeSupported) {
+            long cpu = threads.getCurrentThreadCpuTime();
+            lastCpuPercent = 100.0 * (cpu - windowCpuStart) / elapsed;
+            windowCpuStart = cpu;
+        }
+
+        windowStart = now;
+        frames = 0;
+        updates = 0;
+        droppedUpdates = 0;
+        jitterTotal = 0;
+        jitterMax = 0;
+        return true;
+    }
+
+    public int getFps() {
+        return lastFps;
+    }
+
+    public int getUps() {
+        return lastUps;
+    }
+
+    public double getJitterMeanMillis() {
+        return lastJitterMeanMs;
+    }
+
+    public double getJitterMaxMillis() {
+        return lastJitterMaxMs;
+    }
+
+    // CPU time of the loop thread as a percentage of one core, -1 if the JVM can't measure it
+    public double getCpuPercent() {
+        return lastCpuPercent;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FPS: %d UPS: %d dropped=%d jitter avg=%.3fms max=%.3fms cpu=%.1f%%",
+                lastFps, lastUps, lastDropped, lastJitterMeanMs, lastJitterMaxMs, lastCpuPercent);
+    }
+}
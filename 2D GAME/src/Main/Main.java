@@ -6,11 +6,12 @@ public static void main(String [] args){
 
     JFrame window = new JFrame();
     window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-    window.setResizable(false);
     window.setTitle("2D Adventure");
 
     gamePanel gamePanel = new gamePanel();
     window.add(gamePanel);
+    // Frames drawn at native resolution scale to any window size for the cost of one blit
+    window.setResizable(gamePanel.isResizable());
 
     window.pack();
 
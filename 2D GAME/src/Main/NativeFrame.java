@@ -0,0 +1,104 @@
+package Main;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * Native-resolution frame pipeline.
+ *
+ * The scene is composed at the sprites' own size (16 pixel tiles, 256x192 for the whole view) into one
+ * back buffer, so no sprite is scaled while it is drawn. The buffer is then stretched to the window in a
+ * single nearest-neighbour blit and the rest of the window is filled black. Resizing the window only
+ * changes that last blit.
+ */
+public class NativeFrame {
+    private final gamePanel gp;
+    private final ScaleMode mode;
+    private final int width;
+    private final int height;
+
+    private GraphicsConfiguration config;
+    private BufferedImage buffer;
+
+    // Where the last frame was put in the window
+    private int destX;
+    private int destY;
+    private int destWidth;
+    private int destHeight;
+
+    public NativeFrame(gamePanel gp, ScaleMode mode) {
+        this.gp = gp;
+        this.mode = mode;
+        this.width = gp.nativeWidth;
+        this.height = gp.nativeHeight;
+    }
+
+    /**
+     * Composes a snapshot at native resolution and draws it scaled up into a windowWidth x windowHeight area.
+     * Must only be called by one thread at a time.
+     */
+    public void draw(Graphics2D g2, FrameSnapshot snapshot, int windowWidth, int windowHeight) {
+        GraphicsConfiguration gc = g2.getDeviceConfiguration();
+        if (buffer == null || gc != config) {
+            config = gc;
+            buffer = gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+        }
+
+        Graphics2D g = buffer.createGraphics();
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+            gp.drawScene(g, snapshot, gp.scale);
+        } finally {
+            g.dispose();
+        }
+
+        layout(windowWidth, windowHeight);
+        g2.setColor(Color.BLACK);
+        if (destX > 0) {
+            g2.fillRect(0, 0, destX, windowHeight);
+            g2.fillRect(destX + destWidth, 0, windowWidth - destX - destWidth, windowHeight);
+        }
+        if (destY > 0) {
+            g2.fillRect(destX, 0, destWidth, destY);
+            g2.fillRect(destX, destY + destHeight, destWidth, windowHeight - destY - destHeight);
+        }
+        Object interpolation = g2.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g2.drawImage(buffer, destX, destY, destWidth, destHeight, null);
+        if (interpolation != null) {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+        }
+    }
+
+    // Works out the size and position of the scaled frame, centred in the window
+    private void layout(int windowWidth, int windowHeight) {
+        if (mode == ScaleMode.FIT) {
+            // Whichever side runs out of room first decides, so the aspect ratio is kept
+            if ((long) windowWidth * height <= (long) windowHeight * width) {
+                destWidth = windowWidth;
+                destHeight = (int) ((long) windowWidth * height / width);
+            } else {
+                destHeight = windowHeight;
+                destWidth = (int) ((long) windowHeight * width / height);
+            }
+        } else {
+            int factor = Math.max(1, Math.min(windowWidth / width, windowHeight / height));
+            destWidth = width * factor;
+            destHeight = height * factor;
+        }
+        destX = Math.max(0, (windowWidth - destWidth) / 2);
+        destY = Math.max(0, (windowHeight - destHeight) / 2);
+    }
+
+    /**
+     * @return The scale the last frame was drawn at, window pixels per native pixel
+     */
+    public double getScale() {
+        return destWidth / (double) width;
+    }
+}
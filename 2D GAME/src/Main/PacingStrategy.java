@@ -0,0 +1,57 @@
+package Main;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ways the game loop can wait for its next deadline.
+ * They trade CPU usage against how precisely the deadline is hit.
+ */
+public enum PacingStrategy {
+
+    // Spins on System.nanoTime() like the original delta loop. Most precise, burns a whole core.
+    BUSY {
+        @Override
+        void waitUntil(long deadline, long spinNanos) {
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        }
+    },
+
+    // Thread.sleep for the whole wait. Cheapest, but wakes up late by the OS timer slack.
+    SLEEP {
+        @Override
+        void waitUntil(long deadline, long spinNanos) throws InterruptedException {
+            long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            }
+        }
+    },
+
+    // Parks until shortly before the deadline, then spin-yields the last stretch for precision
+    PARK_SPIN {
+        @Override
+        void waitUntil(long deadline, long spinNanos) throws InterruptedException {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > spinNanos) {
+                LockSupport.parkNanos(remaining - spinNanos);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            while (System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+        }
+    },
+
+    // Never waits: renders as often as possible while updates stay on the fixed step. For benchmarking.
+    UNCAPPED {
+        @Override
+        void waitUntil(long deadline, long spinNanos) {
+        }
+    };
+
+    abstract void waitUntil(long deadline, long spinNanos) throws InterruptedException;
+}
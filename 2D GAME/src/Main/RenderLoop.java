@@ -0,0 +1,78 @@
+package Main;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Presents frames on a thread of its own at config.fps, drawing the latest snapshot published by
+ * the game thread. Used with active rendering so simulation and drawing run on separate cores;
+ * the game loop then only runs updates.
+ */
+public class RenderLoop implements Runnable {
+    private final gamePanel gp;
+    private final GameConfig config;
+    private final LoopStats stats = new LoopStats();
+    private final FrameProfiler profiler;
+    private volatile boolean running = true;
+    private volatile String lastStats = "";
+
+    public RenderLoop(gamePanel gp, GameConfig config) {
+        this.gp = gp;
+        this.config = config;
+        this.profiler = gp.getProfiler();
+    }
+
+    @Override
+    public void run() {
+        final boolean uncapped = config.pacing == PacingStrategy.UNCAPPED || config.fps <= 0;
+        final long drawInterval = uncapped ? 0 : 1_000_000_000L / config.fps;
+
+        long now = System.nanoTime();
+        long nextDraw = now;
+        long lastDraw = now;
+        stats.start(now);
+
+        while (running) {
+            // Uncapped, there is no point drawing the same tick twice
+            if (uncapped && !gp.snapshots.hasNew()) {
+                LockSupport.parkNanos(100_000);
+                continue;
+            }
+
+            now = System.nanoTime();
+            stats.recordFrame(uncapped ? 0 : now - nextDraw);
+            // Recorded from this thread while the game thread rolls the profiler; FrameProfiler keeps
+            // each thread's samples apart until the roll picks them up
+            profiler.record(FrameProfiler.Phase.FRAME, now - lastDraw);
+            lastDraw = now;
+            gp.render();
+
+            nextDraw += drawInterval;
+            if (System.nanoTime() - nextDraw >= 0) {
+                nextDraw = System.nanoTime() + drawInterval; // Missed a frame, don't try to make it up
+            }
+            if (stats.roll(System.nanoTime())) {
+                lastStats = String.format("FPS: %d jitter avg=%.3fms max=%.3fms cpu=%.1f%%", stats.getFps(),
+                        stats.getJitterMeanMillis(), stats.getJitterMaxMillis(), stats.getCpuPercent());
+            }
+
+            if (!uncapped) {
+                try {
+                    config.pacing.waitUntil(nextDraw, config.spinNanos);
+                } catch (InterruptedException e) {
+                    running = false;
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return The render thread's statistics for the last full second
+     */
+    public String getStatsLine() {
+        return lastStats;
+    }
+}
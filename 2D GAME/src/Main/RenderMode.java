@@ -0,0 +1,15 @@
+package Main;
+
+/**
+ * How frames get to the screen.
+ */
+public enum RenderMode {
+    // repaint() on the Swing EDT. Simple, but Swing may coalesce or delay frames.
+    PASSIVE,
+    // Frames are drawn into a page-flipped BufferStrategy and presented by a render thread
+    // (or by the game thread itself with -Dgame.renderThread=false)
+    ACTIVE,
+    // Like PASSIVE, but only the regions that changed since the last frame are redrawn and repainted,
+    // and nothing is painted at all while the scene stands still
+    DIRTY
+}
@@ -0,0 +1,13 @@
+package Main;
+
+/**
+ * How the frame is scaled up to the window.
+ */
+public enum ScaleMode {
+    // Every sprite is scaled up as it is drawn, straight into the window at the fixed 768x576 size
+    OFF,
+    // The frame is composed at native resolution and blown up by the largest whole factor that fits the window
+    INTEGER,
+    // Like INTEGER, but blown up as far as the window allows while keeping the aspect ratio
+    FIT
+}
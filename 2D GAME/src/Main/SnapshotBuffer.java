@@ -0,0 +1,57 @@
+package Main;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer of FrameSnapshots between the game thread and the renderer.
+ *
+ * Of the three pooled snapshots, the game thread owns one (the one it is filling), the renderer owns
+ * one (the one it is drawing) and the third is the latest published. Publishing and taking the latest
+ * are a single atomic swap each, so neither side ever waits for the other: the game thread can run
+ * ticks while a frame is being drawn and the renderer always draws the newest complete tick.
+ */
+public class SnapshotBuffer {
+    // Set on the shared index while the renderer hasn't taken that snapshot yet
+    private static final int NEW = 4;
+    private static final int INDEX = 3;
+
+    private final FrameSnapshot[] slots = {new FrameSnapshot(), new FrameSnapshot(), new FrameSnapshot()};
+    // Index of the latest published snapshot, plus NEW
+    private final AtomicInteger latest = new AtomicInteger(1);
+    // Game thread only
+    private int back = 0;
+    // Renderer only
+    private int front = 2;
+
+    /**
+     * @return The snapshot for the game thread to fill. Game thread only.
+     */
+    public FrameSnapshot getWriteSnapshot() {
+        return slots[back];
+    }
+
+    /**
+     * Makes the filled snapshot the latest one and hands the game thread the next one to fill.
+     * Game thread only.
+     */
+    public void publish() {
+        back = latest.getAndSet(back | NEW) & INDEX;
+    }
+
+    /**
+     * @return The most recently published snapshot. Renderer only; the snapshot stays valid until its next call.
+     */
+    public FrameSnapshot getLatest() {
+        if ((latest.get() & NEW) != 0) {
+            front = latest.getAndSet(front) & INDEX;
+        }
+        return slots[front];
+    }
+
+    /**
+     * @return true if a snapshot was published since the renderer last took one
+     */
+    public boolean hasNew() {
+        return (latest.get() & NEW) != 0;
+    }
+}
@@ -1,11 +1,32 @@
 package Main;
 
+import Entity.EntityStore;
 import Entity.Player;
+import Entity.entity;
+import ai.FlowField;
+import ai.Navigation;
+import asset.AssetManager;
+import asset.SpriteAtlas;
+import net.GameClient;
+import net.Protocol;
+import net.WorldState;
+import save.Autosave;
+import save.SaveState;
+import tile.ChunkSource;
+import tile.ChunkedWorld;
+import tile.LightMap;
 import tile.tileManager;
 
 import java.awt.*;
 import javax.swing.JPanel;
 import java.awt.Graphics2D;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
 public class gamePanel extends JPanel implements Runnable {
 
@@ -18,124 +39,670 @@ public class gamePanel extends JPanel implements Runnable {
     public final int maxScreenRow = 12;
     public final int screenWidth = tileSize * maxScreenCol;
     public final int screenHeight = tileSize * maxScreenRow;
+    // The view at the sprites' own size, which the native pipeline composes frames at
+    public final int nativeWidth = originalTilesize * maxScreenCol; //256
+    public final int nativeHeight = originalTilesize * maxScreenRow; //192
 
-    //FPS
-    int FPS = 60;
+    //FPS, pacing and other runtime settings
+    final GameConfig config;
+    final FrameProfiler profiler;
+    private boolean debugWasPressed;
 
-    tileManager tileM = new tileManager(this);
-    KeyHandler keyH = new KeyHandler();
+    tileManager tileM;
+    CollisionChecker cChecker;
+    Camera camera = new Camera(screenWidth, screenHeight);
+    KeyHandler keyH;
     Thread gameThread;
-    Player player = new Player(this,keyH);
+    GameLoop gameLoop;
+    ActiveRenderer activeRenderer;
+    DirtyRenderer dirtyRenderer;
+    NativeFrame nativeFrame;
+    // Trades quality for time while frames run over budget, null when off
+    FrameGovernor governor;
+    // Native pipeline the governor switches to when frames are otherwise scaled per sprite
+    private NativeFrame reducedFrame;
+    // Tile clock tick frames show while the governor has animation frozen
+    private long shownTileTick;
+    // Darkness and fog of war over the scene, null when off; the player's torch is light torchLight
+    LightMap lightMap;
+    private int torchLight = -1;
+    Thread renderThread;
+    RenderLoop renderLoop;
 
+    // What the renderer draws: a copy of the game state taken at the end of every tick
+    final SnapshotBuffer snapshots = new SnapshotBuffer();
+    private long ticks;
+    Player player;
+    EntityStore entities = new EntityStore(64);
+    // Pathfinding over the loaded map, null if the map failed to load
+    Navigation navigation;
+
+    // Input being recorded or played back, at most one of them is set
+    InputRecording recording;
+    InputRecording replay;
+    private int replayTick;
+    private volatile boolean replayFinished;
+
+    // Saves the game to config.save, null when not saving
+    Autosave autosave;
+
+    // Connection to the server when playing online, null when playing alone
+    GameClient client;
+    // Slot in entities of each entity the server sent, by server id, -1 for none yet
+    private int[] remoteSlots = new int[0];
+    private final entity remote = new entity();
 
     //Set players default position
     int playerX = 100;
     int playerY = 100;
     int playerSpeed = 4;
 
+    // A* searches a window of this many tiles a side, flow fields cover this many; both span the resident chunks
+    static final int NAV_SEARCH_SIZE = 128;
+    static final int NAV_FIELD_SIZE = 96;
+    // Tiles the player's torch lights and the player can see with fog of war
+    static final int TORCH_RADIUS = 6;
+    static final int SIGHT_RADIUS = 10;
+
     public gamePanel() {
+        this(GameConfig.fromSystemProperties());
+    }
+
+    public gamePanel(GameConfig config) {
+
+        this.config = config;
+        this.profiler = new FrameProfiler(config.statsFile, config.statsInterval);
+        this.keyH = new KeyHandler(KeyBindings.parse(config.keys));
+
+        // The server decides the map and everything on it
+        if (config.connect != null) {
+            try {
+                client = GameClient.connect(GameClient.parseAddress(config.connect), 5000);
+                config.map = client.getMap();
+                config.npcs = 0;
+                config.chasers = 0;
+                System.out.println("Connected to " + config.connect + " as player " + client.getPlayerId());
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Error connecting to " + config.connect + ": " + e.getMessage());
+            }
+        }
+        // A replay brings its own map, NPCs, seed and tick rate
+        if (client != null) {
+            // Neither recorded nor replayed: the input alone doesn't decide what happens online
+        } else if (config.replay != null) {
+            try {
+                replay = InputRecording.load(Paths.get(config.replay));
+                config.map = replay.map;
+                config.npcs = replay.npcs;
+                config.chasers = replay.chasers;
+                config.seed = replay.seed;
+                config.ups = replay.ups;
+            } catch (IOException e) {
+                System.err.println("Error loading replay " + config.replay + ": " + e.getMessage());
+            }
+        } else if (config.record != null) {
+            recording = new InputRecording(config.map, config.seed, config.npcs, config.chasers, config.ups);
+            // Closing the window exits the JVM, so save on the way out
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveRecording, "save-recording"));
+        }
 
+        // A save brings its own map, NPCs and seed too
+        SaveState saved = null;
+        boolean saving = config.save != null && client == null && replay == null && recording == null;
+        if (saving && Files.exists(Paths.get(config.save))) {
+            try {
+                long start = System.nanoTime();
+                saved = SaveState.load(Paths.get(config.save));
+                config.map = saved.getMap();
+                config.npcs = saved.getNpcs();
+                config.chasers = saved.getChasers();
+                config.seed = saved.getSeed();
+                System.out.printf("Loaded %s (%d edited chunks, %d entities) in %.1fms%n", config.save,
+                        saved.getChunkCount(), saved.getEntityCount(), (System.nanoTime() - start) / 1e6);
+            } catch (IOException e) {
+                // Leave the file alone rather than save a new game over it
+                System.err.println("Error loading save " + config.save + ": " + e.getMessage());
+                saving = false;
+            }
+        }
+
+        // Start the map and the sprite atlas loading side by side before anything waits on either
+        AssetManager assets = AssetManager.shared();
+        CompletableFuture<ChunkSource> map = assets.map(config.map);
+        assets.atlas(SpriteAtlas.GAME_SPRITES);
+
+        tileM = new tileManager(this);
+        cChecker = new CollisionChecker(tileM, tileSize);
+        player = new Player(this,keyH);
+        tileM.loadMap(config.map, map);
+        // Online, the tiles around the player must be there so it is predicted to move like the server moves it
+        tileM.synchronousLoads = recording != null || replay != null || client != null;
+        if (client != null) {
+            client.setCollision(cChecker);
+            player.place(client.getX(), client.getY(), client.getDirection(), client.isMoving());
+        }
+        if (tileM.getWorld() != null) {
+            navigation = new Navigation(tileM.getWorld(), NAV_SEARCH_SIZE, NAV_FIELD_SIZE, 4);
+        }
+        followPlayer();
+        if (config.printStats) {
+            assets.printReport();
+        }
+        // NPCs collide like the player does
+        entities.setCollision(cChecker, player.solidArea);
+        if (player.getCharacter() >= 0) {
+            player.joinStore(entities);
+            spawnNpcs(config.npcs);
+        }
+        if (saved != null) {
+            continueFrom(saved);
+        }
+        if (saving) {
+            Path file = Paths.get(config.save);
+            autosave = new Autosave(file, saved, config.map, config.seed, config.npcs, config.chasers,
+                    config.autosave * config.ups, config.printStats);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::saveOnExit, "save-game"));
+        }
         this.setPreferredSize(new Dimension(screenWidth, screenHeight));
         this.setBackground(Color.black);
         this.setDoubleBuffered(true);
         this.addKeyListener(keyH);
         this.setFocusable(true);
 
+        // A BufferStrategy needs a real screen, so headless runs always paint passively
+        if (config.renderMode == RenderMode.ACTIVE && !GraphicsEnvironment.isHeadless()) {
+            activeRenderer = new ActiveRenderer(this, config.sync);
+        } else if (config.renderMode == RenderMode.DIRTY) {
+            dirtyRenderer = new DirtyRenderer(this);
+            if (tileM.getWorld() != null) {
+                tileM.getWorld().addTileListener(dirtyRenderer);
+            }
+        }
+        // The dirty renderer keeps its frame at window size, so it always scales per sprite
+        if (config.scaleMode != ScaleMode.OFF && dirtyRenderer == null) {
+            nativeFrame = new NativeFrame(this, config.scaleMode);
+        }
+        // Dirty rectangles only redraw what moved, but the light around the player moves the whole view
+        if ((config.light >= 0 || config.fog) && dirtyRenderer == null) {
+            lightMap = new LightMap();
+            lightMap.setAmbient(config.light >= 0 ? config.light : LightMap.FULL);
+            lightMap.setFog(config.fog);
+            if (config.light >= 0 && config.light < LightMap.FULL) {
+                torchLight = lightMap.addLight(0, 0, TORCH_RADIUS, LightMap.FULL);
+            }
+        }
+        // Replays are there to compare frame times, so they always draw everything
+        if (config.governor && replay == null) {
+            long target = 1_000_000_000L / (config.fps > 0 ? config.fps : config.ups);
+            governor = new FrameGovernor(target, nativeFrame == null && dirtyRenderer == null, hasRenderThread());
+        }
+
+        // So there is something to draw before the first tick
+        publishSnapshot();
+
+    }
+
+    public FrameProfiler getProfiler() {
+        return profiler;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public EntityStore getEntities() {
+        return entities;
+    }
+
+    public tileManager getTileManager() {
+        return tileM;
+    }
+
+    public CollisionChecker getCollisionChecker() {
+        return cChecker;
+    }
+
+    public Navigation getNavigation() {
+        return navigation;
+    }
+
+    /**
+     * @return The dirty-rectangle renderer, or null unless the render mode is DIRTY
+     */
+    public DirtyRenderer getDirtyRenderer() {
+        return dirtyRenderer;
+    }
+
+    /**
+     * @return true if frames are composed at native resolution and scaled to whatever size the window has
+     */
+    public boolean isResizable() {
+        return nativeFrame != null;
+    }
+
+    public boolean isReplaying() {
+        return replay != null;
+    }
+
+    public boolean isReplayFinished() {
+        return replayFinished;
+    }
+
+    /**
+     * @return true if the replay should run as fast as possible instead of at its recorded tick rate
+     */
+    public boolean isReplayFast() {
+        if (replay == null) {
+            return false;
+        }
+        return config.replaySpeed == null ? GraphicsEnvironment.isHeadless() : "fast".equalsIgnoreCase(config.replaySpeed);
+    }
+
+    /**
+     * Writes the input recorded so far to the game.record file, if recording.
+     */
+    public void saveRecording() {
+        if (recording == null) {
+            return;
+        }
+        try {
+            recording.save(Paths.get(config.record));
+            System.out.println("Recorded " + recording.length() + " ticks to " + config.record);
+        } catch (IOException e) {
+            System.err.println("Error saving input recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return What saves the game, null unless game.save is set
+     */
+    public Autosave getAutosave() {
+        return autosave;
+    }
+
+    /**
+     * @return What adjusts frame quality to the frame budget, null if game.governor is off or replaying
+     */
+    public FrameGovernor getGovernor() {
+        return governor;
+    }
+
+    // Saves once more on the way out: through the game loop if it is still running, otherwise right here
+    private void saveOnExit() {
+        if (gameThread != null && gameThread.isAlive()) {
+            if (!autosave.saveAndWait(2000)) {
+                System.err.println("Game didn't save in time on exit");
+            }
+        } else {
+            autosave.save(ticks, player, entities, tileM.getWorld());
+        }
+        autosave.close();
+    }
+
+    public Camera getCamera() {
+        return camera;
     }
 
     public void startGameThread(){
-        gameThread = new Thread(this);
+        gameLoop = new GameLoop(this, config);
+        gameThread = new Thread(this, "game-loop");
         gameThread.start();
+
+        if (hasRenderThread()) {
+            renderLoop = new RenderLoop(this, config);
+            renderThread = new Thread(renderLoop, "render");
+            renderThread.start();
+        }
+    }
+
+    /**
+     * @return true if frames are presented by a render thread rather than the game loop
+     */
+    public boolean hasRenderThread() {
+        return activeRenderer != null && config.renderThread;
     }
 
     @Override
-//    sleep game loop
-//    public void run() {
-//
-//        double drawInterval =1000000000/FPS; // 0.01666 seconds
-//        double nextDrawTime = System.nanoTime() + drawInterval;
-//
-//        while (gameThread != null) {
-//
-//            long currentTime = System.nanoTime();
-//            System.out.println("Current Time"+currentTime);
-//
-//            // as long as the loop exists this condition continues
-//            update();
-//            //1 UPDATE: information such as character positions
-//
-//            //2 DRAW:draw the screen with the updated information
-//            repaint();
-//
-//            try {
-//            double remainingTime = nextDrawTime - System.nanoTime();
-//                remainingTime = remainingTime/1000000;
-//
-//                if(remainingTime < 0){
-//                    remainingTime = 0;}
-//
-//                Thread.sleep((long) remainingTime);
-//                nextDrawTime += drawInterval;
-//            /* returns how much time is remaining
-//             till the next draw time */
-//            } catch (InterruptedException e) {
-//                e.printStackTrace();
-//
-//
-//
-//        }
-//    }
-//    }
-
-    //delta method
     public void run() {
+        gameLoop.run();
+    }
+
+    public void stopGameThread() {
+        if (gameLoop != null) {
+            gameLoop.stop();
+        }
+        if (renderLoop != null) {
+            renderLoop.stop();
+        }
+        gameThread = null;
+        renderThread = null;
+    }
+
+        /**
+         * Adds wandering NPCs at random spots inside the screen, away from the border and off solid tiles.
+         * They share the player's animation clips. Uses the configured seed so every run starts the same.
+         */
+        private void spawnNpcs(int count) {
+            Random random = new Random(config.seed);
+            int chasers = Math.min(count, config.chasers);
+            for (int i = 0; i < chasers; i++) {
+                // Chasers start on a free tile and move at a speed that divides the tile size
+                int x;
+                int y;
+                int tries = 0;
+                do {
+                    x = tileSize * (1 + random.nextInt(maxScreenCol - 2));
+                    y = tileSize * (1 + random.nextInt(maxScreenRow - 2));
+                } while (++tries < 20 && cChecker.overlapsSolid(x, y, player.solidArea));
+                entities.addChaser(x, y, 1 + random.nextInt(2), player.getCharacter());
+            }
+            for (int i = chasers; i < count; i++) {
+                int x;
+                int y;
+                int tries = 0;
+                do {
+                    x = tileSize + random.nextInt(screenWidth - 3 * tileSize);
+                    y = tileSize + random.nextInt(screenHeight - 3 * tileSize);
+                } while (++tries < 20 && cChecker.overlapsSolid(x, y, player.solidArea));
+                entities.addWanderer(x, y, 1 + random.nextInt(2), random.nextInt(), player.getCharacter());
+            }
+        }
+
+        public void update() {
+        long start = System.nanoTime();
+
+        if (replay != null) {
+            if (replayTick >= replay.length()) {
+                finishReplay();
+                return;
+            }
+            keyH.setActions(replay.get(replayTick++));
+        } else {
+            keyH.poll();
+            if (recording != null) {
+                recording.add(keyH.getActions());
+            }
+        }
+        if (client != null) {
+            followServer();
+        } else {
+            player.update();
+            steerChasers();
+        }
+        entities.update();
+        followPlayer();
+        // Stream the chunks around what is on screen
+        tileM.update(camera.getX() + screenWidth / 2, camera.getY() + screenHeight / 2);
+
+        if (autosave != null) {
+            autosave.tick(ticks, player, entities, tileM.getWorld());
+        }
 
-        double drawInterval = 1000000000 / FPS;
-        double delta = 0;
-        long lastTime = System.nanoTime();
-        long currentTime;
-        long timer = 0;
-        int drawCount = 0;
-
-        while (gameThread != null) {
-            currentTime = System.nanoTime();
-            delta += (currentTime - lastTime) / drawInterval;
-            timer += (currentTime - lastTime);
-            lastTime = currentTime;
-
-            if (delta >= 1) {
-                update();
+        // Toggle the frame-time overlay on the press, not every tick the key is held
+        if (keyH.debugPressed && !debugWasPressed) {
+            profiler.toggleOverlay();
+        }
+        debugWasPressed = keyH.debugPressed;
+
+        publishSnapshot();
+        if (governor != null) {
+            governor.recordUpdate(System.nanoTime() - start);
+        }
+
+        }
+
+        // Sends this tick's input to the server, then shows our player as predicted and everyone else as last sent
+        private void followServer() {
+            try {
+                client.tick(keyH.getActions());
+            } catch (IOException e) {
+                // Carry on alone from where the player is
+                System.err.println("Lost connection to " + config.connect + ": " + e.getMessage());
+                client.close();
+                client = null;
+                return;
+            }
+            player.place(client.getX(), client.getY(), client.getDirection(), client.isMoving());
+            if (player.getCharacter() < 0) {
+                return;
+            }
+
+            WorldState state = client.getState();
+            if (remoteSlots.length < state.size()) {
+                int old = remoteSlots.length;
+                remoteSlots = Arrays.copyOf(remoteSlots, Math.max(state.size(), old * 2));
+                Arrays.fill(remoteSlots, old, remoteSlots.length, -1);
+            }
+            for (int id = 0; id < state.size(); id++) {
+                if (id == client.getPlayerId()) {
+                    continue;
+                }
+                if (state.isPresent(id)) {
+                    remote.x = state.getX(id);
+                    remote.y = state.getY(id);
+                    remote.direction = state.getFlags(id) & Protocol.DIRECTION_MASK;
+                    remote.moving = (state.getFlags(id) & Protocol.MOVING) != 0;
+                } else if (remoteSlots[id] >= 0) {
+                    // Out of sight: keep the slot but far away from anything drawn or collided with
+                    remote.x = Integer.MIN_VALUE / 2;
+                    remote.y = Integer.MIN_VALUE / 2;
+                    remote.moving = false;
+                } else {
+                    continue;
+                }
+                if (remoteSlots[id] < 0) {
+                    remoteSlots[id] = entities.addControlled(remote, player.getCharacter());
+                } else {
+                    entities.set(remoteSlots[id], remote);
+                }
+            }
+        }
+
+        // Puts the player, the edited tiles and the entities back the way the save has them
+        private void continueFrom(SaveState saved) {
+            ticks = saved.getTick();
+            player.x = saved.getPlayerX();
+            player.y = saved.getPlayerY();
+            player.direction = saved.getPlayerDirection();
+            saved.restoreEntities(entities);
+            if (player.getStoreId() >= 0) {
+                entities.set(player.getStoreId(), player);
+            }
+            ChunkedWorld world = tileM.getWorld();
+            if (world != null) {
+                saved.restoreChunks(world);
+                world.preload(player.x / tileSize, player.y / tileSize);
+            }
+            followPlayer();
+        }
+
+        // Writes the frame-time summary of the replay once its last tick has run
+        private void finishReplay() {
+            if (replayFinished) {
+                return;
+            }
+            replayFinished = true;
+            profiler.roll();
+            String file = config.replayStats != null ? config.replayStats : config.replay + ".stats.csv";
+            String run = config.replay + (isReplayFast() ? " fast" : " real")
+                    + (GraphicsEnvironment.isHeadless() ? " headless" : " windowed");
+            profiler.appendSummary(file, config.label, run);
+            System.out.println("Replay of " + replay.length() + " ticks finished, frame times appended to " + file);
+        }
+
+        // Copies what the next frame needs into a pooled snapshot and hands it to the renderer
+        private void publishSnapshot() {
+            FrameSnapshot snapshot = snapshots.getWriteSnapshot();
+            snapshot.tick = ticks++;
+            snapshot.cameraX = camera.getX();
+            snapshot.cameraY = camera.getY();
+            if (governor == null || governor.isAnimating()) {
+                shownTileTick = tileM.getAnimationTick();
+            }
+            snapshot.tileTick = shownTileTick;
+            snapshot.playerImage = player.getCurrentImage();
+            snapshot.playerX = player.x;
+            snapshot.playerY = player.y;
+            entities.collect(snapshot, tileSize, snapshot.cameraX, snapshot.cameraY, screenWidth, screenHeight,
+                    player.getStoreId());
+            snapshots.publish();
+        }
+
+        // Points every chaser at the tile under the middle of the player's collision box
+        private void steerChasers() {
+            if (navigation == null || config.chasers == 0) {
+                return;
+            }
+            int col = (player.x + player.solidArea.x + player.solidArea.width / 2) / tileSize;
+            int row = (player.y + player.solidArea.y + player.solidArea.height / 2) / tileSize;
+            FlowField field = navigation.getFlowField(col, row);
+            entities.setChaseField(field, tileSize);
+        }
+
+        private void followPlayer() {
+            camera.follow(player.x + tileSize / 2, player.y + tileSize / 2, tileM.getWorldWidth(), tileM.getWorldHeight());
+        }
+
+        /**
+         * Presents a frame. Called by the game loop whenever a frame is due, unless the governor skips it.
+         */
+        public void render() {
+            if (governor != null && !governor.beginFrame(snapshots.hasNew(), System.nanoTime())) {
+                return;
+            }
+            if (activeRenderer != null) {
+                activeRenderer.render();
+            } else if (dirtyRenderer != null) {
+                long start = System.nanoTime();
+                dirtyRenderer.render();
+                if (governor != null) {
+                    governor.recordRender(System.nanoTime() - start);
+                }
+            } else {
                 repaint();
-                delta--;
-                drawCount++;
             }
-            if(timer>=1000000000) {
-                System.out.println(drawCount);
-                drawCount = 0;
-                timer = 0;
+        }
+
+        /**
+         * Draws the whole scene from the latest snapshot at the screen's default size. Shared by the passive
+         * (paintComponent) and active render paths; must only be called by one thread at a time.
+         * Reads nothing the game thread is changing apart from the thread-safe tile world.
+         */
+        public void drawFrame(Graphics2D g2) {
+            drawFrame(g2, screenWidth, screenHeight);
+        }
+
+        /**
+         * Draws the latest snapshot into a width x height window. With a native pipeline the frame is
+         * scaled to fill as much of it as the scale mode allows, otherwise it is drawn at its fixed size.
+         */
+        public void drawFrame(Graphics2D g2, int width, int height) {
+            long start = System.nanoTime();
+            NativeFrame frame = nativeFrame;
+            if (frame == null && governor != null && governor.isNativeScale()) {
+                if (reducedFrame == null) {
+                    reducedFrame = new NativeFrame(this, ScaleMode.INTEGER);
+                }
+                frame = reducedFrame;
+            }
+            if (frame == null) {
+                drawFrame(g2, snapshots.getLatest());
+            } else {
+                frame.draw(g2, snapshots.getLatest(), width, height);
+                finishFrame(g2);
             }
+            if (governor != null) {
+                governor.recordRender(System.nanoTime() - start);
+            }
+        }
 
+        /**
+         * Draws the scene as of a snapshot at window resolution. Only the pixels inside g2's clip are touched.
+         */
+        public void drawFrame(Graphics2D g2, FrameSnapshot snapshot) {
+            drawScene(g2, snapshot, 1);
+            finishFrame(g2);
         }
 
-        update();
-        repaint();
-    }
-        public void update() {
+        /**
+         * Draws the map, the NPCs and the player as of a snapshot, shrunk by a whole factor: 1 draws at window
+         * resolution, scale draws every sprite at its own size.
+         */
+        void drawScene(Graphics2D g2, FrameSnapshot snapshot, int shrink) {
+            int size = tileSize / shrink;
+            int cameraX = Math.floorDiv(snapshot.cameraX, shrink);
+            int cameraY = Math.floorDiv(snapshot.cameraY, shrink);
 
-        player.update();
+            long start = System.nanoTime();
+            tileM.draw(g2, cameraX, cameraY, snapshot.tileTick, size);
+            long tilesDone = System.nanoTime();
+            for (int i = 0; i < snapshot.spriteCount; i++) {
+                g2.drawImage(snapshot.spriteImages[i], Math.floorDiv(snapshot.spriteX[i], shrink) - cameraX,
+                        Math.floorDiv(snapshot.spriteY[i], shrink) - cameraY, size, size, null);
+            }
+            long entitiesDone = System.nanoTime();
+            Player.drawAt(g2, snapshot.playerImage, Math.floorDiv(snapshot.playerX, shrink) - cameraX,
+                    Math.floorDiv(snapshot.playerY, shrink) - cameraY, size);
+            long playerDone = System.nanoTime();
+            tileM.drawOverlay(g2, cameraX, cameraY, snapshot.tileTick, size);
+            if (lightMap != null) {
+                // Around the middle of the player's tile
+                int col = Math.floorDiv(snapshot.playerX + tileSize / 2, tileSize);
+                int row = Math.floorDiv(snapshot.playerY + tileSize / 2, tileSize);
+                if (torchLight >= 0) {
+                    lightMap.moveLight(torchLight, col, row);
+                }
+                lightMap.setViewer(col, row, SIGHT_RADIUS);
+                lightMap.draw(g2, tileM.getWorld(), cameraX, cameraY, maxScreenCol * size, maxScreenRow * size, size);
+            }
+            long overlayDone = System.nanoTime();
 
+            profiler.record(FrameProfiler.Phase.TILES, tilesDone - start + overlayDone - playerDone);
+            profiler.record(FrameProfiler.Phase.ENTITIES, entitiesDone - tilesDone);
+            profiler.record(FrameProfiler.Phase.PLAYER, playerDone - entitiesDone);
         }
+
+        // Things drawn over the finished frame at window resolution
+        private void finishFrame(Graphics2D g2) {
+            // This is the first frame drawn since the game reacted to that input
+            long inputTime = keyH.takeInputTime();
+            if (inputTime != 0) {
+                profiler.record(FrameProfiler.Phase.INPUT, System.nanoTime() - inputTime);
+            }
+            profiler.drawOverlay(g2);
+        }
+
+        /**
+         * Extra information appended to the loop's once-a-second statistics line.
+         */
+        public String getStatusLine() {
+            String world = tileM.getWorld() != null ? tileM.getWorld().getStats().toString() : "no map";
+            if (dirtyRenderer != null) {
+                world = dirtyRenderer + " | " + world;
+            }
+            if (governor != null) {
+                world = governor + " | " + world;
+            }
+            return renderLoop != null ? "render " + renderLoop.getStatsLine() + " | " + world : world;
+        }
+
         public void paintComponent(Graphics g) {
 
-            super.paintComponent(g);
+            // The retained frame is opaque and covers the whole panel, so there is no background to clear
+            if (dirtyRenderer != null) {
+                dirtyRenderer.paint((Graphics2D) g);
+                return;
+            }
 
-            Graphics2D g2 = (Graphics2D)g;
+            super.paintComponent(g);
 
-            tileM.draw(g2);
-            player.draw(g2);
+            // The active renderer owns the screen; Swing only paints the canvas it sits in
+            if (activeRenderer != null) {
+                return;
+            }
 
-            g2.dispose();
+            // g belongs to Swing, so it is not disposed here
+            drawFrame((Graphics2D) g, getWidth(), getHeight());
         }
 
     }
-
@@ -0,0 +1,320 @@
+package ai;
+
+import Entity.Direction;
+import tile.CollisionMap;
+
+import java.util.Arrays;
+
+/**
+ * Distance to one target tile from every tile of a square region around it, and the direction
+ * to step in from each tile to get one tile closer.
+ *
+ * Any number of agents heading for the same target read their next step from the same field,
+ * so chasing the player costs one breadth-first search however many agents there are.
+ * When a single tile changes the field is repaired in place: a tile that opens up spreads
+ * shorter distances outward from itself, and a tile that closes invalidates only the tiles whose
+ * route went through it, which are then refilled from the tiles around them.
+ *
+ * Not thread-safe while being built or repaired; reading it from several threads at once is fine.
+ */
+public class FlowField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final CollisionMap map;
+    private final int size;
+
+    // Per tile of the region: steps to the target and the Direction to take, -1 if there is none
+    private final int[] distance;
+    private final byte[] next;
+
+    // Work arrays for building and repairing, allocated once
+    private final int[] queue;
+    private final boolean[] queued;
+    private final int[] affected;
+
+    private int originCol;
+    private int originRow;
+    private int targetCol;
+    private int targetRow;
+    private boolean built;
+
+    private long builds;
+    private long repairs;
+
+    /**
+     * @param map What blocks movement
+     * @param size Side of the region in tiles, centered on the target
+     */
+    public FlowField(CollisionMap map, int size) {
+        this.map = map;
+        this.size = size;
+        int tiles = size * size;
+        distance = new int[tiles];
+        next = new byte[tiles];
+        queue = new int[tiles];
+        queued = new boolean[tiles];
+        affected = new int[tiles];
+    }
+
+    /**
+     * Recomputes the whole field for a target.
+     */
+    public void build(int targetCol, int targetRow) {
+        this.targetCol = targetCol;
+        this.targetRow = targetRow;
+        originCol = targetCol - size / 2;
+        originRow = targetRow - size / 2;
+        Arrays.fill(distance, UNREACHABLE);
+        Arrays.fill(next, (byte) -1);
+        built = true;
+        builds++;
+
+        int target = index(targetCol, targetRow);
+        distance[target] = 0;
+        queue[0] = target;
+        int head = 0;
+        int tail = 1;
+        // Plain BFS: with every step costing 1, tiles come off the queue in order of distance
+        while (head < tail) {
+            int tile = queue[head++];
+            int col = tile % size;
+            int row = tile / size;
+            int nextDistance = distance[tile] + 1;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                int c = col + Direction.DX[d];
+                int r = row + Direction.DY[d];
+                if (c < 0 || r < 0 || c >= size || r >= size) {
+                    continue;
+                }
+                int neighbour = r * size + c;
+                if (distance[neighbour] != UNREACHABLE || map.isSolid(originCol + c, originRow + r)) {
+                    continue;
+                }
+                distance[neighbour] = nextDistance;
+                next[neighbour] = (byte) opposite(d);
+                queue[tail++] = neighbour;
+            }
+        }
+    }
+
+    /**
+     * Forgets the field; the next isBuiltFor check fails until it is built again.
+     */
+    public void invalidate() {
+        built = false;
+    }
+
+    /**
+     * @return true if the field is up to date for this target
+     */
+    public boolean isBuiltFor(int targetCol, int targetRow) {
+        return built && targetCol == this.targetCol && targetRow == this.targetRow;
+    }
+
+    public int getTargetCol() {
+        return targetCol;
+    }
+
+    public int getTargetRow() {
+        return targetRow;
+    }
+
+    /**
+     * @return Column of the top-left tile of the region the field covers
+     */
+    public int getOriginCol() {
+        return originCol;
+    }
+
+    public int getOriginRow() {
+        return originRow;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return The Direction that leads one tile closer to the target, or -1 at the target,
+     *         on unreachable tiles and outside the region
+     */
+    public int getDirection(int col, int row) {
+        int c = col - originCol;
+        int r = row - originRow;
+        if (c < 0 || r < 0 || c >= size || r >= size) {
+            return -1;
+        }
+        return next[r * size + c];
+    }
+
+    /**
+     * @return Steps to the target, or UNREACHABLE (also outside the region)
+     */
+    public int getDistance(int col, int row) {
+        int c = col - originCol;
+        int r = row - originRow;
+        if (c < 0 || r < 0 || c >= size || r >= size) {
+            return UNREACHABLE;
+        }
+        return distance[r * size + c];
+    }
+
+    /**
+     * Brings the field up to date after one tile became solid or walkable.
+     */
+    public void tileChanged(int col, int row) {
+        int c = col - originCol;
+        int r = row - originRow;
+        if (!built || c < 0 || r < 0 || c >= size || r >= size) {
+            return;
+        }
+        if (col == targetCol && row == targetRow) {
+            build(targetCol, targetRow);
+            return;
+        }
+        repairs++;
+        int tile = r * size + c;
+        if (map.isSolid(col, row)) {
+            close(tile);
+        } else {
+            open(tile);
+        }
+    }
+
+    // A walkable tile turned solid: everything routed through it loses its distance and is refilled
+    private void close(int tile) {
+        if (distance[tile] == UNREACHABLE) {
+            return; // Nothing could reach the target through it anyway
+        }
+
+        // The tiles whose step leads into the closed tile, and theirs, and so on
+        int count = 0;
+        affected[count++] = tile;
+        distance[tile] = UNREACHABLE;
+        next[tile] = -1;
+        for (int i = 0; i < count; i++) {
+            int t = affected[i];
+            int col = t % size;
+            int row = t / size;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                int c = col + Direction.DX[d];
+                int r = row + Direction.DY[d];
+                if (c < 0 || r < 0 || c >= size || r >= size) {
+                    continue;
+                }
+                int neighbour = r * size + c;
+                if (next[neighbour] == opposite(d)) {
+                    distance[neighbour] = UNREACHABLE;
+                    next[neighbour] = -1;
+                    affected[count++] = neighbour;
+                }
+            }
+        }
+
+        // Each of them takes the best distance offered by a neighbour that kept its route, then it spreads
+        int head = 0;
+        int tail = 0;
+        for (int i = 1; i < count; i++) {
+            int t = affected[i];
+            int col = t % size;
+            int row = t / size;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                int c = col + Direction.DX[d];
+                int r = row + Direction.DY[d];
+                if (c < 0 || r < 0 || c >= size || r >= size) {
+                    continue;
+                }
+                int neighbour = r * size + c;
+                if (distance[neighbour] != UNREACHABLE && distance[neighbour] + 1 < distance[t]) {
+                    distance[t] = distance[neighbour] + 1;
+                    next[t] = (byte) d;
+                }
+            }
+            if (distance[t] != UNREACHABLE) {
+                tail = enqueue(t, tail);
+            }
+        }
+        spread(head, tail);
+    }
+
+    // A solid tile turned walkable: it takes its best neighbour's distance and shortens routes around it
+    private void open(int tile) {
+        int col = tile % size;
+        int row = tile / size;
+        for (int d = 0; d < Direction.COUNT; d++) {
+            int c = col + Direction.DX[d];
+            int r = row + Direction.DY[d];
+            if (c < 0 || r < 0 || c >= size || r >= size) {
+                continue;
+            }
+            int neighbour = r * size + c;
+            if (distance[neighbour] != UNREACHABLE && distance[neighbour] + 1 < distance[tile]) {
+                distance[tile] = distance[neighbour] + 1;
+                next[tile] = (byte) d;
+            }
+        }
+        if (distance[tile] != UNREACHABLE) {
+            spread(0, enqueue(tile, 0));
+        }
+    }
+
+    // Relaxes neighbours of queued tiles until no distance improves. queue is used as a ring,
+    // and a tile is never in it twice, so it can't overflow.
+    private void spread(int head, int tail) {
+        int length = queue.length;
+        while (head != tail) {
+            int tile = queue[head];
+            head = head + 1 == length ? 0 : head + 1;
+            queued[tile] = false;
+            int col = tile % size;
+            int row = tile / size;
+            int nextDistance = distance[tile] + 1;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                int c = col + Direction.DX[d];
+                int r = row + Direction.DY[d];
+                if (c < 0 || r < 0 || c >= size || r >= size) {
+                    continue;
+                }
+                int neighbour = r * size + c;
+                if (nextDistance >= distance[neighbour] || map.isSolid(originCol + c, originRow + r)) {
+                    continue;
+                }
+                distance[neighbour] = nextDistance;
+                next[neighbour] = (byte) opposite(d);
+                tail = enqueue(neighbour, tail);
+            }
+        }
+    }
+
+    private int enqueue(int tile, int tail) {
+        if (queued[tile]) {
+            return tail;
+        }
+        queued[tile] = true;
+        queue[tail] = tile;
+        return tail + 1 == queue.length ? 0 : tail + 1;
+    }
+
+    /**
+     * @return How many times the field was computed from scratch
+     */
+    public long getBuilds() {
+        return builds;
+    }
+
+    /**
+     * @return How many single tile changes were repaired in place
+     */
+    public long getRepairs() {
+        return repairs;
+    }
+
+    private int index(int col, int row) {
+        return (row - originRow) * size + (col - originCol);
+    }
+
+    // UP and DOWN, LEFT and RIGHT are neighbouring ids
+    private static int opposite(int direction) {
+        return direction ^ 1;
+    }
+}
@@ -0,0 +1,161 @@
+package ai;
+
+import tile.ChunkedWorld;
+import tile.MapLayer;
+import tile.TileListener;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pathfinding services over a ChunkedWorld: single A* queries, batches of queries run in parallel,
+ * and flow fields shared by every agent heading for the same tile.
+ *
+ * Each thread that asks for a path gets its own Pathfinder, created on first use and kept,
+ * so queries never allocate or contend. Flow fields are cached by target in a small set reused in
+ * least-recently-used order. Tile edits are passed to the cached fields, which repair themselves in
+ * place; when chunks stream in or out the fields covering them are rebuilt the next time they are
+ * asked for, because tiles that aren't loaded count as solid.
+ *
+ * Flow fields must only be requested from the game thread. Path queries can come from any thread.
+ */
+public class Navigation implements TileListener {
+    // A batch is split into tasks of about this many queries
+    private static final int BATCH_GRAIN = 64;
+
+    private final ChunkedWorld world;
+    private final ThreadLocal<Pathfinder> pathfinders;
+
+    private final FlowField[] fields;
+    private final long[] lastUsed;
+    // World stamp (see ChunkedWorld.getStamp) each field was built at
+    private final long[] builtStamp;
+    private long uses;
+    private long residencyVersion;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private boolean parallel = true;
+
+    /**
+     * @param searchSize Side in tiles of the window each A* query searches (see Pathfinder)
+     * @param fieldSize Side in tiles of the region each flow field covers
+     * @param fieldCount How many flow fields to keep cached
+     */
+    public Navigation(ChunkedWorld world, int searchSize, int fieldSize, int fieldCount) {
+        this.world = world;
+        this.pathfinders = ThreadLocal.withInitial(() -> new Pathfinder(world, searchSize));
+        fields = new FlowField[fieldCount];
+        lastUsed = new long[fieldCount];
+        builtStamp = new long[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = new FlowField(world, fieldSize);
+        }
+        residencyVersion = world.getResidencyVersion();
+        world.addTileListener(this);
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Finds a shortest path with the calling thread's Pathfinder.
+     *
+     * @see Pathfinder#findPath
+     */
+    public boolean findPath(int startCol, int startRow, int goalCol, int goalRow, Path out) {
+        return pathfinders.get().findPath(startCol, startRow, goalCol, goalRow, out);
+    }
+
+    /**
+     * Answers every query of a batch, split across the fork/join pool when the batch is large.
+     */
+    public void findPaths(PathBatch batch) {
+        int count = batch.size();
+        if (parallel && count > BATCH_GRAIN) {
+            pool.invoke(new BatchTask(batch, 0, count));
+        } else {
+            batch.solve(pathfinders.get(), 0, count);
+        }
+    }
+
+    /**
+     * Returns a flow field leading to a tile, building it only if no cached field already does.
+     */
+    public FlowField getFlowField(int targetCol, int targetRow) {
+        long version = world.getResidencyVersion();
+        if (version != residencyVersion) {
+            residencyVersion = version;
+            for (int i = 0; i < fields.length; i++) {
+                FlowField field = fields[i];
+                if (world.changedSince(builtStamp[i], field.getOriginCol(), field.getOriginRow(), field.getSize(),
+                        field.getSize())) {
+                    field.invalidate();
+                }
+            }
+        }
+
+        int slot = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].isBuiltFor(targetCol, targetRow)) {
+                lastUsed[i] = ++uses;
+                return fields[i];
+            }
+            if (lastUsed[i] < lastUsed[slot]) {
+                slot = i;
+            }
+        }
+        FlowField field = fields[slot];
+        // Taken first, so a chunk that comes or goes while the field is built counts as a change
+        builtStamp[slot] = world.getStamp();
+        field.build(targetCol, targetRow);
+        lastUsed[slot] = ++uses;
+        return field;
+    }
+
+    @Override
+    public void tileChanged(int layer, int col, int row, int oldTile, int newTile) {
+        // Overlay tiles are drawn over everything but never block anyone
+        if (layer == MapLayer.OVERLAY) {
+            return;
+        }
+        for (FlowField field : fields) {
+            field.tileChanged(col, row);
+        }
+    }
+
+    /**
+     * Stops listening to the world's tile edits.
+     */
+    public void close() {
+        world.removeTileListener(this);
+    }
+
+    private class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PathBatch batch;
+        private final int from;
+        private final int to;
+
+        BatchTask(PathBatch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_GRAIN) {
+                batch.solve(pathfinders.get(), from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(batch, from, mid), new BatchTask(batch, mid, to));
+        }
+    }
+}
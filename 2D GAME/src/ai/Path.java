@@ -0,0 +1,51 @@
+package ai;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of tiles to walk through, filled in by a Pathfinder.
+ * The arrays only grow, so once a Path has held a long route, finding more routes into it
+ * allocates nothing.
+ */
+public class Path {
+    private int[] cols = new int[64];
+    private int[] rows = new int[64];
+    private int length;
+
+    /**
+     * @return Number of steps, not counting the start tile
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param step 0 for the first tile after the start, length() - 1 for the goal
+     */
+    public int col(int step) {
+        return cols[step];
+    }
+
+    public int row(int step) {
+        return rows[step];
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    // Makes room for a path of the given length, which the Pathfinder then fills back to front
+    void resize(int length) {
+        if (length > cols.length) {
+            int capacity = Math.max(length, cols.length * 2);
+            cols = Arrays.copyOf(cols, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+        this.length = length;
+    }
+
+    void set(int step, int col, int row) {
+        cols[step] = col;
+        rows[step] = row;
+    }
+}
@@ -0,0 +1,69 @@
+package ai;
+
+import java.util.Arrays;
+
+/**
+ * A list of path queries answered together by Navigation.findPaths, possibly in parallel.
+ * Queries are stored in parallel arrays and every query keeps its own Path, so a batch that is
+ * cleared and refilled every tick stops allocating once it has reached its largest size.
+ */
+public class PathBatch {
+    private int count;
+    private int[] startCol = new int[16];
+    private int[] startRow = new int[16];
+    private int[] goalCol = new int[16];
+    private int[] goalRow = new int[16];
+    private boolean[] found = new boolean[16];
+    private Path[] paths = new Path[16];
+
+    /**
+     * @return Index of the query, used to read its result
+     */
+    public int add(int startCol, int startRow, int goalCol, int goalRow) {
+        if (count == this.startCol.length) {
+            int capacity = count * 2;
+            this.startCol = Arrays.copyOf(this.startCol, capacity);
+            this.startRow = Arrays.copyOf(this.startRow, capacity);
+            this.goalCol = Arrays.copyOf(this.goalCol, capacity);
+            this.goalRow = Arrays.copyOf(this.goalRow, capacity);
+            found = Arrays.copyOf(found, capacity);
+            paths = Arrays.copyOf(paths, capacity);
+        }
+        int i = count++;
+        this.startCol[i] = startCol;
+        this.startRow[i] = startRow;
+        this.goalCol[i] = goalCol;
+        this.goalRow[i] = goalRow;
+        found[i] = false;
+        if (paths[i] == null) {
+            paths[i] = new Path();
+        }
+        return i;
+    }
+
+    /**
+     * Removes every query but keeps their Paths for reuse.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isFound(int query) {
+        return found[query];
+    }
+
+    public Path getPath(int query) {
+        return paths[query];
+    }
+
+    // Answers queries from (inclusive) to (exclusive) with one Pathfinder
+    void solve(Pathfinder pathfinder, int from, int to) {
+        for (int i = from; i < to; i++) {
+            found[i] = pathfinder.findPath(startCol[i], startRow[i], goalCol[i], goalRow[i], paths[i]);
+        }
+    }
+}
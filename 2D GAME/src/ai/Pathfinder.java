@@ -0,0 +1,202 @@
+package ai;
+
+import Entity.Direction;
+import tile.CollisionMap;
+
+import java.util.Arrays;
+
+/**
+ * A* search over the tile grid, four directions, every step costing 1.
+ *
+ * Searches are limited to a square window of tiles placed around the start and the goal, and every
+ * array the search needs is sized for that window up front. Nodes are reset lazily: each query gets
+ * a new number, and a node whose stamp is older than the current query counts as untouched, so a
+ * query allocates nothing and never clears the arrays. The open list is a binary heap of longs
+ * packing f, h and the node index; nodes are pushed again instead of being decreased in place, and
+ * stale entries are skipped when popped.
+ *
+ * Not thread-safe: give each thread its own Pathfinder (Navigation does).
+ */
+public class Pathfinder {
+    // Largest window side: node indexes must fit in NODE_BITS
+    public static final int MAX_SIZE = 2048;
+
+    private static final int NODE_BITS = 22;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    // h is at most two window sides, under 2^13; f is at most every node of the window plus h, which
+    // leaves it the other 29 bits of a heap entry with room to spare
+    private static final int H_BITS = 13;
+
+    private final CollisionMap map;
+    private final int size;
+
+    // Per node of the window: cost from the start, previous node, and the queries that opened and closed it
+    private final int[] cost;
+    private final int[] parent;
+    private final int[] opened;
+    private final int[] closed;
+
+    // With a consistent heuristic a node is pushed at most once per neighbour
+    private final long[] heap;
+    private int heapSize;
+
+    private int query;
+    private int originCol;
+    private int originRow;
+    private int expanded;
+
+    /**
+     * @param map What blocks movement
+     * @param size Side of the search window in tiles; start and goal must be less than this far apart
+     */
+    public Pathfinder(CollisionMap map, int size) {
+        if (size < 2 || size > MAX_SIZE) {
+            throw new IllegalArgumentException("Search window must be 2 to " + MAX_SIZE + " tiles, got " + size);
+        }
+        this.map = map;
+        this.size = size;
+        int nodes = size * size;
+        cost = new int[nodes];
+        parent = new int[nodes];
+        opened = new int[nodes];
+        closed = new int[nodes];
+        heap = new long[nodes * Direction.COUNT + 1];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Number of nodes the last query expanded
+     */
+    public int getExpanded() {
+        return expanded;
+    }
+
+    /**
+     * Finds a shortest path between two tiles.
+     *
+     * @param out Receives the tiles after the start up to and including the goal; cleared if there is no path
+     * @return false if the goal is solid, unreachable, or too far from the start for the search window
+     */
+    public boolean findPath(int startCol, int startRow, int goalCol, int goalRow, Path out) {
+        out.clear();
+        expanded = 0;
+        int spanCols = Math.abs(goalCol - startCol);
+        int spanRows = Math.abs(goalRow - startRow);
+        if (spanCols >= size || spanRows >= size || map.isSolid(goalCol, goalRow)) {
+            return false;
+        }
+        if (spanCols == 0 && spanRows == 0) {
+            return true;
+        }
+
+        // Center the window on the pair so there is room to walk around obstacles on every side
+        originCol = Math.min(startCol, goalCol) - (size - 1 - spanCols) / 2;
+        originRow = Math.min(startRow, goalRow) - (size - 1 - spanRows) / 2;
+        nextQuery();
+
+        int goal = (goalRow - originRow) * size + (goalCol - originCol);
+        int start = (startRow - originRow) * size + (startCol - originCol);
+        cost[start] = 0;
+        parent[start] = -1;
+        opened[start] = query;
+        heapSize = 0;
+        push(heuristic(start, goalCol, goalRow), start);
+
+        while (heapSize > 0) {
+            int node = (int) (pop() & NODE_MASK);
+            if (closed[node] == query) {
+                continue; // Stale entry, the node was reached more cheaply before
+            }
+            closed[node] = query;
+            expanded++;
+            if (node == goal) {
+                buildPath(goal, out);
+                return true;
+            }
+
+            int col = node % size;
+            int row = node / size;
+            int nextCost = cost[node] + 1;
+            for (int d = 0; d < Direction.COUNT; d++) {
+                int c = col + Direction.DX[d];
+                int r = row + Direction.DY[d];
+                if (c < 0 || r < 0 || c >= size || r >= size) {
+                    continue;
+                }
+                int next = r * size + c;
+                if (closed[next] == query || (opened[next] == query && cost[next] <= nextCost)) {
+                    continue;
+                }
+                if (map.isSolid(originCol + c, originRow + r)) {
+                    closed[next] = query; // Never look at this tile again during this query
+                    continue;
+                }
+                opened[next] = query;
+                cost[next] = nextCost;
+                parent[next] = node;
+                push(nextCost + heuristic(next, goalCol, goalRow), next);
+            }
+        }
+        return false;
+    }
+
+    private int heuristic(int node, int goalCol, int goalRow) {
+        return Math.abs(originCol + node % size - goalCol) + Math.abs(originRow + node / size - goalRow);
+    }
+
+    private void buildPath(int goal, Path out) {
+        out.resize(cost[goal]);
+        int step = cost[goal] - 1;
+        for (int node = goal; parent[node] >= 0; node = parent[node]) {
+            out.set(step--, originCol + node % size, originRow + node / size);
+        }
+    }
+
+    // Stamps start at 1 so the zeroed arrays mean untouched; after 2^31 queries the arrays are cleared once
+    private void nextQuery() {
+        if (++query == Integer.MAX_VALUE) {
+            Arrays.fill(opened, 0);
+            Arrays.fill(closed, 0);
+            query = 1;
+        }
+    }
+
+    // Lower f first; among equal f, lower h (closer to the goal) first, which keeps A* from fanning out on open ground
+    private void push(int f, int node) {
+        int h = f - cost[node];
+        long entry = ((long) f << (H_BITS + NODE_BITS)) | ((long) h << NODE_BITS) | node;
+        int i = heapSize++;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heap[up] <= entry) {
+                break;
+            }
+            heap[i] = heap[up];
+            i = up;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+}
@@ -0,0 +1,303 @@
+package asset;
+
+import tile.ChunkSource;
+import tile.tileManager;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads images, the sprite atlas and maps on a pool of worker threads.
+ *
+ * Every request returns a CompletableFuture right away, so independent assets decode at the same time
+ * and callers only block when they actually need the result. Requests are keyed by asset name: asking
+ * for an asset that is already loaded or loading returns the same future, so nothing is decoded twice.
+ * Assets that depend on others are chained with future composition, never by a worker waiting on
+ * another task, so the pool can't deadlock however small it is.
+ * How long each step waited and took is recorded for the startup report.
+ */
+public class AssetManager {
+    private static AssetManager shared;
+
+    private final ExecutorService workers;
+    private final Map<String, CompletableFuture<?>> assets = new ConcurrentHashMap<>();
+    // Open maps by name, guarded by this
+    private final Map<String, SharedMap> maps = new HashMap<>();
+    private final List<Timing> timings = new ArrayList<>();
+    private final long created = System.nanoTime();
+
+    /**
+     * How one loading step went, all times in nanoseconds.
+     */
+    public static class Timing {
+        public final String key;
+        public final String thread;
+        public final long waited;   // Time from being queued to a worker picking it up
+        public final long loading;  // Time spent loading
+        public final long finished; // Time from the manager's creation to completion
+
+        Timing(String key, String thread, long waited, long loading, long finished) {
+            this.key = key;
+            this.thread = thread;
+            this.waited = waited;
+            this.loading = loading;
+            this.finished = finished;
+        }
+    }
+
+    // A map open for every world streaming it, and how many of those are still open
+    private static class SharedMap {
+        final String path;
+        final CompletableFuture<ChunkSource> source;
+        int users;
+
+        SharedMap(String path, CompletableFuture<ChunkSource> source) {
+            this.path = path;
+            this.source = source;
+        }
+    }
+
+    // One world's share of a map: reads go to the map, closing gives the share up
+    private class MapShare implements ChunkSource {
+        private final ChunkSource source;
+        private final SharedMap map;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        MapShare(ChunkSource source, SharedMap map) {
+            this.source = source;
+            this.map = map;
+        }
+
+        @Override
+        public int getWidth() {
+            return source.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return source.getHeight();
+        }
+
+        @Override
+        public int getLayers() {
+            return source.getLayers();
+        }
+
+        @Override
+        public void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) throws IOException {
+            source.loadChunk(chunkCol, chunkRow, chunkSize, dest);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(map);
+            }
+        }
+    }
+
+    public AssetManager(int threads) {
+        AtomicInteger n = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "asset-loader-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return The manager the game loads its assets through
+     */
+    public static synchronized AssetManager shared() {
+        if (shared == null) {
+            shared = new AssetManager(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        }
+        return shared;
+    }
+
+    /**
+     * Decodes an image resource exactly as stored, e.g. "/player/up.png".
+     * The future completes with null if the resource is missing or unreadable.
+     * The image is only kept until what is built from it (a compatible copy or an atlas) is ready.
+     */
+    public CompletableFuture<BufferedImage> rawImage(String resource) {
+        String key = "raw:" + resource;
+        CompletableFuture<BufferedImage> raw = cached(key, k -> task(k, () -> SpriteAtlas.decode(resource)));
+        // An image that couldn't be read isn't kept, so asking again tries again
+        raw.whenComplete((image, error) -> {
+            if (image == null) {
+                assets.remove(key, raw);
+            }
+        });
+        return raw;
+    }
+
+    /**
+     * Decodes an image resource and converts it to the screen's compatible format.
+     */
+    public CompletableFuture<BufferedImage> image(String resource) {
+        CompletableFuture<BufferedImage> raw = rawImage(resource);
+        return cached("image:" + resource, key -> raw.thenComposeAsync(image -> task(key, () -> {
+            if (image == null) {
+                return null;
+            }
+            BufferedImage compatible = SpriteAtlas.toCompatible(image);
+            forgetRaw(resource);
+            return compatible;
+        }), workers));
+    }
+
+    /**
+     * Loads the atlas of the given sprites. If it isn't cached on disk the sprites are decoded in parallel and packed.
+     */
+    public CompletableFuture<SpriteAtlas> atlas(String[] resources) {
+        String[] names = resources.clone();
+        // Keyed by the whole list, since different lists can share a hash; the hash only labels the timings
+        String label = "atlas:" + Integer.toHexString(Arrays.hashCode(names));
+        return cached("atlas:" + String.join("\n", names), key ->
+                task(label + " (cache)", () -> SpriteAtlas.loadCached(names, SpriteAtlas.cacheDirectory()))
+                        .thenCompose(atlas -> atlas != null ? CompletableFuture.completedFuture(atlas) : pack(label, names)));
+    }
+
+    private CompletableFuture<SpriteAtlas> pack(String label, String[] names) {
+        List<CompletableFuture<BufferedImage>> decoding = new ArrayList<>();
+        for (String name : names) {
+            decoding.add(rawImage(name));
+        }
+        return CompletableFuture.allOf(decoding.toArray(new CompletableFuture<?>[0])).thenComposeAsync(done -> task(label + " (pack)", () -> {
+            List<BufferedImage> decoded = new ArrayList<>();
+            for (CompletableFuture<BufferedImage> f : decoding) {
+                decoded.add(f.join()); // Already complete
+            }
+            SpriteAtlas atlas = SpriteAtlas.build(names, decoded, SpriteAtlas.cacheDirectory());
+            for (String name : names) {
+                forgetRaw(name);
+            }
+            return atlas;
+        }), workers);
+    }
+
+    // The decoded image has been copied into what was built from it and needn't be kept any longer
+    private void forgetRaw(String resource) {
+        assets.remove("raw:" + resource);
+    }
+
+    /**
+     * Opens a map for streaming (see tileManager.openMapSource for the accepted names).
+     * Every call gets a source of its own that shares the one open map with the others. Closing it,
+     * which its world does when it is closed, gives up that share; the map itself is closed, and opened
+     * again by the next request, once every share is closed.
+     */
+    public synchronized CompletableFuture<ChunkSource> map(String path) {
+        SharedMap map = maps.get(path);
+        if (map == null) {
+            SharedMap opened = new SharedMap(path, task("map:" + path, () -> {
+                try {
+                    return tileManager.openMapSource(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+            // A map that failed to open isn't kept, so asking again tries again
+            opened.source.whenComplete((source, error) -> {
+                if (error != null) {
+                    forget(opened);
+                }
+            });
+            maps.put(path, opened);
+            map = opened;
+        }
+        map.users++;
+        SharedMap shared = map;
+        return map.source.thenApply(source -> new MapShare(source, shared));
+    }
+
+    private synchronized void forget(SharedMap map) {
+        maps.remove(map.path, map);
+    }
+
+    // Gives up one share of a map, closing it after the last
+    private synchronized void release(SharedMap map) {
+        if (--map.users > 0) {
+            return;
+        }
+        maps.remove(map.path, map);
+        try {
+            map.source.join().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the future registered for key, starting the loader only if this call registered it
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> cached(String key, Function<String, CompletableFuture<T>> loader) {
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        CompletableFuture<?> existing = assets.putIfAbsent(key, promise);
+        if (existing != null) {
+            return (CompletableFuture<T>) existing;
+        }
+        loader.apply(key).whenComplete((value, error) -> {
+            if (error != null) {
+                promise.completeExceptionally(error);
+            } else {
+                promise.complete(value);
+            }
+        });
+        return promise;
+    }
+
+    // Runs one loading step on the pool and records its timing
+    private <T> CompletableFuture<T> task(String key, Supplier<T> loader) {
+        long queued = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                return loader.get();
+            } finally {
+                long end = System.nanoTime();
+                synchronized (timings) {
+                    timings.add(new Timing(key, Thread.currentThread().getName(),
+                            start - queued, end - start, end - created));
+                }
+            }
+        }, workers);
+    }
+
+    public List<Timing> getTimings() {
+        synchronized (timings) {
+            return new ArrayList<>(timings);
+        }
+    }
+
+    /**
+     * Prints how long every asset loaded so far took, in completion order.
+     */
+    public void printReport() {
+        List<Timing> list = getTimings();
+        long sum = 0;
+        long last = 0;
+        System.out.println("Assets loaded: " + list.size());
+        for (Timing t : list) {
+            System.out.printf("  %-40s wait=%7.2fms load=%7.2fms done@%7.2fms  %s%n", t.key,
+                    t.waited / 1e6, t.loading / 1e6, t.finished / 1e6, t.thread);
+            sum += t.loading;
+            last = Math.max(last, t.finished);
+        }
+        System.out.printf("  total load time %.2fms, all done after %.2fms%n", sum / 1e6, last / 1e6);
+    }
+}
@@ -0,0 +1,351 @@
+package asset;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * All game sprites packed into one sheet.
+ *
+ * The first run decodes every sprite, packs them onto a single sheet and writes the sheet and its
+ * index to a cache directory; later runs read that one PNG instead of a file per sprite. The sheet is
+ * converted to the screen's compatible image format, and so is every region handed out by get(),
+ * so drawing them takes Java2D's accelerated path instead of a per-blit format conversion.
+ */
+public class SpriteAtlas {
+    // Every sprite the game uses. Tiles live next to the sources, player sprites under res/.
+    public static final String[] GAME_SPRITES = {
+            "/player/up.png", "/player/up1.png", "/player/up2.png",
+            "/player/down.png", "/player/down1.png", "/player/down2.png",
+            "/player/left.png", "/player/left1.png", "/player/left2.png", "/player/left3.png", "/player/left4.png",
+            "/player/right.png", "/player/right1.png", "/player/right2.png", "/player/right3.png", "/player/right4.png",
+            "/Tiles/grassTile.png", "/Tiles/grassTile2.png", "/Tiles/waterTile.png", "/Tiles/waterTile2.png",
+            "/Tiles/brickTile.png"
+    };
+
+    private static final int PADDING = 1;
+
+    private final BufferedImage sheet;
+    private final Map<String, int[]> regions; // name -> {x, y, width, height}
+    private final Map<String, BufferedImage> images = new HashMap<>();
+    private final boolean fromCache;
+
+    private SpriteAtlas(BufferedImage sheet, Map<String, int[]> regions, boolean fromCache) {
+        this.sheet = toCompatible(sheet);
+        this.regions = regions;
+        this.fromCache = fromCache;
+    }
+
+    /**
+     * @return The atlas of GAME_SPRITES, built or read from the cache on first use
+     */
+    public static SpriteAtlas game() {
+        return AssetManager.shared().atlas(GAME_SPRITES).join();
+    }
+
+    /**
+     * Reads the atlas of the given sprites from the cache, or builds and caches it if the cache is
+     * missing or out of date.
+     */
+    public static SpriteAtlas load(String[] resources, Path cacheDir) {
+        SpriteAtlas atlas = loadCached(resources, cacheDir);
+        if (atlas != null) {
+            return atlas;
+        }
+        List<BufferedImage> decoded = new ArrayList<>();
+        for (String resource : resources) {
+            decoded.add(decode(resource));
+        }
+        return build(resources, decoded, cacheDir);
+    }
+
+    /**
+     * @return The cached atlas of these sprites, or null if there is no up-to-date one
+     */
+    public static SpriteAtlas loadCached(String[] resources, Path cacheDir) {
+        String key = cacheKey(resources);
+        Path sheetFile = cacheDir.resolve("atlas-" + key + ".png");
+        Path indexFile = cacheDir.resolve("atlas-" + key + ".idx");
+
+        if (Files.exists(sheetFile) && Files.exists(indexFile)) {
+            try {
+                Map<String, int[]> regions = new HashMap<>();
+                Set<String> missing = new HashSet<>();
+                readIndex(indexFile, regions, missing);
+                // Sprites that failed to load when the atlas was built count as covered
+                boolean complete = true;
+                for (String resource : resources) {
+                    complete &= regions.containsKey(resource) || missing.contains(resource);
+                }
+                BufferedImage sheet = complete ? ImageIO.read(sheetFile.toFile()) : null;
+                if (sheet != null) {
+                    return new SpriteAtlas(sheet, regions, true);
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable sprite atlas cache: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Packs already decoded sprites into an atlas and writes it to the cache for the next run.
+     *
+     * @param decoded The decoded image of each resource, null for the ones that failed to load
+     */
+    public static SpriteAtlas build(String[] resources, List<BufferedImage> decoded, Path cacheDir) {
+        List<String> names = new ArrayList<>();
+        List<BufferedImage> sprites = new ArrayList<>();
+        Set<String> missing = new HashSet<>();
+        for (int i = 0; i < resources.length; i++) {
+            if (decoded.get(i) != null) {
+                names.add(resources[i]);
+                sprites.add(decoded.get(i));
+            } else {
+                missing.add(resources[i]);
+            }
+        }
+        Map<String, int[]> regions = new HashMap<>();
+        BufferedImage sheet = pack(names, sprites, regions);
+
+        String key = cacheKey(resources);
+        try {
+            Files.createDirectories(cacheDir);
+            // Both files are written under temporary names and moved into place, the index last, so a run that
+            // dies halfway or another game caching at the same time never leaves a half-written pair behind
+            Path sheetTemp = Files.createTempFile(cacheDir, "atlas-" + key, ".png.tmp");
+            Path indexTemp = Files.createTempFile(cacheDir, "atlas-" + key, ".idx.tmp");
+            try {
+                ImageIO.write(sheet, "png", sheetTemp.toFile());
+                writeIndex(indexTemp, regions, missing);
+                moveIntoPlace(sheetTemp, cacheDir.resolve("atlas-" + key + ".png"));
+                moveIntoPlace(indexTemp, cacheDir.resolve("atlas-" + key + ".idx"));
+            } finally {
+                Files.deleteIfExists(sheetTemp);
+                Files.deleteIfExists(indexTemp);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not cache sprite atlas: " + e.getMessage());
+        }
+        return new SpriteAtlas(sheet, regions, false);
+    }
+
+    /**
+     * Lays the sprites out in shelves, tallest first, on a sheet roughly as wide as it is tall.
+     */
+    static BufferedImage pack(List<String> names, List<BufferedImage> sprites, Map<String, int[]> regions) {
+        Integer[] order = new Integer[sprites.size()];
+        long area = 0;
+        int widest = 1;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            BufferedImage s = sprites.get(i);
+            area += (long) (s.getWidth() + PADDING) * (s.getHeight() + PADDING);
+            widest = Math.max(widest, s.getWidth() + PADDING);
+        }
+        Arrays.sort(order, (a, b) -> sprites.get(b).getHeight() - sprites.get(a).getHeight());
+
+        int sheetWidth = Math.max(widest, Integer.highestOneBit((int) Math.ceil(Math.sqrt(area)) * 2 - 1));
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (int i : order) {
+            BufferedImage s = sprites.get(i);
+            if (x + s.getWidth() > sheetWidth) {
+                x = 0;
+                y += shelfHeight + PADDING;
+                shelfHeight = 0;
+            }
+            regions.put(names.get(i), new int[]{x, y, s.getWidth(), s.getHeight()});
+            x += s.getWidth() + PADDING;
+            shelfHeight = Math.max(shelfHeight, s.getHeight());
+        }
+
+        BufferedImage sheet = new BufferedImage(sheetWidth, Math.max(1, y + shelfHeight), BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = sheet.createGraphics();
+        for (int i = 0; i < sprites.size(); i++) {
+            int[] r = regions.get(names.get(i));
+            g.drawImage(sprites.get(i), r[0], r[1], null);
+        }
+        g.dispose();
+        return sheet;
+    }
+
+    /**
+     * Returns a sprite as its own image in the screen's compatible format.
+     * Sprites missing from the atlas are decoded directly as a fallback.
+     *
+     * @param name Resource name, e.g. "/player/up.png"
+     * @return The sprite, or null if it can't be found at all
+     */
+    public synchronized BufferedImage get(String name) {
+        BufferedImage image = images.get(name);
+        if (image != null) {
+            return image;
+        }
+        int[] r = regions.get(name);
+        if (r != null) {
+            image = createCompatible(r[2], r[3]);
+            Graphics2D g = image.createGraphics();
+            g.drawImage(sheet, 0, 0, r[2], r[3], r[0], r[1], r[0] + r[2], r[1] + r[3], null);
+            g.dispose();
+        } else {
+            BufferedImage decoded = decode(name);
+            image = decoded == null ? null : toCompatible(decoded);
+        }
+        if (image != null) {
+            images.put(name, image);
+        }
+        return image;
+    }
+
+    /**
+     * Draws a sprite straight from the sheet, scaled to the given size.
+     */
+    public void draw(Graphics2D g2, String name, int x, int y, int width, int height) {
+        int[] r = regions.get(name);
+        if (r != null) {
+            g2.drawImage(sheet, x, y, x + width, y + height, r[0], r[1], r[0] + r[2], r[1] + r[3], null);
+        }
+    }
+
+    public BufferedImage getSheet() {
+        return sheet;
+    }
+
+    /**
+     * @return true if this atlas was read from the cache rather than built from the individual sprites
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * Copies an image into the pixel format the screen draws fastest, if it isn't in it already.
+     */
+    public static BufferedImage toCompatible(BufferedImage image) {
+        BufferedImage compatible = createCompatible(image.getWidth(), image.getHeight());
+        if (compatible.getColorModel().equals(image.getColorModel())) {
+            return image;
+        }
+        Graphics2D g = compatible.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+
+    static BufferedImage createCompatible(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        return gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    static BufferedImage decode(String resource) {
+        try (InputStream in = SpriteAtlas.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                System.err.println("Missing sprite: " + resource);
+                return null;
+            }
+            return ImageIO.read(in);
+        } catch (IOException e) {
+            System.err.println("Error loading sprite " + resource + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    static Path cacheDirectory() {
+        String dir = System.getProperty("game.cacheDir");
+        return dir != null ? Paths.get(dir) : Paths.get(System.getProperty("java.io.tmpdir"), "2dgame-cache");
+    }
+
+    // Changes whenever the sprite list or any sprite's size or modification time changes
+    private static String cacheKey(String[] resources) {
+        long hash = 1125899906842597L;
+        for (String resource : resources) {
+            hash = 31 * hash + resource.hashCode();
+            URL url = SpriteAtlas.class.getResource(resource);
+            if (url == null) {
+                continue;
+            }
+            try {
+                if ("file".equals(url.getProtocol())) {
+                    // Sprites on disk (running from the class directory): no need to open them
+                    Path file = Paths.get(url.toURI());
+                    hash = 31 * hash + Files.size(file);
+                    hash = 31 * hash + Files.getLastModifiedTime(file).toMillis();
+                } else {
+                    URLConnection connection = url.openConnection();
+                    hash = 31 * hash + connection.getContentLengthLong();
+                    hash = 31 * hash + connection.getLastModified();
+                    connection.getInputStream().close();
+                }
+            } catch (IOException | URISyntaxException e) {
+                hash = 31 * hash - 1;
+            }
+        }
+        return Long.toHexString(hash);
+    }
+
+    // One line per sprite: its name and region, or only its name if it failed to load
+    private static void readIndex(Path file, Map<String, int[]> regions, Set<String> missing) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length == 5) {
+                    regions.put(parts[0], new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3]), Integer.parseInt(parts[4])});
+                } else if (parts.length == 1 && !parts[0].isEmpty()) {
+                    missing.add(parts[0]);
+                }
+            }
+        }
+    }
+
+    private static void moveIntoPlace(Path temp, Path file) throws IOException {
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeIndex(Path file, Map<String, int[]> regions, Set<String> missing) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (Map.Entry<String, int[]> e : regions.entrySet()) {
+                int[] r = e.getValue();
+                out.write(e.getKey() + " " + r[0] + " " + r[1] + " " + r[2] + " " + r[3]);
+                out.newLine();
+            }
+            for (String name : missing) {
+                out.write(name);
+                out.newLine();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package bench;
+
+import asset.SpriteAtlas;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Startup and blit cost of the sprite atlas against loading each sprite with its own ImageIO.read.
+ */
+public class AtlasBench {
+
+    public static void main(String[] args) throws IOException {
+        run();
+    }
+
+    public static void run() throws IOException {
+        Path cache = Files.createTempDirectory("atlas-bench");
+        SpriteAtlas.load(SpriteAtlas.GAME_SPRITES, cache); // Populate the cache once
+
+        Bench.run("startup ImageIO.read per sprite", () -> {
+            long pixels = 0;
+            for (String name : SpriteAtlas.GAME_SPRITES) {
+                try (InputStream in = AtlasBench.class.getResourceAsStream(name)) {
+                    pixels += ImageIO.read(in).getWidth();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return pixels;
+        });
+        Bench.run("startup cached atlas", () -> {
+            SpriteAtlas atlas = SpriteAtlas.load(SpriteAtlas.GAME_SPRITES, cache);
+            long pixels = 0;
+            for (String name : SpriteAtlas.GAME_SPRITES) {
+                pixels += atlas.get(name).getWidth();
+            }
+            return pixels;
+        });
+
+        // Blit a 16px sprite scaled to 48px, the way tiles and the player are drawn
+        BufferedImage target = new BufferedImage(768, 576, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = target.createGraphics();
+        BufferedImage decoded;
+        try (InputStream in = AtlasBench.class.getResourceAsStream("/player/down.png")) {
+            decoded = ImageIO.read(in);
+        }
+        BufferedImage compatible = SpriteAtlas.load(SpriteAtlas.GAME_SPRITES, cache).get("/player/down.png");
+        System.out.println("decoded sprite type=" + decoded.getType() + ", atlas sprite type=" + compatible.getType());
+
+        int[] i = new int[1];
+        Bench.run("blit ImageIO sprite x100", () -> {
+            for (int n = 0; n < 100; n++) {
+                g2.drawImage(decoded, (i[0]++ * 48) % 720, (n * 48) % 528, 48, 48, null);
+            }
+            return i[0];
+        });
+        Bench.run("blit atlas sprite x100", () -> {
+            for (int n = 0; n < 100; n++) {
+                g2.drawImage(compatible, (i[0]++ * 48) % 720, (n * 48) % 528, 48, 48, null);
+            }
+            return i[0];
+        });
+        g2.dispose();
+
+        try (var files = Files.list(cache)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(p);
+            }
+        }
+        Files.deleteIfExists(cache);
+    }
+}
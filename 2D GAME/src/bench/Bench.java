@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.Locale;
+
+/**
+ * Minimal micro-benchmark harness in the spirit of JMH: timed warmup iterations followed by timed
+ * measurement iterations, results reported as mean time per operation with its spread.
+ * Every operation returns a value that is folded into a volatile sink so the JIT can't drop the work.
+ *
+ * Tuned with -Dbench.warmup=5 -Dbench.iterations=5 -Dbench.time=200 (milliseconds per iteration)
+ * and -Dbench.filter=substring to run only matching benchmarks.
+ */
+public class Bench {
+
+    public interface Op {
+        long run();
+    }
+
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 5);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long ITERATION_NANOS = Long.getLong("bench.time", 200) * 1_000_000L;
+    private static final String FILTER = System.getProperty("bench.filter");
+
+    static volatile long sink;
+
+    /**
+     * @return Mean nanoseconds per operation, or -1 if the benchmark was filtered out
+     */
+    public static double run(String name, Op op) {
+        if (FILTER != null && !name.contains(FILTER)) {
+            return -1;
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            iteration(op);
+        }
+        double[] results = new double[ITERATIONS];
+        double mean = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            results[i] = iteration(op);
+            mean += results[i];
+        }
+        mean /= ITERATIONS;
+        double variance = 0;
+        for (double r : results) {
+            variance += (r - mean) * (r - mean);
+        }
+        double error = ITERATIONS > 1 ? Math.sqrt(variance / (ITERATIONS - 1)) : 0;
+
+        System.out.println(String.format(Locale.ROOT, "%-48s %14.1f ns/op  +- %10.1f", name, mean, error));
+        return mean;
+    }
+
+    // Runs the op repeatedly for one iteration's worth of time and returns ns/op
+    private static double iteration(Op op) {
+        long ops = 0;
+        long result = 0;
+        long start = System.nanoTime();
+        long end = start + ITERATION_NANOS;
+        long now;
+        do {
+            result += op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < end);
+        sink += result;
+        return (now - start) / (double) ops;
+    }
+}
@@ -0,0 +1,22 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * Runs every micro-benchmark. Needs no display:
+ * java -Djava.awt.headless=true bench.BenchSuite
+ */
+public class BenchSuite {
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        WalkAnimationBench.run();
+        MapLoadBench.run();
+        FrameRenderBench.run();
+        EntityUpdateBench.run();
+        AtlasBench.run();
+        CollisionBench.run();
+        PathfindingBench.run();
+    }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import Entity.AnimationLibrary;
+import Entity.EntityStore;
+import Entity.SpatialHash;
+import Main.CollisionChecker;
+import tile.CollisionMap;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Cost of collision for 1k, 10k and 100k moving entities at the same density (one entity per 4 tiles
+ * of a walled field): finding overlapping pairs with the SpatialHash against checking every pair,
+ * and a whole EntityStore update with tile sweeps and contact resolution.
+ */
+public class CollisionBench {
+    private static final int[] COUNTS = {1_000, 10_000, 100_000};
+    private static final int TILE_SIZE = 48;
+    // Checking every pair is quadratic; beyond this it takes minutes per iteration
+    private static final int BRUTE_FORCE_LIMIT = 10_000;
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        BufferedImage frame = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage[] two = {frame, frame};
+        AnimationLibrary library = new AnimationLibrary();
+        int character = library.registerCharacter(new BufferedImage[][]{two, two, two, two},
+                new BufferedImage[]{frame, frame, frame, frame}, new int[]{16, 16, 5, 5});
+        Rectangle hitbox = new Rectangle(8, 16, 32, 32);
+
+        for (int n : COUNTS) {
+            int side = (int) Math.ceil(Math.sqrt(4.0 * n));
+            CollisionMap walls = (col, row) -> col <= 0 || row <= 0 || col >= side - 1 || row >= side - 1;
+            CollisionChecker checker = new CollisionChecker(walls, TILE_SIZE);
+
+            EntityStore store = new EntityStore(n, library);
+            for (int i = 0; i < n; i++) {
+                int col = 1 + (int) ((i * 2654435761L) % (side - 2));
+                int row = 1 + (int) ((i * 40503L + 7) % (side - 2));
+                store.addWanderer(col * TILE_SIZE, row * TILE_SIZE, 1 + (i & 1), i * 31 + 7, character);
+            }
+            store.setCollision(checker, hitbox);
+            store.setParallel(false);
+
+            SpatialHash grid = new SpatialHash(hitbox.width);
+            int[] sink = new int[1];
+            SpatialHash.PairVisitor count = (a, b) -> sink[0]++;
+            report(n, Bench.run("collision spatialhash pairs n=" + n, () -> {
+                grid.build(store.x, store.y, n);
+                return grid.forEachPair(hitbox.width, hitbox.height, count);
+            }));
+
+            if (n <= BRUTE_FORCE_LIMIT) {
+                report(n, Bench.run("collision bruteforce pairs n=" + n, () -> {
+                    int pairs = 0;
+                    int[] x = store.x;
+                    int[] y = store.y;
+                    for (int i = 0; i < n; i++) {
+                        for (int j = i + 1; j < n; j++) {
+                            if (Math.abs(x[j] - x[i]) < hitbox.width && Math.abs(y[j] - y[i]) < hitbox.height) {
+                                pairs++;
+                            }
+                        }
+                    }
+                    return pairs;
+                }));
+            }
+
+            report(n, Bench.run("collision store update n=" + n, () -> {
+                store.update();
+                return store.getContacts();
+            }));
+        }
+    }
+
+    private static void report(int n, double nanosPerOp) {
+        if (nanosPerOp >= 0) {
+            System.out.printf("    %.2f ns/entity%n", nanosPerOp / n);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package bench;
+
+import Entity.AnimationLibrary;
+import Entity.EntityStore;
+import Entity.WalkAnimation;
+import Entity.entity;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Update cost per entity of the object model (one entity object with a String direction and its own
+ * frame arrays and WalkAnimation per NPC) against the struct-of-arrays EntityStore, sequential and parallel.
+ * Both run the same wander and walk-animation rules.
+ */
+public class EntityUpdateBench {
+    private static final int[] COUNTS = {1_000, 10_000, 100_000, 1_000_000};
+    private static final String[] DIRECTIONS = {"up", "down", "left", "right"};
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        BufferedImage frame = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage[] two = {frame, frame};
+        BufferedImage[] nine = {frame, frame, frame, frame, frame, frame, frame, frame, frame};
+        AnimationLibrary library = new AnimationLibrary();
+        int character = library.registerCharacter(new BufferedImage[][]{two, two, nine, nine},
+                new BufferedImage[]{frame, frame, frame, frame}, new int[]{16, 16, 5, 5});
+
+        for (int n : COUNTS) {
+            // Object model: what an NPC would look like built the way Player is
+            entity[] objects = new entity[n];
+            WalkAnimation[] animations = new WalkAnimation[n];
+            int[] timers = new int[n];
+            int[] seeds = new int[n];
+            // The object model as it was before directions became ids
+            String[] facing = new String[n];
+            for (int i = 0; i < n; i++) {
+                objects[i] = new entity();
+                objects[i].x = i % 1000;
+                objects[i].y = i / 1000;
+                objects[i].speed = 1;
+                facing[i] = "down";
+                objects[i].upFrames = two.clone();
+                objects[i].downFrames = two.clone();
+                objects[i].leftFrames = nine.clone();
+                objects[i].rightFrames = nine.clone();
+                animations[i] = new WalkAnimation(library, character);
+                seeds[i] = i * 31 + 7;
+            }
+            report("objects", n, Bench.run("entities objects n=" + n, () -> {
+                for (int i = 0; i < n; i++) {
+                    entity e = objects[i];
+                    if (--timers[i] <= 0) {
+                        int r = seeds[i];
+                        r ^= r << 13;
+                        r ^= r >>> 17;
+                        r ^= r << 5;
+                        seeds[i] = r;
+                        int choice = (r >>> 8) % 6;
+                        e.moving = choice < 4;
+                        if (e.moving) {
+                            facing[i] = DIRECTIONS[choice];
+                        }
+                        timers[i] = 60 + ((r >>> 20) & 127);
+                    }
+                    if (e.moving) {
+                        switch (facing[i]) {
+                            case "up": e.y -= e.speed; break;
+                            case "down": e.y += e.speed; break;
+                            case "left": e.x -= e.speed; break;
+                            default: e.x += e.speed; break;
+                        }
+                    }
+                    animations[i].update(e.moving, facing[i]);
+                }
+                return objects[n - 1].x;
+            }));
+
+            EntityStore store = new EntityStore(n, library);
+            for (int i = 0; i < n; i++) {
+                store.addWanderer(i % 1000, i / 1000, 1, i * 31 + 7, character);
+            }
+            store.setParallel(false);
+            report("store", n, Bench.run("entities store sequential n=" + n, () -> {
+                store.update();
+                return store.x[n - 1];
+            }));
+            store.setParallel(true);
+            report("store", n, Bench.run("entities store parallel n=" + n, () -> {
+                store.update();
+                return store.x[n - 1];
+            }));
+        }
+    }
+
+    private static void report(String model, int n, double nanosPerUpdate) {
+        if (nanosPerUpdate >= 0) {
+            System.out.printf("    %-8s %.2f ns/entity%n", model, nanosPerUpdate / n);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package bench;
+
+import Entity.Player;
+import Main.GameConfig;
+import Main.gamePanel;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Cost of rendering a whole frame off-screen for several map sizes and numbers of on-screen entities,
+ * and of the tile layer while the camera scrolls. Extra entities are drawn with the player's sprite
+ * at spread out positions.
+ */
+public class FrameRenderBench {
+    private static final String[] MAPS = {"/maps/map2.txt", "generated:1024x1024", "generated:16384x16384"};
+    private static final int[] ENTITIES = {1, 100, 1000};
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        for (String map : MAPS) {
+            GameConfig config = GameConfig.fromSystemProperties();
+            config.map = map;
+            gamePanel gp = new gamePanel(config);
+            Player player = gp.getPlayer();
+            BufferedImage target = new BufferedImage(gp.screenWidth, gp.screenHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = target.createGraphics();
+
+            for (int entities : ENTITIES) {
+                Bench.run("frame " + map + " entities=" + entities, () -> {
+                    gp.getTileManager().draw(g2);
+                    int px = player.x;
+                    int py = player.y;
+                    for (int i = 0; i < entities; i++) {
+                        player.x = (i * 97) % gp.screenWidth;
+                        player.y = (i * 53) % gp.screenHeight;
+                        player.draw(g2);
+                    }
+                    player.x = px;
+                    player.y = py;
+                    return target.getRGB(0, 0);
+                });
+            }
+
+            // Camera panning diagonally a pixel per frame; tiles are only redrawn into the cache once per tile
+            int[] pan = new int[1];
+            Bench.run("frame " + map + " scrolling", () -> {
+                int offset = pan[0]++ % (8 * gp.tileSize);
+                gp.getTileManager().draw(g2, offset, offset);
+                return target.getRGB(0, 0);
+            });
+
+            g2.dispose();
+            gp.getTileManager().getWorld().close();
+        }
+    }
+}
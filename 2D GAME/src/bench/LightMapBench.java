@@ -0,0 +1,207 @@
+package bench;
+
+import tile.ChunkedWorld;
+import tile.GeneratedMapSource;
+import tile.LightMap;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.MultipleGradientPaint;
+import java.awt.RadialGradientPaint;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Frame time of darkness with a few hundred lights over a walled field, drawn the naive way (every light
+ * composited as a gradient into a full-screen darkness layer every frame) and through the LightMap:
+ * worked out from scratch every frame, nothing changing, a few lights moving, a tile changing, the
+ * view scrolling with fog of war following it, and the view running into chunks that aren't loaded yet.
+ * Runs without a window: java -Djava.awt.headless=true bench.LightMapBench [frames] [lights]
+ */
+public class LightMapBench {
+    private static final int TILE_SIZE = 48;
+    private static final int VIEW_WIDTH = 768;
+    private static final int VIEW_HEIGHT = 576;
+    private static final int WALL = 2;
+    private static final int AMBIENT = 24;
+
+    // Full-screen darkness layer of the naive version
+    private static BufferedImage darkness;
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 600;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        // One tile in ten is a wall (GeneratedMapSource scatters types 1 and 2 over 20% of the tiles)
+        ChunkedWorld world = new ChunkedWorld(new GeneratedMapSource(512, 512, 3, WALL + 1), 3,
+                new boolean[]{false, false, true});
+        world.preload(128, 128);
+        world.awaitLoads();
+
+        // The lights are spread over the view and a few screens around it
+        Random random = new Random(1);
+        int[] cols = new int[count];
+        int[] rows = new int[count];
+        int[] radii = new int[count];
+        for (int i = 0; i < count; i++) {
+            cols[i] = 96 + random.nextInt(64);
+            rows[i] = 100 + random.nextInt(56);
+            radii[i] = 3 + random.nextInt(6);
+        }
+        int cameraX = 120 * TILE_SIZE;
+        int cameraY = 122 * TILE_SIZE;
+
+        BufferedImage target = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        System.out.printf("%d lights, %d frames%n", count, frames);
+
+        report("gradient per light", run(frames, frame -> drawGradients(target, cols, rows, radii, cameraX, cameraY)));
+
+        LightMap lights = newLightMap(cols, rows, radii);
+        report("light map, recomputed", run(frames, frame -> {
+            lights.invalidate();
+            draw(lights, world, target, cameraX, cameraY);
+        }));
+        report("light map, still", run(frames, frame -> draw(lights, world, target, cameraX, cameraY)));
+
+        // A handful of torches carried around, each moving a tile every few frames
+        int[] moved = new int[count];
+        System.arraycopy(cols, 0, moved, 0, count);
+        report("light map, 8 moving", run(frames, frame -> {
+            for (int i = 0; i < 8; i++) {
+                int id = (frame * 8 + i) % count;
+                moved[id] += (frame & 8) == 0 ? 1 : -1;
+                lights.moveLight(id, moved[id], rows[id]);
+            }
+            draw(lights, world, target, cameraX, cameraY);
+        }));
+
+        // A door in the middle of the view opening and closing
+        int doorCol = cameraX / TILE_SIZE + 8;
+        int doorRow = cameraY / TILE_SIZE + 6;
+        report("light map, tile toggled", run(frames, frame -> {
+            world.setTile(doorCol, doorRow, (frame & 1) == 0 ? WALL : 0);
+            draw(lights, world, target, cameraX, cameraY);
+        }));
+
+        // Walking: the view scrolls two pixels a frame and the player's sight follows
+        lights.setFog(true);
+        report("light map, scrolling + fog", run(frames, frame -> {
+            int x = cameraX + (frame % 960) * 2;
+            lights.setViewer((x + VIEW_WIDTH / 2) / TILE_SIZE, doorRow, 10);
+            draw(lights, world, target, x, cameraY);
+        }));
+        System.out.println(lights);
+        world.close();
+
+        // Running along a long strip with only the chunks next to the view loaded, so they stream in ahead
+        // of it and out behind it, lights and all. Redoing every light on each arrival is what happens
+        // when chunk streaming simply invalidates the light map.
+        report("streaming chunks", streaming(frames, count, false));
+        report("streaming, everything redone", streaming(frames, count, true));
+    }
+
+    private static long[] streaming(int frames, int count, boolean redoAll) {
+        ChunkedWorld world = new ChunkedWorld(new GeneratedMapSource(8192, 512, 5, WALL + 1), 1,
+                new boolean[]{false, false, true});
+        int row = 128;
+        world.preload(VIEW_WIDTH / 2 / TILE_SIZE, row);
+        world.awaitLoads();
+        LightMap lights = new LightMap();
+        lights.setAmbient(AMBIENT);
+        Random random = new Random(2);
+        // As many lights per screen as in the other cases
+        for (int i = 0; i < count * 128; i++) {
+            lights.addLight(random.nextInt(8192), row - 28 + random.nextInt(56), 3 + random.nextInt(6), 200);
+        }
+        BufferedImage target = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        int[] x = {0};
+        long[] residency = {world.getResidencyVersion()};
+        long[] times = run(frames, frame -> {
+            // A tile a frame so chunks come and go often, never turning back so the warm-up doesn't
+            // load what is measured
+            x[0] += TILE_SIZE;
+            world.updateFocus((x[0] + VIEW_WIDTH / 2) / TILE_SIZE, row);
+            world.awaitLoads();
+            if (redoAll && world.getResidencyVersion() != residency[0]) {
+                residency[0] = world.getResidencyVersion();
+                lights.invalidate();
+            }
+            draw(lights, world, target, x[0], row * TILE_SIZE - VIEW_HEIGHT / 2);
+        });
+        world.close();
+        return times;
+    }
+
+    private interface Frame {
+        void draw(int frame);
+    }
+
+    private static LightMap newLightMap(int[] cols, int[] rows, int[] radii) {
+        LightMap lights = new LightMap();
+        lights.setAmbient(AMBIENT);
+        for (int i = 0; i < cols.length; i++) {
+            lights.addLight(cols[i], rows[i], radii[i], 200);
+        }
+        return lights;
+    }
+
+    private static void draw(LightMap lights, ChunkedWorld world, BufferedImage target, int cameraX, int cameraY) {
+        Graphics2D g2 = target.createGraphics();
+        lights.draw(g2, world, cameraX, cameraY, VIEW_WIDTH, VIEW_HEIGHT, TILE_SIZE);
+        g2.dispose();
+    }
+
+    // Fills a darkness layer and cuts every light in view out of it with a radial gradient, then lays it
+    // over the frame. No shadows, which would cost more again.
+    private static void drawGradients(BufferedImage target, int[] cols, int[] rows, int[] radii, int cameraX, int cameraY) {
+        if (darkness == null) {
+            darkness = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics2D g = darkness.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.setColor(new Color(0, 0, 0, 255 - AMBIENT));
+        g.fillRect(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        g.setComposite(AlphaComposite.DstOut);
+        float[] stops = {0f, 1f};
+        Color[] colors = {new Color(0, 0, 0, 200), new Color(0, 0, 0, 0)};
+        for (int i = 0; i < cols.length; i++) {
+            float x = cols[i] * TILE_SIZE + TILE_SIZE / 2f - cameraX;
+            float y = rows[i] * TILE_SIZE + TILE_SIZE / 2f - cameraY;
+            float radius = (radii[i] + 1) * TILE_SIZE;
+            if (x + radius < 0 || y + radius < 0 || x - radius > VIEW_WIDTH || y - radius > VIEW_HEIGHT) {
+                continue;
+            }
+            g.setPaint(new RadialGradientPaint(x, y, radius, stops, colors, MultipleGradientPaint.CycleMethod.NO_CYCLE));
+            g.fillRect((int) (x - radius), (int) (y - radius), (int) (2 * radius), (int) (2 * radius));
+        }
+        g.dispose();
+        Graphics2D g2 = target.createGraphics();
+        g2.drawImage(darkness, 0, 0, null);
+        g2.dispose();
+    }
+
+    private static long[] run(int frames, Frame frame) {
+        // Warm up so the JIT and the cached images settle before measuring
+        for (int i = 0; i < frames / 2; i++) {
+            frame.draw(i);
+        }
+        long[] times = new long[frames];
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            frame.draw(i);
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        double avg = Arrays.stream(times).average().orElse(0);
+        System.out.printf("%-28s avg=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n", name,
+                avg / 1e6, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,34 @@
+package bench;
+
+import Main.GameConfig;
+import Main.GameLoop;
+import Main.PacingStrategy;
+import Main.gamePanel;
+
+/**
+ * Runs the game loop headless with each pacing strategy and prints the jitter and CPU usage of the loop thread.
+ * java -Djava.awt.headless=true bench.LoopPacingBench [secondsPerStrategy]
+ */
+public class LoopPacingBench {
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+
+        for (PacingStrategy pacing : PacingStrategy.values()) {
+            GameConfig config = GameConfig.fromSystemProperties();
+            config.pacing = pacing;
+            config.printStats = false;
+
+            gamePanel gp = new gamePanel(config);
+            GameLoop loop = new GameLoop(gp, config);
+            Thread thread = new Thread(loop, "bench-loop");
+            thread.start();
+            Thread.sleep(seconds * 1000L + 100);
+            loop.stop();
+            thread.join();
+
+            System.out.printf("%-10s %s%n", pacing, loop.getStats());
+            gp.getTileManager().getWorld().close();
+        }
+    }
+}
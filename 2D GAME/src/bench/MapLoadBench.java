@@ -0,0 +1,143 @@
+package bench;
+
+import tile.BinaryMapFormat;
+import tile.BinaryMapSource;
+import tile.ChunkedWorld;
+import tile.GeneratedMapSource;
+import tile.TextMapSource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cost of opening text and binary maps of several sizes and of loading one chunk from them.
+ * Also converts a generated world of -Dbench.bigMap tiles square (default 10000, 0 to skip) to the
+ * binary format and reports its file size, open time and the heap it takes once open.
+ */
+public class MapLoadBench {
+    private static final int[] SIZES = {64, 512, 2048};
+    private static final int BIG_MAP = Integer.getInteger("bench.bigMap", 10_000);
+
+    public static void main(String[] args) throws IOException {
+        run();
+    }
+
+    public static void run() throws IOException {
+        short[] chunk = new short[ChunkedWorld.CHUNK_SIZE * ChunkedWorld.CHUNK_SIZE];
+
+        for (int size : SIZES) {
+            Path file = writeTextMap(size);
+            try {
+                Bench.run("TextMapSource.open " + size + "x" + size, () -> {
+                    try (TextMapSource source = new TextMapSource(file)) {
+                        return source.getHeight();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+
+                try (TextMapSource source = new TextMapSource(file)) {
+                    int chunks = (size + ChunkedWorld.CHUNK_MASK) / ChunkedWorld.CHUNK_SIZE;
+                    int[] next = new int[1];
+                    Bench.run("TextMapSource.loadChunk " + size + "x" + size, () -> {
+                        int i = next[0]++ % (chunks * chunks);
+                        try {
+                            source.loadChunk(i % chunks, i / chunks, ChunkedWorld.CHUNK_SIZE, chunk);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return chunk[0];
+                    });
+                }
+
+                Path binary = Files.createTempFile("bench-map", ".map");
+                try {
+                    try (TextMapSource source = new TextMapSource(file)) {
+                        BinaryMapFormat.write(source, binary);
+                    }
+                    benchBinary(size + "x" + size, binary, chunk);
+                } finally {
+                    Files.deleteIfExists(binary);
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        if (BIG_MAP > 0) {
+            Path binary = Files.createTempFile("bench-map", ".map");
+            try {
+                long start = System.nanoTime();
+                BinaryMapFormat.write(new GeneratedMapSource(BIG_MAP, BIG_MAP, 1, 3), binary);
+                System.out.printf("BinaryMapFormat.write %dx%d: %d bytes in %.0fms%n", BIG_MAP, BIG_MAP,
+                        Files.size(binary), (System.nanoTime() - start) / 1e6);
+
+                Runtime runtime = Runtime.getRuntime();
+                System.gc();
+                long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+                start = System.nanoTime();
+                try (BinaryMapSource source = new BinaryMapSource(binary)) {
+                    double openMillis = (System.nanoTime() - start) / 1e6;
+                    System.gc();
+                    long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+                    System.out.printf("BinaryMapSource.open %dx%d: %.2fms, heap %+d KB (an int[][] would be %d MB)%n",
+                            source.getWidth(), source.getHeight(), openMillis, (heapAfter - heapBefore) / 1024,
+                            (long) BIG_MAP * BIG_MAP * 4 / (1024 * 1024));
+                }
+                benchBinary(BIG_MAP + "x" + BIG_MAP, binary, chunk);
+            } finally {
+                Files.deleteIfExists(binary);
+            }
+        }
+
+        GeneratedMapSource generated = new GeneratedMapSource(100_000, 100_000, 1, 3);
+        int[] next = new int[1];
+        Bench.run("GeneratedMapSource.loadChunk", () -> {
+            int i = next[0]++;
+            generated.loadChunk(i % 3000, i / 3000 % 3000, ChunkedWorld.CHUNK_SIZE, chunk);
+            return chunk[0];
+        });
+    }
+
+    private static void benchBinary(String label, Path binary, short[] chunk) throws IOException {
+        Bench.run("BinaryMapSource.open " + label, () -> {
+            try (BinaryMapSource source = new BinaryMapSource(binary)) {
+                return source.getHeight();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        try (BinaryMapSource source = new BinaryMapSource(binary)) {
+            int chunks = (source.getWidth() + ChunkedWorld.CHUNK_MASK) / ChunkedWorld.CHUNK_SIZE;
+            int[] next = new int[1];
+            Bench.run("BinaryMapSource.loadChunk " + label, () -> {
+                // Stride through the map so reads don't all hit the same pages
+                int i = (int) ((next[0]++ * 7919L) % ((long) chunks * chunks));
+                try {
+                    source.loadChunk(i % chunks, i / chunks, ChunkedWorld.CHUNK_SIZE, chunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return chunk[0];
+            });
+        }
+    }
+
+    static Path writeTextMap(int size) throws IOException {
+        GeneratedMapSource generated = new GeneratedMapSource(size, size, 7, 3);
+        Path file = Files.createTempFile("bench-map", ".txt");
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    out.write('0' + generated.getTileAt(col, row));
+                    out.write(col == size - 1 ? '\n' : ' ');
+                }
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,133 @@
+package bench;
+
+import Main.Action;
+import Main.CollisionChecker;
+import Main.GameConfig;
+import Main.LatencyHistogram;
+import net.GameClient;
+import net.GameServer;
+import tile.ChunkedWorld;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Puts a GameServer under load from many clients over loopback and prints the server's tick time
+ * and the bandwidth each client costs, first with delta-compressed snapshots and then with full ones.
+ * The clients walk around at random and predict their own movement like the game does.
+ * The server and the clients take turns on one thread at the server's tick rate, so the tick times
+ * are the server's alone.
+ *
+ * java -Djava.awt.headless=true -Dbench.clients=200 -Dbench.seconds=10 bench.NetLoadTest
+ */
+public class NetLoadTest {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int clients = Integer.getInteger("bench.clients", 200);
+        int seconds = Integer.getInteger("bench.seconds", 10);
+        GameConfig config = new GameConfig();
+        config.map = System.getProperty("bench.netMap", "generated:192x192");
+        config.npcs = Integer.getInteger("bench.npcs", 100);
+        config.printStats = false;
+
+        // Every client predicts against the same tiles, so they can share one copy
+        ChunkedWorld world = GameServer.openWorld(config.map);
+        CollisionChecker tiles = new CollisionChecker(world, GameServer.TILE_SIZE);
+        System.out.println(clients + " clients, " + config.npcs + " NPCs on " + config.map + ", " + seconds + "s per run");
+        run("delta", config, clients, seconds, tiles, true);
+        run("full", config, clients, seconds, tiles, false);
+        world.close();
+    }
+
+    private static void run(String name, GameConfig config, int count, int seconds, CollisionChecker tiles,
+                            boolean delta) throws IOException, InterruptedException {
+        GameServer server = new GameServer(config);
+        server.setDeltaCompression(delta);
+        int port = server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        // Clients connect from a thread of their own, since connecting waits on the server ticking
+        GameClient[] clients = new GameClient[count];
+        IOException[] failure = new IOException[1];
+        Thread connector = new Thread(() -> {
+            try {
+                for (int i = 0; i < count; i++) {
+                    clients[i] = GameClient.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 10_000);
+                    clients[i].setCollision(tiles);
+                }
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        }, "net-connect");
+        connector.start();
+        while (connector.isAlive()) {
+            server.tick();
+            LockSupport.parkNanos(1_000_000_000L / config.ups);
+        }
+        connector.join();
+        if (failure[0] != null) {
+            server.close();
+            throw failure[0];
+        }
+
+        // Wander: keep a direction (or stand still) for a random while, then pick another
+        Random random = new Random(config.seed);
+        int[] actions = new int[count];
+        int[] until = new int[count];
+        int[] moves = {Action.UP.ordinal(), Action.DOWN.ordinal(), Action.LEFT.ordinal(), Action.RIGHT.ordinal()};
+
+        long bytesOut = server.getBytesOut();
+        long bytesIn = server.getBytesIn();
+        long full = server.getFullSnapshots();
+        long deltas = server.getDeltaSnapshots();
+        long skipped = server.getSkippedSnapshots();
+        long snapshotBytes = server.getSnapshotBytes();
+        long corrections = 0;
+        for (GameClient client : clients) {
+            corrections -= client.getCorrections();
+        }
+
+        LatencyHistogram tickTimes = new LatencyHistogram();
+        int ticks = seconds * config.ups;
+        long interval = 1_000_000_000L / config.ups;
+        long next = System.nanoTime();
+        for (int tick = 0; tick < ticks; tick++) {
+            long start = System.nanoTime();
+            server.tick();
+            tickTimes.record(System.nanoTime() - start);
+            for (int i = 0; i < count; i++) {
+                if (tick >= until[i]) {
+                    int pick = random.nextInt(5);
+                    actions[i] = pick < 4 ? 1 << moves[pick] : 0;
+                    until[i] = tick + 30 + random.nextInt(90);
+                }
+                clients[i].tick(actions[i]);
+            }
+            next += interval;
+            long remaining;
+            while ((remaining = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+
+        long dropped = 0;
+        for (GameClient client : clients) {
+            corrections += client.getCorrections();
+            dropped += client.getDroppedSnapshots();
+            client.close();
+        }
+        full = server.getFullSnapshots() - full;
+        deltas = server.getDeltaSnapshots() - deltas;
+        double perClientSecond = (double) count * seconds;
+        System.out.printf("%-5s server tick p50=%.3fms p99=%.3fms max=%.3fms | per client down=%.1fKB/s up=%.1fKB/s"
+                        + " | snapshot avg=%.0fB full=%d delta=%d skipped=%d | corrections=%d dropped=%d%n",
+                name, tickTimes.getPercentile(50) / 1e6, tickTimes.getPercentile(99) / 1e6, tickTimes.getMax() / 1e6,
+                (server.getBytesOut() - bytesOut) / 1024.0 / perClientSecond,
+                (server.getBytesIn() - bytesIn) / 1024.0 / perClientSecond,
+                (server.getSnapshotBytes() - snapshotBytes) / (double) Math.max(1, full + deltas),
+                full, deltas, server.getSkippedSnapshots() - skipped, corrections, dropped);
+        server.close();
+    }
+}
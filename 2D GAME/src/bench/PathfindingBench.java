@@ -0,0 +1,135 @@
+package bench;
+
+import ai.FlowField;
+import ai.Navigation;
+import ai.Path;
+import ai.PathBatch;
+import ai.Pathfinder;
+import tile.ChunkedWorld;
+import tile.GeneratedMapSource;
+
+import java.util.Random;
+
+/**
+ * Pathfinding throughput on a large generated world (20% of tiles solid) with 17x17 chunks resident:
+ * single A* queries of up to 100 tiles, the same queries as parallel batches, and what it costs
+ * 500 agents to chase one target with a query each against one shared flow field.
+ * Also times building a flow field and repairing it after a single tile edit.
+ *
+ * Map size with -Dbench.pathMap=8192 (tiles a side).
+ */
+public class PathfindingBench {
+    private static final int MAP = Integer.getInteger("bench.pathMap", 8192);
+    private static final int RADIUS = 8;
+    private static final int QUERIES = 1024;
+    private static final int AGENTS = 500;
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        ChunkedWorld world = new ChunkedWorld(new GeneratedMapSource(MAP, MAP, 7, 3), RADIUS,
+                new boolean[]{false, true, true});
+        int center = MAP / 2;
+        world.preload(center, center);
+        // The resident window, minus a margin so queries stay inside it
+        int first = ((center >> ChunkedWorld.CHUNK_SHIFT) - RADIUS) * ChunkedWorld.CHUNK_SIZE + 64;
+        int span = (2 * RADIUS + 1) * ChunkedWorld.CHUNK_SIZE - 128;
+
+        Random random = new Random(3);
+        int[] queries = new int[QUERIES * 4];
+        for (int i = 0; i < QUERIES; i++) {
+            int col;
+            int row;
+            int goalCol;
+            int goalRow;
+            do {
+                col = first + random.nextInt(span);
+                row = first + random.nextInt(span);
+                goalCol = col + random.nextInt(201) - 100;
+                goalRow = row + random.nextInt(201) - 100;
+            } while (world.isSolid(col, row) || world.isSolid(goalCol, goalRow));
+            queries[i * 4] = col;
+            queries[i * 4 + 1] = row;
+            queries[i * 4 + 2] = goalCol;
+            queries[i * 4 + 3] = goalRow;
+        }
+
+        Pathfinder pathfinder = new Pathfinder(world, 256);
+        Path path = new Path();
+        int[] next = new int[1];
+        perQuery(1, Bench.run("path astar single query", () -> {
+            int i = (next[0]++ & (QUERIES - 1)) * 4;
+            pathfinder.findPath(queries[i], queries[i + 1], queries[i + 2], queries[i + 3], path);
+            return path.length() + pathfinder.getExpanded();
+        }));
+
+        Navigation navigation = new Navigation(world, 256, 128, 1);
+        PathBatch batch = new PathBatch();
+        for (int i = 0; i < QUERIES; i++) {
+            batch.add(queries[i * 4], queries[i * 4 + 1], queries[i * 4 + 2], queries[i * 4 + 3]);
+        }
+        navigation.setParallel(false);
+        perQuery(QUERIES, Bench.run("path astar batch sequential n=" + QUERIES, () -> {
+            navigation.findPaths(batch);
+            return batch.getPath(0).length();
+        }));
+        navigation.setParallel(true);
+        perQuery(QUERIES, Bench.run("path astar batch parallel n=" + QUERIES, () -> {
+            navigation.findPaths(batch);
+            return batch.getPath(0).length();
+        }));
+
+        // Many agents around one target: a query per agent against a single field they all read
+        int targetCol = queries[0];
+        int targetRow = queries[1];
+        PathBatch chase = new PathBatch();
+        int[] agentCol = new int[AGENTS];
+        int[] agentRow = new int[AGENTS];
+        while (chase.size() < AGENTS) {
+            int col = targetCol + random.nextInt(97) - 48;
+            int row = targetRow + random.nextInt(97) - 48;
+            if (!world.isSolid(col, row)) {
+                agentCol[chase.size()] = col;
+                agentRow[chase.size()] = row;
+                chase.add(col, row, targetCol, targetRow);
+            }
+        }
+        Bench.run("path chase astar agents=" + AGENTS, () -> {
+            navigation.findPaths(chase);
+            return chase.getPath(0).length();
+        });
+        FlowField field = new FlowField(world, 128);
+        Bench.run("path chase flowfield agents=" + AGENTS, () -> {
+            field.build(targetCol, targetRow);
+            long steps = 0;
+            for (int i = 0; i < AGENTS; i++) {
+                steps += field.getDirection(agentCol[i], agentRow[i]);
+            }
+            return steps;
+        });
+
+        // One wall tile toggled near the target every op, the field repaired in place each time
+        FlowField repaired = navigation.getFlowField(targetCol, targetRow);
+        int wallCol = targetCol + 3;
+        int wallRow = targetRow;
+        int floor = world.getTile(wallCol, wallRow) == 0 ? 0 : 2;
+        boolean[] solid = {floor != 0};
+        Bench.run("path flowfield repair one tile", () -> {
+            solid[0] = !solid[0];
+            world.setTile(wallCol, wallRow, solid[0] ? 2 : 0);
+            return repaired.getDistance(targetCol + 6, targetRow);
+        });
+        world.setTile(wallCol, wallRow, floor);
+        navigation.close();
+        world.close();
+    }
+
+    private static void perQuery(int queries, double nanosPerOp) {
+        if (nanosPerOp >= 0) {
+            double nanos = nanosPerOp / queries;
+            System.out.printf("    %.1f us/query, %.0f queries/s%n", nanos / 1000, 1e9 / nanos);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package bench;
+
+import Main.gamePanel;
+import tile.ChunkSource;
+import tile.tileManager;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Compares the frame time of the tile layer drawn tile by tile against the cached background layer,
+ * then a world made only of animated water drawn with the tile clock stopped and running.
+ * Runs without a window: java -Djava.awt.headless=true bench.TileLayerBench [frames]
+ */
+public class TileLayerBench {
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+
+        gamePanel gp = new gamePanel();
+        tileManager tileM = gp.getTileManager();
+        BufferedImage target = new BufferedImage(gp.screenWidth, gp.screenHeight, BufferedImage.TYPE_INT_RGB);
+
+        tileM.useLayerCache = false;
+        report("per-tile drawImage", run(tileM, target, frames));
+        tileM.useLayerCache = true;
+        report("cached layer", run(tileM, target, frames, false));
+
+        tileM.loadMap(new WaterSource());
+        report("water, clock stopped", run(tileM, target, frames, false));
+        report("water, clock running", run(tileM, target, frames, true));
+    }
+
+    private static long[] run(tileManager tileM, BufferedImage target, int frames) {
+        return run(tileM, target, frames, false);
+    }
+
+    /**
+     * @param animate Advance the tile clock one tick per frame, as the game does
+     */
+    private static long[] run(tileManager tileM, BufferedImage target, int frames, boolean animate) {
+        long[] times = new long[frames];
+        Graphics2D g2 = target.createGraphics();
+
+        // Warm up so the JIT and the image caches settle before measuring
+        for (int i = 0; i < frames / 2; i++) {
+            if (animate) {
+                tileM.update(0, 0);
+            }
+            tileM.draw(g2);
+        }
+        for (int i = 0; i < frames; i++) {
+            if (animate) {
+                tileM.update(0, 0);
+            }
+            long start = System.nanoTime();
+            tileM.draw(g2);
+            times[i] = System.nanoTime() - start;
+        }
+        g2.dispose();
+        return times;
+    }
+
+    // 64x64 tiles of water (tile 1)
+    private static class WaterSource implements ChunkSource {
+        @Override
+        public int getWidth() {
+            return 64;
+        }
+
+        @Override
+        public int getHeight() {
+            return 64;
+        }
+
+        @Override
+        public void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) {
+            Arrays.fill(dest, 0, chunkSize * chunkSize, (short) 1);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void report(String name, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        double avg = Arrays.stream(times).average().orElse(0);
+        System.out.printf("%-20s avg=%.3fms p50=%.3fms p99=%.3fms max=%.3fms%n", name,
+                avg / 1e6, sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import Entity.AnimationLibrary;
+import Entity.WalkAnimation;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Cost of advancing and sampling a WalkAnimation, the per-entity work done every tick and frame.
+ */
+public class WalkAnimationBench {
+    private static final String[] DIRECTIONS = {"up", "down", "left", "right"};
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        BufferedImage frame = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        BufferedImage[] two = {frame, frame};
+        BufferedImage[] nine = {frame, frame, frame, frame, frame, frame, frame, frame, frame};
+        AnimationLibrary library = new AnimationLibrary();
+        int character = library.registerCharacter(new BufferedImage[][]{two, two, nine, nine},
+                new BufferedImage[]{frame, frame, frame, frame}, new int[]{16, 16, 5, 5});
+        WalkAnimation animation = new WalkAnimation(library, character);
+
+        int[] tick = new int[1];
+        Bench.run("WalkAnimation.update(walking)", () -> {
+            animation.update(true, DIRECTIONS[(tick[0]++ >> 6) & 3]);
+            return tick[0];
+        });
+        Bench.run("WalkAnimation.update(idle)", () -> {
+            animation.update(false, "down");
+            return 1;
+        });
+        Bench.run("WalkAnimation.update(walking, id)", () -> {
+            animation.update(true, (tick[0]++ >> 6) & 3);
+            return tick[0];
+        });
+        Bench.run("WalkAnimation.getCurrentFrame", () -> {
+            animation.update(true, DIRECTIONS[(tick[0]++ >> 6) & 3]);
+            return animation.getCurrentFrame().getWidth();
+        });
+    }
+}
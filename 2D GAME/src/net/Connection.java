@@ -0,0 +1,133 @@
+package net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking socket with its frame buffers. Reads and writes never wait: read() takes whatever
+ * has arrived and hands out the complete frames, and flush() writes as much of the queue as the
+ * socket accepts, leaving the rest for the next call.
+ */
+class Connection {
+    interface FrameHandler {
+        void frame(byte type, ByteBuffer payload) throws IOException;
+    }
+
+    final SocketChannel channel;
+    // Grows up to the largest frame allowed when a bigger frame arrives
+    private ByteBuffer in;
+    // Always in write mode; flush() flips it only while writing
+    private final ByteBuffer out;
+    private int frameStart = -1;
+
+    long bytesIn;
+    long bytesOut;
+
+    Connection(SocketChannel channel, int inCapacity, int outCapacity) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        in = ByteBuffer.allocate(inCapacity);
+        out = ByteBuffer.allocate(outCapacity);
+    }
+
+    /**
+     * Reads what has arrived and passes every complete frame to the handler.
+     *
+     * @throws EOFException If the other side closed the connection
+     */
+    void read(FrameHandler handler) throws IOException {
+        int n;
+        while ((n = channel.read(in)) > 0) {
+            bytesIn += n;
+        }
+        in.flip();
+        try {
+            while (in.remaining() >= Protocol.FRAME_HEADER) {
+                int length = in.getInt(in.position());
+                if (length < 1 || length > Protocol.MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    if (4 + length > in.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                        bigger.put(in);
+                        in = bigger;
+                        in.flip();
+                    }
+                    break;
+                }
+                int end = in.position() + 4 + length;
+                byte type = in.get(in.position() + 4);
+                ByteBuffer payload = in.duplicate();
+                payload.position(in.position() + Protocol.FRAME_HEADER).limit(end);
+                try {
+                    handler.frame(type, payload);
+                } catch (RuntimeException e) {
+                    // A frame cut short or holding nonsense: treat it like any other broken connection
+                    throw new IOException("Bad frame of type " + type + ": " + e, e);
+                }
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+        if (n < 0) {
+            throw new EOFException("Connection closed");
+        }
+    }
+
+    /**
+     * Starts a frame in the queue and returns the buffer to write its payload to, then call endFrame().
+     *
+     * @return null if the queue hasn't room for payloadLimit more bytes
+     */
+    ByteBuffer beginFrame(byte type, int payloadLimit) {
+        if (out.remaining() < Protocol.FRAME_HEADER + payloadLimit) {
+            return null;
+        }
+        frameStart = out.position();
+        out.putInt(0).put(type);
+        return out;
+    }
+
+    void endFrame() {
+        out.putInt(frameStart, out.position() - frameStart - 4);
+        frameStart = -1;
+    }
+
+    /**
+     * @return Bytes queued that the socket hasn't taken yet
+     */
+    int pending() {
+        return out.position();
+    }
+
+    /**
+     * Writes as much of the queue as the socket takes right now.
+     */
+    void flush() throws IOException {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        try {
+            int n;
+            while (out.hasRemaining() && (n = channel.write(out)) > 0) {
+                bytesOut += n;
+            }
+        } finally {
+            out.compact();
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+}
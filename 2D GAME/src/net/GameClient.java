@@ -0,0 +1,304 @@
+package net;
+
+import Entity.Direction;
+import Entity.entity;
+import Main.CollisionChecker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Connection to a GameServer, driven from the game thread once per tick.
+ *
+ * Every tick the client sends its input and moves its own player right away with the same rules the
+ * server uses (PlayerMotion), so the player answers the keys without waiting a round trip. Each
+ * snapshot says which input the server applied last; the client then puts its player where the
+ * server has it and replays the inputs sent since, which only changes anything when the prediction
+ * was wrong (another entity was in the way). Everything else is shown as the server last sent it.
+ */
+public class GameClient implements Closeable {
+    private final Connection connection;
+
+    private int playerId = -1;
+    private int tileSize;
+    private int ups;
+    private String map;
+    private CollisionChecker tiles;
+
+    // Snapshots rebuilt so far by tick % HISTORY, the newest one is latest
+    private final WorldState[] received = new WorldState[GameServer.HISTORY];
+    private WorldState latest;
+    // Newest snapshot decoded, sent back with every input; -1 asks for a full one
+    private int ack = -1;
+
+    // The player as predicted, and the inputs the server hasn't applied yet, oldest first
+    private final entity predicted = new entity();
+    private int[] pendingSeq = new int[64];
+    private byte[] pendingActions = new byte[64];
+    private int pendingCount;
+    private int nextSeq = 1;
+
+    private long snapshots;
+    private long fullSnapshots;
+    private long droppedSnapshots;
+    private long corrections;
+
+    private GameClient(SocketChannel channel) throws IOException {
+        connection = new Connection(channel, 64 * 1024, 16 * 1024);
+        predicted.speed = PlayerMotion.SPEED;
+        predicted.direction = Direction.DOWN;
+    }
+
+    /**
+     * Connects to a server and waits until it has said which player is ours and sent the first snapshot.
+     */
+    public static GameClient connect(InetSocketAddress address, long timeoutMillis) throws IOException {
+        GameClient client = new GameClient(SocketChannel.open(address));
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+        try {
+            while (client.latest == null || !client.latest.isPresent(client.playerId)) {
+                client.receive();
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("No answer from " + address);
+                }
+                LockSupport.parkNanos(1_000_000);
+            }
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        return client;
+    }
+
+    /**
+     * Reads a server address written as host:port, or just host for the default port.
+     */
+    public static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            return new InetSocketAddress(address, Protocol.DEFAULT_PORT);
+        }
+        try {
+            return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad port in server address " + address);
+        }
+    }
+
+    /**
+     * Gives the client the solid tiles to predict its player's movement against, null to walk through everything.
+     */
+    public void setCollision(CollisionChecker tiles) {
+        this.tiles = tiles;
+    }
+
+    /**
+     * Runs one tick: takes in what the server sent, then sends this tick's input and applies it to our player.
+     *
+     * @param actions Action mask (see KeyHandler.getActions)
+     */
+    public void tick(int actions) throws IOException {
+        receive();
+
+        int seq = nextSeq++;
+        if (pendingCount == pendingSeq.length) {
+            pendingSeq = Arrays.copyOf(pendingSeq, pendingCount * 2);
+            pendingActions = Arrays.copyOf(pendingActions, pendingCount * 2);
+        }
+        pendingSeq[pendingCount] = seq;
+        pendingActions[pendingCount] = (byte) actions;
+        pendingCount++;
+        PlayerMotion.step(predicted, actions, tiles);
+
+        ByteBuffer out = connection.beginFrame(Protocol.INPUT, Protocol.INPUT_SIZE);
+        if (out != null) {
+            out.putInt(seq).put((byte) actions).putInt(ack);
+            connection.endFrame();
+        }
+        connection.flush();
+    }
+
+    private void receive() throws IOException {
+        connection.read(this::frame);
+    }
+
+    private void frame(byte type, ByteBuffer in) throws IOException {
+        if (type == Protocol.WELCOME) {
+            playerId = in.getInt();
+            tileSize = in.getInt();
+            ups = in.getInt();
+            map = Protocol.getString(in);
+            predicted.solidArea = PlayerMotion.hitbox(tileSize);
+        } else if (type == Protocol.SNAPSHOT) {
+            snapshot(in);
+        } else {
+            throw new IOException("Unexpected message " + type);
+        }
+    }
+
+    private void snapshot(ByteBuffer in) throws IOException {
+        int tick = in.getInt();
+        int base = in.getInt();
+        int lastSeq = in.getInt();
+        int count = Protocol.getVarint(in);
+        if (tick < 0 || base >= tick || count < 0 || count > Protocol.MAX_ENTITIES) {
+            throw new IOException("Bad snapshot header: tick " + tick + " base " + base + " entities " + count);
+        }
+
+        int slot = tick % GameServer.HISTORY;
+        WorldState state = received[slot];
+        if (state == null) {
+            state = received[slot] = new WorldState();
+        }
+        if (base >= 0) {
+            WorldState old = received[base % GameServer.HISTORY];
+            if (old == null || old.tick != base) {
+                // Can't happen unless snapshots were lost; ask for a full one
+                droppedSnapshots++;
+                ack = -1;
+                return;
+            }
+            state.copyFrom(old);
+        } else {
+            state.clear();
+            fullSnapshots++;
+        }
+        state.ensure(count);
+        state.tick = tick;
+
+        int changes = in.getInt();
+        int id = -1;
+        for (int i = 0; i < changes; i++) {
+            id += Protocol.getVarint(in) + 1;
+            if (id < 0 || id >= count) {
+                throw new IOException("Entity " + id + " out of range in snapshot of " + count);
+            }
+            int mask = in.get();
+            if ((mask & Protocol.REMOVED) != 0) {
+                state.present[id] = false;
+                continue;
+            }
+            if (!state.present[id]) {
+                state.x[id] = 0;
+                state.y[id] = 0;
+                state.present[id] = true;
+            }
+            if ((mask & Protocol.X) != 0) {
+                state.x[id] += Protocol.getSigned(in);
+            }
+            if ((mask & Protocol.Y) != 0) {
+                state.y[id] += Protocol.getSigned(in);
+            }
+            if ((mask & Protocol.FLAGS) != 0) {
+                state.flags[id] = in.get();
+            }
+        }
+        latest = state;
+        ack = tick;
+        snapshots++;
+        reconcile(lastSeq);
+    }
+
+    // Starts our player from where the server has it and replays the inputs it hasn't applied yet
+    private void reconcile(int lastSeq) {
+        if (!latest.isPresent(playerId)) {
+            return;
+        }
+        int oldX = predicted.x;
+        int oldY = predicted.y;
+        predicted.x = latest.x[playerId];
+        predicted.y = latest.y[playerId];
+        predicted.direction = latest.flags[playerId] & Protocol.DIRECTION_MASK;
+        predicted.moving = (latest.flags[playerId] & Protocol.MOVING) != 0;
+
+        int applied = 0;
+        while (applied < pendingCount && pendingSeq[applied] <= lastSeq) {
+            applied++;
+        }
+        pendingCount -= applied;
+        System.arraycopy(pendingSeq, applied, pendingSeq, 0, pendingCount);
+        System.arraycopy(pendingActions, applied, pendingActions, 0, pendingCount);
+        for (int i = 0; i < pendingCount; i++) {
+            PlayerMotion.step(predicted, pendingActions[i], tiles);
+        }
+        if (snapshots > 1 && (predicted.x != oldX || predicted.y != oldY)) {
+            corrections++;
+        }
+    }
+
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getUps() {
+        return ups;
+    }
+
+    public String getMap() {
+        return map;
+    }
+
+    // Our player as predicted
+    public int getX() {
+        return predicted.x;
+    }
+
+    public int getY() {
+        return predicted.y;
+    }
+
+    public int getDirection() {
+        return predicted.direction;
+    }
+
+    public boolean isMoving() {
+        return predicted.moving;
+    }
+
+    /**
+     * @return Every entity as of the newest snapshot, our own player included as the server last had it
+     */
+    public WorldState getState() {
+        return latest;
+    }
+
+    public long getSnapshots() {
+        return snapshots;
+    }
+
+    public long getFullSnapshots() {
+        return fullSnapshots;
+    }
+
+    // Snapshots thrown away because the one they were a delta against was missing
+    public long getDroppedSnapshots() {
+        return droppedSnapshots;
+    }
+
+    // Times a snapshot moved our player away from where it had been predicted
+    public long getCorrections() {
+        return corrections;
+    }
+
+    public long getBytesIn() {
+        return connection.bytesIn;
+    }
+
+    public long getBytesOut() {
+        return connection.bytesOut;
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
@@ -0,0 +1,596 @@
+package net;
+
+import Entity.Direction;
+import Entity.EntityStore;
+import Entity.AnimationLibrary;
+import Entity.entity;
+import Main.CollisionChecker;
+import Main.GameConfig;
+import Main.LatencyHistogram;
+import tile.ChunkedWorld;
+import tile.TileRegistry;
+import tile.tileManager;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless authoritative game server.
+ *
+ * The server holds the only real copy of the game: every tick it moves each connected player by the
+ * input that player sent (PlayerMotion, the single-player rules), then runs the same EntityStore update
+ * as the single-player game for the NPCs and contacts. Clients only send input. All sockets are
+ * non-blocking and served from one Selector at the start of each tick, on the one server thread, so
+ * a slow or stuck client never holds up a tick.
+ *
+ * After each tick every client is sent the entities near its player, encoded as the changes since the
+ * newest snapshot it has acknowledged, or in full when that one is older than the history kept.
+ * A client whose socket is backed up skips snapshots instead of queueing them; the next one it gets is
+ * a delta against whatever it acknowledged last, so nothing is lost.
+ *
+ * java -Dgame.map=generated:256x256 -Dgame.npcs=100 net.GameServer [port]
+ */
+public class GameServer implements Runnable, Closeable {
+    // World pixels per tile, the same as gamePanel.tileSize so positions mean the same on both sides
+    public static final int TILE_SIZE = 48;
+    // Snapshots kept to encode deltas against
+    static final int HISTORY = 32;
+    // Chunks kept in memory around the middle of the map in each direction; the rest of a big map is solid
+    private static final int MAX_RADIUS = 8;
+    // Where slots of players who left are kept, far outside any map
+    private static final int PARKED = -1 << 24;
+    // Clients are sent the entities within this distance of their player: the screen plus a margin of 4 tiles
+    private static final int VIEW_RANGE_X = 8 * TILE_SIZE + 4 * TILE_SIZE;
+    private static final int VIEW_RANGE_Y = 6 * TILE_SIZE + 4 * TILE_SIZE;
+    // A client with more than this still queued is not sent a snapshot this tick
+    private static final int MAX_PENDING = 32 * 1024;
+    // A client more than this many inputs ahead has two applied per tick until it is caught up
+    private static final int INPUT_LAG = 4;
+
+    private final GameConfig config;
+    private final ChunkedWorld world;
+    private final CollisionChecker tiles;
+    private final Rectangle hitbox = PlayerMotion.hitbox(TILE_SIZE);
+    private final EntityStore entities;
+    private final int character;
+    private final Random random;
+
+    private final Selector selector;
+    private ServerSocketChannel acceptor;
+    private final List<Client> clients = new ArrayList<>();
+    private final List<Client> leaving = new ArrayList<>();
+    // Slots of players who left, reused by the next ones to join
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private boolean[] parked = new boolean[64];
+
+    private final WorldState[] history = new WorldState[HISTORY];
+    private int tick;
+    private volatile boolean running = true;
+    private boolean deltaCompression = true;
+
+    // Statistics, written by the server thread
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private final LatencyHistogram windowTimes = new LatencyHistogram();
+    private long bytesIn;
+    private long bytesOut;
+    private long fullSnapshots;
+    private long deltaSnapshots;
+    private long skippedSnapshots;
+    private long snapshotBytes;
+    private long joins;
+
+    /**
+     * Loads config.map and spawns config.npcs wandering NPCs, placed from config.seed.
+     */
+    public GameServer(GameConfig config) throws IOException {
+        this.config = config;
+        this.world = openWorld(config.map);
+        this.tiles = new CollisionChecker(world, TILE_SIZE);
+        this.random = new Random(config.seed);
+
+        // Nobody looks at the server's entities, but the store animates them, so they get a character with no images
+        AnimationLibrary library = new AnimationLibrary();
+        int[] delays = {16, 16, 5, 5};
+        BufferedImage[][] walk = new BufferedImage[Direction.COUNT][1];
+        character = library.registerCharacter(walk, new BufferedImage[Direction.COUNT], delays);
+        entities = new EntityStore(64, library);
+        entities.setCollision(tiles, hitbox);
+        for (int i = 0; i < config.npcs; i++) {
+            entity spot = new entity();
+            spawn(spot);
+            entities.addWanderer(spot.x, spot.y, 1 + random.nextInt(2), random.nextInt(), character);
+        }
+        // Builds the contact grid that spawning players are checked against
+        entities.update();
+
+        for (int i = 0; i < HISTORY; i++) {
+            history[i] = new WorldState();
+        }
+        selector = Selector.open();
+    }
+
+    /**
+     * Opens a map the way the server holds it: everything within MAX_RADIUS chunks of its middle, loaded up front.
+     * Clients that predict their own movement use the same to agree on which tiles are solid.
+     */
+    public static ChunkedWorld openWorld(String map) throws IOException {
+        TileRegistry registry = new TileRegistry();
+        tileManager.registerDefaultTiles(registry);
+        tile.ChunkSource source = tileManager.openMapSource(map);
+        int half = (Math.max(source.getWidth(), source.getHeight()) + 1) / 2;
+        int radius = Math.min(MAX_RADIUS, (half >> ChunkedWorld.CHUNK_SHIFT) + 1);
+        ChunkedWorld world = new ChunkedWorld(source, radius, registry.getSolidFlags());
+        world.preload(source.getWidth() / 2, source.getHeight() / 2);
+        world.awaitLoads();
+        return world;
+    }
+
+    /**
+     * Starts accepting connections.
+     *
+     * @return The port the server listens on, useful when port 0 picked a free one
+     */
+    public int bind(InetSocketAddress address) throws IOException {
+        acceptor = ServerSocketChannel.open();
+        acceptor.bind(address);
+        acceptor.configureBlocking(false);
+        acceptor.register(selector, SelectionKey.OP_ACCEPT);
+        return acceptor.socket().getLocalPort();
+    }
+
+    /**
+     * Runs ticks at config.ups until stop() is called.
+     */
+    @Override
+    public void run() {
+        long interval = 1_000_000_000L / config.ups;
+        long next = System.nanoTime();
+        long nextReport = next + 1_000_000_000L;
+        long reportBytes = 0;
+        while (running) {
+            try {
+                tick();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            long now = System.nanoTime();
+            if (config.printStats && now - nextReport >= 0) {
+                System.out.printf("server tick=%d clients=%d tick avg=%.3fms p99=%.3fms max=%.3fms out=%.1fKB/s per client%n",
+                        tick, clients.size(), windowTimes.getMean() / 1e6, windowTimes.getPercentile(99) / 1e6,
+                        windowTimes.getMax() / 1e6,
+                        (bytesOut - reportBytes) / 1024.0 / Math.max(1, clients.size()));
+                windowTimes.reset();
+                reportBytes = bytesOut;
+                nextReport = now + 1_000_000_000L;
+            }
+            next += interval;
+            if (now - next > 5 * interval) {
+                next = now; // Too far behind to catch up, drop the backlog
+            }
+            long remaining;
+            while (running && (remaining = next - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Runs one tick: reads input, moves everyone and sends every client its snapshot.
+     */
+    public void tick() throws IOException {
+        long start = System.nanoTime();
+        poll();
+        simulate();
+        record();
+        send();
+        tick++;
+        long took = System.nanoTime() - start;
+        tickTimes.record(took);
+        windowTimes.record(took);
+    }
+
+    private void poll() throws IOException {
+        selector.selectNow();
+        for (SelectionKey key : selector.selectedKeys()) {
+            if (!key.isValid()) {
+                continue;
+            }
+            if (key.isAcceptable()) {
+                SocketChannel channel;
+                while ((channel = acceptor.accept()) != null) {
+                    join(channel);
+                }
+            } else if (key.isReadable()) {
+                Client client = (Client) key.attachment();
+                try {
+                    client.connection.read(client);
+                } catch (IOException e) {
+                    leaving.add(client);
+                }
+            }
+        }
+        selector.selectedKeys().clear();
+        dropLeaving();
+    }
+
+    private void join(SocketChannel channel) throws IOException {
+        Client client = new Client(new Connection(channel, 4096, 128 * 1024));
+        entity body = client.body;
+        body.speed = PlayerMotion.SPEED;
+        body.direction = Direction.DOWN;
+        body.solidArea = hitbox;
+        spawn(body);
+        if (freeCount > 0) {
+            client.id = freeSlots[--freeCount];
+            entities.set(client.id, body);
+        } else {
+            client.id = entities.addControlled(body, character);
+        }
+        if (parked.length <= client.id) {
+            parked = Arrays.copyOf(parked, Math.max(client.id + 1, parked.length * 2));
+        }
+        parked[client.id] = false;
+        channel.register(selector, SelectionKey.OP_READ, client);
+        clients.add(client);
+        joins++;
+
+        ByteBuffer out = client.connection.beginFrame(Protocol.WELCOME, 16 + 3 * config.map.length() + 2);
+        out.putInt(client.id).putInt(TILE_SIZE).putInt(config.ups);
+        Protocol.putString(out, config.map);
+        client.connection.endFrame();
+    }
+
+    private void dropLeaving() {
+        for (Client client : leaving) {
+            if (!clients.remove(client)) {
+                continue;
+            }
+            bytesIn += client.connection.bytesIn;
+            bytesOut += client.connection.bytesOut;
+            client.connection.close();
+            client.body.x = PARKED;
+            client.body.y = PARKED;
+            client.body.moving = false;
+            entities.set(client.id, client.body);
+            parked[client.id] = true;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = client.id;
+        }
+        leaving.clear();
+    }
+
+    // Puts an entity on a random free tile near the middle of the map
+    private void spawn(entity e) {
+        int span = Math.min(Math.min(world.getWidth(), world.getHeight()),
+                (2 * MAX_RADIUS + 1) * ChunkedWorld.CHUNK_SIZE);
+        int firstCol = world.getWidth() / 2 - span / 2;
+        int firstRow = world.getHeight() / 2 - span / 2;
+        for (int tries = 0; tries < 100; tries++) {
+            e.x = (firstCol + random.nextInt(span)) * TILE_SIZE;
+            e.y = (firstRow + random.nextInt(span)) * TILE_SIZE;
+            if (!tiles.overlapsSolid(e.x, e.y, hitbox) && !entities.isOccupied(e.x, e.y, -1)) {
+                return;
+            }
+        }
+    }
+
+    private void simulate() {
+        for (Client client : clients) {
+            int steps = client.queued > INPUT_LAG ? 2 : 1;
+            entity body = client.body;
+            body.moving = false;
+            for (int i = 0; i < steps && client.queued > 0; i++) {
+                int actions = client.takeInput();
+                int oldX = body.x;
+                int oldY = body.y;
+                PlayerMotion.step(body, actions, tiles);
+                // Same rule as the single-player game: players don't walk into other entities
+                if (body.moving && entities.isOccupied(body.x, body.y, client.id)
+                        && !entities.isOccupied(oldX, oldY, client.id)) {
+                    body.x = oldX;
+                    body.y = oldY;
+                }
+            }
+            entities.set(client.id, body);
+        }
+        entities.update();
+    }
+
+    // Copies this tick's state into the history
+    private void record() {
+        WorldState state = history[tick % HISTORY];
+        int count = entities.size();
+        state.ensure(count);
+        state.tick = tick;
+        for (int i = 0; i < count; i++) {
+            state.x[i] = entities.x[i];
+            state.y[i] = entities.y[i];
+            state.flags[i] = (byte) Protocol.flags(entities.direction[i], entities.moving[i]);
+            state.present[i] = i >= parked.length || !parked[i];
+        }
+    }
+
+    private void send() {
+        WorldState current = history[tick % HISTORY];
+        int count = current.count;
+        for (Client client : clients) {
+            long[] visible = client.visibility(tick, count);
+            int px = client.body.x;
+            int py = client.body.y;
+            int shown = 0;
+            for (int i = 0; i < count; i++) {
+                if (current.present[i] && Math.abs(current.x[i] - px) <= VIEW_RANGE_X
+                        && Math.abs(current.y[i] - py) <= VIEW_RANGE_Y) {
+                    visible[i >> 6] |= 1L << i;
+                    shown++;
+                }
+            }
+
+            // Deltas go against the newest snapshot the client has, as long as it is still in the history
+            int base = client.ack;
+            long[] seen = null;
+            if (deltaCompression && base >= 0 && tick - base < HISTORY && history[base % HISTORY].tick == base) {
+                seen = client.visibilityAt(base);
+            }
+            if (seen == null) {
+                base = -1;
+            } else {
+                for (long word : seen) {
+                    shown += Long.bitCount(word);
+                }
+            }
+
+            Connection connection = client.connection;
+            ByteBuffer out = connection.pending() > MAX_PENDING ? null
+                    : connection.beginFrame(Protocol.SNAPSHOT, 24 + shown * Protocol.MAX_ENTITY_BYTES);
+            if (out == null) {
+                skippedSnapshots++;
+            } else {
+                int start = out.position();
+                encode(client, out, current, visible, base, seen);
+                snapshotBytes += out.position() - start;
+                connection.endFrame();
+                if (base < 0) {
+                    fullSnapshots++;
+                } else {
+                    deltaSnapshots++;
+                }
+            }
+            try {
+                connection.flush();
+            } catch (IOException e) {
+                leaving.add(client);
+            }
+        }
+        dropLeaving();
+    }
+
+    // Writes one client's snapshot of this tick: every entity it can see, as changes against base unless that is -1
+    private void encode(Client client, ByteBuffer out, WorldState current, long[] visible, int base, long[] seen) {
+        WorldState old = base >= 0 ? history[base % HISTORY] : null;
+        int count = current.count;
+        out.putInt(tick).putInt(base).putInt(client.lastSeq);
+        Protocol.putVarint(out, count);
+        int changesAt = out.position();
+        out.putInt(0);
+        int changes = 0;
+        int previous = -1;
+        for (int i = 0; i < count; i++) {
+            boolean now = (visible[i >> 6] & (1L << i)) != 0;
+            boolean before = old != null && i < old.count && (seen[i >> 6] & (1L << i)) != 0;
+            int mask;
+            if (!now) {
+                if (!before) {
+                    continue;
+                }
+                mask = Protocol.REMOVED;
+            } else if (!before) {
+                mask = Protocol.X | Protocol.Y | Protocol.FLAGS;
+            } else {
+                mask = (current.x[i] != old.x[i] ? Protocol.X : 0) | (current.y[i] != old.y[i] ? Protocol.Y : 0)
+                        | (current.flags[i] != old.flags[i] ? Protocol.FLAGS : 0);
+                if (mask == 0) {
+                    continue;
+                }
+            }
+            Protocol.putVarint(out, i - previous - 1);
+            previous = i;
+            out.put((byte) mask);
+            if ((mask & Protocol.X) != 0) {
+                Protocol.putSigned(out, current.x[i] - (before ? old.x[i] : 0));
+            }
+            if ((mask & Protocol.Y) != 0) {
+                Protocol.putSigned(out, current.y[i] - (before ? old.y[i] : 0));
+            }
+            if ((mask & Protocol.FLAGS) != 0) {
+                out.put(current.flags[i]);
+            }
+            changes++;
+        }
+        out.putInt(changesAt, changes);
+    }
+
+    /**
+     * Sends every snapshot in full instead of as a delta, to compare what delta compression saves.
+     */
+    public void setDeltaCompression(boolean deltaCompression) {
+        this.deltaCompression = deltaCompression;
+    }
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public ChunkedWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * @return Time taken by every tick so far. Read it only while the server isn't running.
+     */
+    public LatencyHistogram getTickTimes() {
+        return tickTimes;
+    }
+
+    /**
+     * @return Bytes sent to all clients so far, including ones that left
+     */
+    public long getBytesOut() {
+        long total = bytesOut;
+        for (Client client : clients) {
+            total += client.connection.bytesOut;
+        }
+        return total;
+    }
+
+    public long getBytesIn() {
+        long total = bytesIn;
+        for (Client client : clients) {
+            total += client.connection.bytesIn;
+        }
+        return total;
+    }
+
+    public long getFullSnapshots() {
+        return fullSnapshots;
+    }
+
+    public long getDeltaSnapshots() {
+        return deltaSnapshots;
+    }
+
+    // Snapshots not sent because the client's socket was backed up
+    public long getSkippedSnapshots() {
+        return skippedSnapshots;
+    }
+
+    // Payload bytes of all snapshots, without frame headers
+    public long getSnapshotBytes() {
+        return snapshotBytes;
+    }
+
+    public long getJoins() {
+        return joins;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        for (Client client : clients) {
+            client.connection.close();
+        }
+        clients.clear();
+        if (acceptor != null) {
+            acceptor.close();
+        }
+        selector.close();
+        world.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        GameConfig config = GameConfig.fromSystemProperties();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Protocol.DEFAULT_PORT;
+        GameServer server = new GameServer(config);
+        server.bind(new InetSocketAddress(port));
+        System.out.println("Serving " + config.map + " with " + config.npcs + " NPCs on port " + port);
+        server.run();
+    }
+
+    // One connected player
+    private static class Client implements Connection.FrameHandler {
+        final Connection connection;
+        final entity body = new entity();
+        int id;
+
+        // Inputs received but not applied yet, oldest first. A client sending faster than the tick rate
+        // loses its oldest inputs instead of growing the queue; its prediction is corrected like any other.
+        private final int[] inputSeq = new int[HISTORY];
+        private final byte[] inputActions = new byte[HISTORY];
+        private int head;
+        int queued;
+        int lastSeq;
+
+        // Newest snapshot the client has decoded, -1 for none
+        int ack = -1;
+        // Which entities each recent snapshot sent this client, by tick % HISTORY
+        private final long[][] visible = new long[HISTORY][];
+        private final int[] visibleTick = new int[HISTORY];
+
+        Client(Connection connection) {
+            this.connection = connection;
+            Arrays.fill(visibleTick, -1);
+        }
+
+        @Override
+        public void frame(byte type, ByteBuffer payload) throws IOException {
+            if (type != Protocol.INPUT) {
+                throw new IOException("Unexpected message " + type);
+            }
+            if (payload.remaining() != Protocol.INPUT_SIZE) {
+                throw new IOException("Input of " + payload.remaining() + " bytes");
+            }
+            int seq = payload.getInt();
+            byte actions = payload.get();
+            ack = payload.getInt();
+            if (queued == inputSeq.length) {
+                head = (head + 1) % inputSeq.length;
+                queued--;
+            }
+            int at = (head + queued) % inputSeq.length;
+            inputSeq[at] = seq;
+            inputActions[at] = actions;
+            queued++;
+        }
+
+        int takeInput() {
+            int actions = inputActions[head];
+            lastSeq = inputSeq[head];
+            head = (head + 1) % inputSeq.length;
+            queued--;
+            return actions;
+        }
+
+        // Clears and returns the visibility bits for a tick
+        long[] visibility(int tick, int count) {
+            int slot = tick % HISTORY;
+            int words = (count + 63) >> 6;
+            if (visible[slot] == null || visible[slot].length < words) {
+                visible[slot] = new long[Math.max(words, 1)];
+            } else {
+                Arrays.fill(visible[slot], 0);
+            }
+            visibleTick[slot] = tick;
+            return visible[slot];
+        }
+
+        // Visibility bits sent with a snapshot, null if they are no longer kept
+        long[] visibilityAt(int tick) {
+            int slot = tick % HISTORY;
+            return visibleTick[slot] == tick ? visible[slot] : null;
+        }
+    }
+}
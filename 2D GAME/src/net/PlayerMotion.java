@@ -0,0 +1,62 @@
+package net;
+
+import Entity.Direction;
+import Entity.entity;
+import Main.Action;
+import Main.CollisionChecker;
+
+import java.awt.Rectangle;
+
+/**
+ * How a player moves for one tick of input. Same rules as Player.update: one direction at a time,
+ * up before down before left before right, swept against solid tiles. The server runs it for every
+ * player and a client runs it ahead of the server for its own, so both must stay identical.
+ * Walking into other entities is left to the server; the client only learns about it from snapshots.
+ */
+public final class PlayerMotion {
+    public static final int SPEED = 4;
+
+    private PlayerMotion() {
+    }
+
+    /**
+     * @return The player's collision box for a tile size, the same one Player uses
+     */
+    public static Rectangle hitbox(int tileSize) {
+        return new Rectangle(tileSize / 6, tileSize / 3, tileSize * 2 / 3, tileSize * 2 / 3);
+    }
+
+    /**
+     * Moves a player by one tick of input.
+     *
+     * @param actions Action mask (see KeyHandler.getActions)
+     * @param tiles Solid tiles to stop at, null to walk through everything
+     */
+    public static void step(entity e, int actions, CollisionChecker tiles) {
+        int direction;
+        if ((actions & (1 << Action.UP.ordinal())) != 0) {
+            direction = Direction.UP;
+        } else if ((actions & (1 << Action.DOWN.ordinal())) != 0) {
+            direction = Direction.DOWN;
+        } else if ((actions & (1 << Action.LEFT.ordinal())) != 0) {
+            direction = Direction.LEFT;
+        } else if ((actions & (1 << Action.RIGHT.ordinal())) != 0) {
+            direction = Direction.RIGHT;
+        } else {
+            e.moving = false;
+            e.collisionOn = false;
+            return;
+        }
+        e.moving = true;
+        e.direction = direction;
+        int dx = Direction.DX[direction] * e.speed;
+        int dy = Direction.DY[direction] * e.speed;
+        if (tiles != null) {
+            tiles.move(e, dx, dy);
+        } else {
+            e.x += dx;
+            e.y += dy;
+            e.collisionOn = false;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format shared by GameServer and GameClient.
+ *
+ * Every message is a frame: an int length of what follows, a type byte and the payload, all big-endian.
+ * Snapshots describe entities as changes against an older snapshot the client already has, with
+ * varints (zigzag for signed deltas) so a small move costs a byte or two.
+ *
+ * <pre>
+ * WELCOME   server to client, once after connecting
+ *           int     entity id of the client's player
+ *           int     tile size in world pixels
+ *           int     ticks per second
+ *           short   length of the map name in bytes, then the name in UTF-8
+ * INPUT     client to server, once per client tick
+ *           int     input sequence number, counting up from 1
+ *           byte    action mask (see KeyHandler.getActions)
+ *           int     newest snapshot tick the client has decoded, -1 for none
+ * SNAPSHOT  server to client
+ *           int     server tick
+ *           int     tick of the snapshot this is a delta against, -1 for a full snapshot
+ *           int     last input sequence number the server has applied for this client
+ *           varint  entity count
+ *           int     number of changed entities, then for each, in ascending id order:
+ *             varint  id - previous changed id - 1 (the first counts from -1)
+ *             byte    what changed: X, Y, FLAGS, REMOVED
+ *             varint  zigzag x - base x, if X
+ *             varint  zigzag y - base y, if Y
+ *             byte    flags, if FLAGS
+ * </pre>
+ * An entity the base snapshot didn't have counts from 0, 0 and flags 0 and always carries all three fields.
+ */
+public final class Protocol {
+    public static final int DEFAULT_PORT = 7777;
+
+    public static final byte WELCOME = 1;
+    public static final byte INPUT = 2;
+    public static final byte SNAPSHOT = 3;
+
+    // Change mask of an entity in a snapshot
+    public static final int X = 1;
+    public static final int Y = 2;
+    public static final int FLAGS = 4;
+    public static final int REMOVED = 8;
+
+    // Entity flags: direction id in the low two bits, then whether it is walking
+    public static final int DIRECTION_MASK = 3;
+    public static final int MOVING = 4;
+
+    // Length plus type byte
+    static final int FRAME_HEADER = 5;
+    // Largest frame either side accepts
+    static final int MAX_FRAME = 1 << 20;
+    // Payload of an INPUT message
+    static final int INPUT_SIZE = 9;
+    // Most entities a snapshot may describe, so a bad one can't make the client allocate without bound
+    static final int MAX_ENTITIES = 1 << 20;
+    // Most bytes one entity can take in a snapshot
+    static final int MAX_ENTITY_BYTES = 17;
+
+    private Protocol() {
+    }
+
+    public static int flags(int direction, boolean moving) {
+        return direction | (moving ? MOVING : 0);
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Zigzag keeps small negative numbers small: 0, -1, 1, -2, 2 ... become 0, 1, 2, 3, 4 ...
+    static void putSigned(ByteBuffer out, int value) {
+        putVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int getSigned(ByteBuffer in) {
+        int v = getVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,70 @@
+package net;
+
+import java.util.Arrays;
+
+/**
+ * Every entity's position and flags as of one server tick, as the server recorded them or as a
+ * client rebuilt them from snapshots. Entities a client can't see are not present.
+ */
+public class WorldState {
+    int tick = -1;
+    int count;
+    int[] x = new int[64];
+    int[] y = new int[64];
+    byte[] flags = new byte[64];
+    boolean[] present = new boolean[64];
+
+    public int getTick() {
+        return tick;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isPresent(int id) {
+        return id < count && present[id];
+    }
+
+    public int getX(int id) {
+        return x[id];
+    }
+
+    public int getY(int id) {
+        return y[id];
+    }
+
+    public int getFlags(int id) {
+        return flags[id];
+    }
+
+    void ensure(int size) {
+        if (x.length < size) {
+            int capacity = Math.max(size, x.length * 2);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            present = Arrays.copyOf(present, capacity);
+        }
+        if (size > count) {
+            Arrays.fill(present, count, size, false);
+        }
+        count = size;
+    }
+
+    void copyFrom(WorldState other) {
+        ensure(other.count);
+        count = other.count;
+        tick = other.tick;
+        System.arraycopy(other.x, 0, x, 0, count);
+        System.arraycopy(other.y, 0, y, 0, count);
+        System.arraycopy(other.flags, 0, flags, 0, count);
+        System.arraycopy(other.present, 0, present, 0, count);
+    }
+
+    void clear() {
+        Arrays.fill(present, 0, count, false);
+        count = 0;
+        tick = -1;
+    }
+}
@@ -0,0 +1,286 @@
+package save;
+
+import Entity.EntityStore;
+import Entity.entity;
+import tile.ChunkedWorld;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Saves the game to one file every so many ticks without holding up the game thread.
+ *
+ * On the game thread a save only collects what changed since the last one: the chunks edited since
+ * (handed over by the world without copying, see ChunkedWorld.takeUnsavedEdits) and the entities whose
+ * state differs from what was last saved. A background thread then appends that as a segment to the
+ * file (see SaveFormat). When the file has grown to several times what it holds, the thread rewrites it
+ * in one segment next to it and swaps it in, so a crash never leaves a broken save behind.
+ */
+public class Autosave {
+    // The file is rewritten once it is this many times larger than after the last rewrite
+    private static final int COMPACT_FACTOR = 4;
+    // ... but not while it is smaller than this
+    private static final long COMPACT_MIN = 256 * 1024;
+
+    private final Path file;
+    private final String map;
+    private final long seed;
+    private final int npcs;
+    private final int chasers;
+    private final int interval;
+    private final boolean verbose;
+
+    // Game thread: ticks since the last save, and every entity's state as last saved
+    private int ticksSinceSave;
+    private int[] saved = new int[0];
+    private int savedCount;
+    private final int[] scratch = new int[EntityStore.SAVED_INTS];
+    // Latch of a save asked for by another thread, taken by the game thread at its next tick
+    private final AtomicReference<CountDownLatch> requested = new AtomicReference<>();
+
+    // Writer thread: the file's contents with every segment applied, and where it is appended to
+    private final ExecutorService writer;
+    private final SaveState state;
+    private FileChannel channel;
+    private long compactedSize;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param continued What the file held when the game was continued from it, null to start it over
+     * @param interval Ticks between saves, 0 or less to only save when asked
+     */
+    public Autosave(Path file, SaveState continued, String map, long seed, int npcs, int chasers, int interval,
+                    boolean verbose) {
+        this.file = file;
+        this.map = map;
+        this.seed = seed;
+        this.npcs = npcs;
+        this.chasers = chasers;
+        this.interval = interval;
+        this.verbose = verbose;
+        this.state = continued != null ? continued : new SaveState();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "autosave");
+            t.setDaemon(true);
+            return t;
+        });
+        if (continued != null) {
+            int count = continued.getEntityCount();
+            saved = Arrays.copyOf(continued.entities(), count * EntityStore.SAVED_INTS);
+            savedCount = count;
+            writer.execute(() -> openForAppend(continued.validLength));
+        }
+    }
+
+    /**
+     * Saves if a save is due or was asked for. Call once per tick from the game thread.
+     */
+    public void tick(long tick, entity player, EntityStore entities, ChunkedWorld world) {
+        CountDownLatch request = requested.getAndSet(null);
+        ticksSinceSave++;
+        if (request == null && (interval <= 0 || ticksSinceSave < interval)) {
+            return;
+        }
+        save(tick, player, entities, world);
+        if (request != null) {
+            writer.execute(request::countDown);
+        }
+    }
+
+    /**
+     * Collects what changed since the last save and hands it to the writer thread. Game thread only.
+     */
+    public void save(long tick, entity player, EntityStore entities, ChunkedWorld world) {
+        if (writer.isShutdown()) {
+            return;
+        }
+        ticksSinceSave = 0;
+        SaveSegment segment = new SaveSegment();
+        segment.tick = tick;
+        segment.seed = seed;
+        segment.npcs = npcs;
+        segment.chasers = chasers;
+        segment.map = map;
+        segment.playerX = player.x;
+        segment.playerY = player.y;
+        segment.playerDirection = player.direction;
+        if (world != null) {
+            world.takeUnsavedEdits(segment::addChunk);
+        }
+
+        // Only entities that changed since they were last saved go in
+        int ints = EntityStore.SAVED_INTS;
+        int count = entities.size();
+        if (saved.length < count * ints) {
+            saved = Arrays.copyOf(saved, Math.max(count * ints, saved.length * 2));
+        }
+        for (int id = 0; id < count; id++) {
+            entities.saveState(id, scratch, 0);
+            int at = id * ints;
+            if (id < savedCount && Arrays.equals(scratch, 0, ints, saved, at, at + ints)) {
+                continue;
+            }
+            System.arraycopy(scratch, 0, saved, at, ints);
+            segment.addEntity(id, scratch, 0);
+        }
+        savedCount = count;
+        segment.entityCount = count;
+
+        writer.execute(() -> write(segment));
+    }
+
+    /**
+     * Asks the game thread to save at its next tick and waits until that save is on disk.
+     * For saving on the way out while the game loop is still running.
+     *
+     * @return false if the save didn't finish in time
+     */
+    public boolean saveAndWait(long timeoutMillis) {
+        CountDownLatch done = new CountDownLatch(1);
+        // A request the game thread hasn't taken yet is answered by the same save as this one
+        CountDownLatch replaced = requested.getAndSet(done);
+        try {
+            boolean saved = done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            if (saved && replaced != null) {
+                replaced.countDown();
+            }
+            return saved;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Finishes the saves already handed over, then stops the writer thread.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeChannel();
+    }
+
+    // Writer thread from here on
+
+    private void openForAppend(long validLength) {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.WRITE);
+            // Drop whatever an unfinished save left after the last good segment
+            channel.truncate(validLength);
+            channel.position(validLength);
+            compactedSize = validLength;
+        } catch (IOException e) {
+            System.err.println("Error opening save " + file + ": " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void write(SaveSegment segment) {
+        long start = System.nanoTime();
+        state.apply(segment);
+        try {
+            long written;
+            boolean compacted = channel == null || channel.size() > Math.max(COMPACT_MIN, COMPACT_FACTOR * compactedSize);
+            if (compacted) {
+                written = compact();
+            } else {
+                written = append(segment);
+            }
+            if (verbose) {
+                System.out.printf("Saved %s: %d chunks, %d entities, %.1fKB%s in %.2fms%n", file,
+                        segment.chunkTiles.size(), segment.savedCount, written / 1024.0,
+                        compacted ? " (whole file)" : "", (System.nanoTime() - start) / 1e6);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Start over with a whole file next time
+            System.err.println("Error saving " + file + ": " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private long append(SaveSegment segment) throws IOException {
+        encode(segment, false);
+        long written = writeAll(channel, buffer);
+        channel.force(false);
+        return written;
+    }
+
+    // Writes everything saved so far into a new file and puts it in place of the old one
+    private long compact() throws IOException {
+        closeChannel();
+        encode(state.toSegment(), true);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long written;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            written = writeAll(out, buffer);
+            out.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(written);
+        compactedSize = written;
+        return written;
+    }
+
+    // Puts a segment, with the file header in front if asked, into the buffer ready to be written
+    private void encode(SaveSegment segment, boolean header) {
+        int size = SaveFormat.HEADER_SIZE + SaveFormat.maxSegmentSize(segment);
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        if (header) {
+            SaveFormat.writeHeader(buffer);
+        }
+        int lengthAt = buffer.position();
+        buffer.position(lengthAt + SaveFormat.SEGMENT_HEADER);
+        segment.write(buffer);
+        int length = buffer.position() - lengthAt - SaveFormat.SEGMENT_HEADER;
+        crc.reset();
+        crc.update(buffer.array(), lengthAt + SaveFormat.SEGMENT_HEADER, length);
+        buffer.putInt(lengthAt, length).putInt(lengthAt + 4, (int) crc.getValue());
+        buffer.flip();
+    }
+
+    private static long writeAll(FileChannel out, ByteBuffer data) throws IOException {
+        long written = 0;
+        while (data.hasRemaining()) {
+            written += out.write(data);
+        }
+        return written;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package save;
+
+import Entity.EntityStore;
+import tile.ChunkedWorld;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Save game format, version 1: a header, then any number of segments that each hold what changed
+ * since the segment before. Autosaves append a segment; once the file has grown well past what it
+ * holds, it is rewritten as a single segment.
+ *
+ * <pre>
+ * header   int    magic "2DSV"
+ *          short  version (1)
+ *          short  chunk shift (chunk size = 1 << shift)
+ * segment  int    length of the body
+ *          int    CRC32 of the body
+ * body     long   tick
+ *          long   random seed
+ *          int    NPC count
+ *          int    how many of the NPCs are chasers
+ *          short  length of the map name in bytes, then the name in UTF-8
+ *          int    player x, int player y, byte player direction (see Direction)
+ *          int    number of chunks, then per chunk:
+ *            int    chunk column, int chunk row, byte layers
+ *            per layer, runs of (varint run length, varint tile id + 1) as in BinaryMapFormat
+ *          int    entities in the store
+ *          int    number of entities saved, then per entity in ascending id order:
+ *            varint id - previous saved id - 1 (the first counts from -1)
+ *            EntityStore.SAVED_INTS zigzag varints (see EntityStore.saveState)
+ * </pre>
+ * A later segment replaces the header fields and the chunks and entities it holds. A segment cut
+ * short or failing its CRC (the game stopped while writing it) ends the file; what came before stands.
+ */
+public final class SaveFormat {
+    public static final int MAGIC = 0x32445356; // "2DSV"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int SEGMENT_HEADER = 8;
+
+    private SaveFormat() {
+    }
+
+    static void writeHeader(ByteBuffer out) {
+        out.putInt(MAGIC).putShort((short) VERSION).putShort((short) ChunkedWorld.CHUNK_SHIFT);
+    }
+
+    static void readHeader(ByteBuffer in) throws IOException {
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+            throw new IOException("Not a save file");
+        }
+        int version = in.getShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported save version " + version);
+        }
+        if (in.getShort() != ChunkedWorld.CHUNK_SHIFT) {
+            throw new IOException("Save was written with a different chunk size");
+        }
+    }
+
+    /**
+     * @return Bytes a segment can take at most, header included
+     */
+    static int maxSegmentSize(SaveSegment segment) {
+        long size = SEGMENT_HEADER + 48 + 3L * segment.map.length() + 8;
+        int area = 1 << (2 * ChunkedWorld.CHUNK_SHIFT);
+        for (short[][] tiles : segment.chunkTiles) {
+            // A run of one cell at worst, each varint at most 3 bytes for a 32x32 chunk
+            size += 9 + 6L * tiles.length * area;
+        }
+        size += 8 + (long) segment.entityCount * (5 + 5 * EntityStore.SAVED_INTS);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Save segment too large");
+        }
+        return (int) size;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint");
+    }
+
+    static void putSigned(ByteBuffer out, int value) {
+        putVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    static int getSigned(ByteBuffer in) throws IOException {
+        int value = getVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // Run-length encodes the layers of a chunk; runs never cross from one layer into the next
+    // Writes one layer of a chunk, null for an empty one
+    static void putTiles(ByteBuffer out, short[] tiles) {
+        int area = 1 << (2 * ChunkedWorld.CHUNK_SHIFT);
+        if (tiles == null) {
+            putVarint(out, area);
+            putVarint(out, 0);
+            return;
+        }
+        int i = 0;
+        while (i < area) {
+            int value = tiles[i];
+            int run = 1;
+            while (i + run < area && tiles[i + run] == value) {
+                run++;
+            }
+            putVarint(out, run);
+            putVarint(out, value + 1);
+            i += run;
+        }
+    }
+
+    // Reads one layer of a chunk, null if it is empty
+    static short[] getTiles(ByteBuffer in) throws IOException {
+        int area = 1 << (2 * ChunkedWorld.CHUNK_SHIFT);
+        short[] tiles = new short[area];
+        boolean empty = true;
+        int i = 0;
+        while (i < area) {
+            int run = getVarint(in);
+            int value = getVarint(in) - 1;
+            if (run < 1 || i + run > area || value < -1 || value > Short.MAX_VALUE) {
+                throw new IOException("Bad tile run in save");
+            }
+            Arrays.fill(tiles, i, i + run, (short) value);
+            empty &= value == -1;
+            i += run;
+        }
+        return empty ? null : tiles;
+    }
+}
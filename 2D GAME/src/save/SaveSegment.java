@@ -0,0 +1,135 @@
+package save;
+
+import Entity.EntityStore;
+import tile.ChunkedWorld;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One segment of a save file (see SaveFormat): the game's header fields and the chunks and entities
+ * that changed since the segment before. Chunk tiles are referenced, not copied; whoever builds a
+ * segment makes sure they don't change while it is written.
+ */
+class SaveSegment {
+    long tick;
+    long seed;
+    int npcs;
+    int chasers;
+    String map = "";
+    int playerX;
+    int playerY;
+    int playerDirection;
+
+    final List<int[]> chunkPositions = new ArrayList<>();
+    final List<short[][]> chunkTiles = new ArrayList<>();
+
+    // Entities in the store, and the ids and saved state of the ones in this segment
+    int entityCount;
+    int savedCount;
+    int[] savedIds = new int[16];
+    int[] savedState = new int[16 * EntityStore.SAVED_INTS];
+
+    void addChunk(int chunkCol, int chunkRow, short[][] tiles) {
+        chunkPositions.add(new int[]{chunkCol, chunkRow});
+        chunkTiles.add(tiles);
+    }
+
+    /**
+     * Adds an entity's state, ids in ascending order.
+     */
+    void addEntity(int id, int[] state, int offset) {
+        if (savedCount == savedIds.length) {
+            savedIds = Arrays.copyOf(savedIds, savedCount * 2);
+            savedState = Arrays.copyOf(savedState, savedCount * 2 * EntityStore.SAVED_INTS);
+        }
+        savedIds[savedCount] = id;
+        System.arraycopy(state, offset, savedState, savedCount * EntityStore.SAVED_INTS, EntityStore.SAVED_INTS);
+        savedCount++;
+    }
+
+    /**
+     * Writes the body of the segment (without its length and CRC).
+     */
+    void write(ByteBuffer out) {
+        out.putLong(tick).putLong(seed).putInt(npcs).putInt(chasers);
+        byte[] name = map.getBytes(StandardCharsets.UTF_8);
+        out.putShort((short) name.length).put(name);
+        out.putInt(playerX).putInt(playerY).put((byte) playerDirection);
+
+        out.putInt(chunkTiles.size());
+        for (int i = 0; i < chunkTiles.size(); i++) {
+            short[][] tiles = chunkTiles.get(i);
+            out.putInt(chunkPositions.get(i)[0]).putInt(chunkPositions.get(i)[1]);
+            out.put((byte) tiles.length);
+            for (short[] layer : tiles) {
+                SaveFormat.putTiles(out, layer);
+            }
+        }
+
+        out.putInt(entityCount).putInt(savedCount);
+        int previous = -1;
+        for (int i = 0; i < savedCount; i++) {
+            SaveFormat.putVarint(out, savedIds[i] - previous - 1);
+            previous = savedIds[i];
+            for (int k = 0; k < EntityStore.SAVED_INTS; k++) {
+                SaveFormat.putSigned(out, savedState[i * EntityStore.SAVED_INTS + k]);
+            }
+        }
+    }
+
+    /**
+     * Reads the body of a segment.
+     */
+    static SaveSegment read(ByteBuffer in) throws IOException {
+        SaveSegment segment = new SaveSegment();
+        segment.tick = in.getLong();
+        segment.seed = in.getLong();
+        segment.npcs = in.getInt();
+        segment.chasers = in.getInt();
+        byte[] name = new byte[in.getShort() & 0xFFFF];
+        in.get(name);
+        segment.map = new String(name, StandardCharsets.UTF_8);
+        segment.playerX = in.getInt();
+        segment.playerY = in.getInt();
+        segment.playerDirection = in.get();
+
+        int chunks = in.getInt();
+        for (int i = 0; i < chunks; i++) {
+            int chunkCol = in.getInt();
+            int chunkRow = in.getInt();
+            int layers = in.get();
+            if (layers < 1) {
+                throw new IOException("Bad layer count " + layers + " in save");
+            }
+            short[][] tiles = new short[layers][];
+            for (int layer = 0; layer < layers; layer++) {
+                tiles[layer] = SaveFormat.getTiles(in);
+            }
+            segment.addChunk(chunkCol, chunkRow, tiles);
+        }
+
+        segment.entityCount = in.getInt();
+        int saved = in.getInt();
+        if (segment.entityCount < 0 || saved < 0 || saved > segment.entityCount) {
+            throw new IOException("Bad entity counts " + segment.entityCount + "/" + saved + " in save");
+        }
+        int[] state = new int[EntityStore.SAVED_INTS];
+        int id = -1;
+        for (int i = 0; i < saved; i++) {
+            id += SaveFormat.getVarint(in) + 1;
+            if (id < 0 || id >= segment.entityCount) {
+                throw new IOException("Entity " + id + " out of range in save");
+            }
+            for (int k = 0; k < state.length; k++) {
+                state[k] = SaveFormat.getSigned(in);
+            }
+            segment.addEntity(id, state, 0);
+        }
+        return segment;
+    }
+}
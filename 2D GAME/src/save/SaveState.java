@@ -0,0 +1,212 @@
+package save;
+
+import Entity.EntityStore;
+import tile.ChunkedWorld;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Everything a save file holds, with all its segments applied: where the player was, the map and
+ * its edited chunks, and the state of every entity. Load a save with load() and put it back with
+ * restoreChunks() and restoreEntities().
+ */
+public class SaveState {
+    private long tick;
+    private long seed;
+    private int npcs;
+    private int chasers;
+    private String map;
+    private int playerX;
+    private int playerY;
+    private int playerDirection;
+
+    // Tiles of every edited chunk by chunk key (row in the high half, column in the low half)
+    private final Map<Long, short[][]> chunks = new LinkedHashMap<>();
+    private int entityCount;
+    private int[] entities = new int[0];
+
+    // Bytes of the file that hold whole, valid segments
+    long validLength;
+
+    /**
+     * Reads a save file one segment at a time. A damaged segment at the end, left by a save that
+     * didn't finish, is ignored along with anything after it.
+     */
+    public static SaveState load(Path file) throws IOException {
+        SaveState state = new SaveState();
+        long size = Files.size(file);
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16))) {
+            byte[] header = new byte[SaveFormat.HEADER_SIZE];
+            in.readFully(header);
+            SaveFormat.readHeader(ByteBuffer.wrap(header));
+            long position = SaveFormat.HEADER_SIZE;
+            boolean any = false;
+
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[1 << 16];
+            while (true) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length < 0 || length > size - position - SaveFormat.SEGMENT_HEADER) {
+                        break;
+                    }
+                    if (body.length < length) {
+                        body = new byte[length];
+                    }
+                    in.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(body, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                SaveSegment segment;
+                try {
+                    segment = SaveSegment.read(ByteBuffer.wrap(body, 0, length));
+                } catch (IOException | RuntimeException e) {
+                    break;
+                }
+                state.apply(segment);
+                position += SaveFormat.SEGMENT_HEADER + length;
+                any = true;
+            }
+            if (!any) {
+                throw new IOException("Save file " + file + " holds no complete save");
+            }
+            state.validLength = position;
+        }
+        return state;
+    }
+
+    // Takes in a segment: its header fields, and its chunks and entities over whatever was there
+    void apply(SaveSegment segment) {
+        tick = segment.tick;
+        seed = segment.seed;
+        npcs = segment.npcs;
+        chasers = segment.chasers;
+        map = segment.map;
+        playerX = segment.playerX;
+        playerY = segment.playerY;
+        playerDirection = segment.playerDirection;
+
+        for (int i = 0; i < segment.chunkTiles.size(); i++) {
+            int[] position = segment.chunkPositions.get(i);
+            chunks.put(((long) position[1] << 32) | (position[0] & 0xffffffffL), segment.chunkTiles.get(i));
+        }
+
+        int ints = EntityStore.SAVED_INTS;
+        if (entities.length < segment.entityCount * ints) {
+            entities = Arrays.copyOf(entities, segment.entityCount * ints);
+        }
+        entityCount = segment.entityCount;
+        for (int i = 0; i < segment.savedCount; i++) {
+            System.arraycopy(segment.savedState, i * ints, entities, segment.savedIds[i] * ints, ints);
+        }
+    }
+
+    // A segment holding everything, for rewriting the file in one piece
+    SaveSegment toSegment() {
+        SaveSegment segment = new SaveSegment();
+        segment.tick = tick;
+        segment.seed = seed;
+        segment.npcs = npcs;
+        segment.chasers = chasers;
+        segment.map = map;
+        segment.playerX = playerX;
+        segment.playerY = playerY;
+        segment.playerDirection = playerDirection;
+        for (Map.Entry<Long, short[][]> chunk : chunks.entrySet()) {
+            long key = chunk.getKey();
+            segment.addChunk((int) key, (int) (key >> 32), chunk.getValue());
+        }
+        segment.entityCount = entityCount;
+        for (int id = 0; id < entityCount; id++) {
+            segment.addEntity(id, entities, id * EntityStore.SAVED_INTS);
+        }
+        return segment;
+    }
+
+    /**
+     * Puts the saved edits back into a world of the same map.
+     */
+    public void restoreChunks(ChunkedWorld world) {
+        for (Map.Entry<Long, short[][]> chunk : chunks.entrySet()) {
+            long key = chunk.getKey();
+            world.restoreChunk((int) key, (int) (key >> 32), chunk.getValue());
+        }
+    }
+
+    /**
+     * Puts the saved entities back into a store filled the same way as the one saved (same map, NPC counts and seed).
+     * Entities the store doesn't have are skipped.
+     */
+    public void restoreEntities(EntityStore store) {
+        int count = Math.min(entityCount, store.size());
+        for (int id = 0; id < count; id++) {
+            store.restoreState(id, entities, id * EntityStore.SAVED_INTS);
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getNpcs() {
+        return npcs;
+    }
+
+    public int getChasers() {
+        return chasers;
+    }
+
+    public String getMap() {
+        return map;
+    }
+
+    public int getPlayerX() {
+        return playerX;
+    }
+
+    public int getPlayerY() {
+        return playerY;
+    }
+
+    // Direction id, see Direction
+    public int getPlayerDirection() {
+        return playerDirection;
+    }
+
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    // Saved state of every entity, EntityStore.SAVED_INTS per entity
+    int[] entities() {
+        return entities;
+    }
+}
@@ -0,0 +1,116 @@
+package tile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary map format, version 1.
+ *
+ * <pre>
+ * header   int    magic "2DMB"
+ *          short  version (1)
+ *          short  chunk shift (chunk size = 1 << shift)
+ *          int    width in tiles
+ *          int    height in tiles
+ *          short  layers
+ *          short  reserved (0)
+ *          int    reserved (0)
+ * index    long[chunkCols * chunkRows + 1]  offset of each chunk record from the start of the file,
+ *                                          plus the end of the last record
+ * records  per chunk, for each layer in turn: runs of (varint run length, varint tile id + 1)
+ *          covering chunkSize * chunkSize cells in row-major order. Cells outside the world are -1 (stored as 0).
+ * </pre>
+ *
+ * Chunks can be read independently straight out of a memory mapped file, and runs of the same tile
+ * (most of any map) cost two or three bytes.
+ */
+public final class BinaryMapFormat {
+    public static final int MAGIC = 0x32444D42; // "2DMB"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 24;
+
+    private BinaryMapFormat() {
+    }
+
+    /**
+     * Writes a whole map to a file, reading it from the source one chunk at a time so even huge
+     * maps convert with bounded memory.
+     */
+    public static void write(ChunkSource source, Path file) throws IOException {
+        int shift = ChunkedWorld.CHUNK_SHIFT;
+        int size = 1 << shift;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int chunkCols = (width + size - 1) >> shift;
+        int chunkRows = (height + size - 1) >> shift;
+        int chunks = chunkCols * chunkRows;
+        int layers = Math.max(1, source.getLayers());
+        int area = size * size;
+
+        long[] offsets = new long[chunks + 1];
+        short[] cells = new short[layers * area];
+        ByteBuffer out = ByteBuffer.allocate(1 << 20);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = HEADER_SIZE + 8L * offsets.length;
+            channel.position(position);
+
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                offsets[chunk] = position + out.position();
+                source.loadChunk(chunk % chunkCols, chunk / chunkCols, size, cells);
+
+                int i = 0;
+                while (i < cells.length) {
+                    int value = cells[i];
+                    int layerEnd = (i / area + 1) * area;
+                    int run = 1;
+                    while (i + run < layerEnd && cells[i + run] == value) {
+                        run++;
+                    }
+                    if (out.remaining() < 10) {
+                        position += flush(channel, out);
+                    }
+                    putVarint(out, run);
+                    putVarint(out, value + 1);
+                    i += run;
+                }
+            }
+            position += flush(channel, out);
+            offsets[chunks] = position;
+
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + 8 * offsets.length);
+            head.putInt(MAGIC).putShort((short) VERSION).putShort((short) shift)
+                    .putInt(width).putInt(height).putShort((short) layers).putShort((short) 0).putInt(0);
+            for (long offset : offsets) {
+                head.putLong(offset);
+            }
+            head.flip();
+            long at = 0;
+            while (head.hasRemaining()) {
+                at += channel.write(head, at);
+            }
+        }
+    }
+
+    private static int flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        int written = 0;
+        while (out.hasRemaining()) {
+            written += channel.write(out);
+        }
+        out.clear();
+        return written;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+}
@@ -0,0 +1,168 @@
+package tile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * ChunkSource reading maps in the BinaryMapFormat through a memory mapped file.
+ *
+ * Opening a map only checks its header, so it takes the same time for a tiny map as for one with
+ * hundreds of millions of tiles. Chunks are decoded on demand straight from the mapping; the OS pages
+ * in only the parts of the file that are actually read and nothing is copied onto the heap.
+ */
+public class BinaryMapSource implements ChunkSource {
+    private final MappedByteBuffer data;
+    private final int width;
+    private final int height;
+    private final int layers;
+    private final int chunkShift;
+    private final int chunkCols;
+    // Where the chunk data starts, just past the index
+    private final long indexEnd;
+
+    public BinaryMapSource(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Map " + path + " is too large to map in one piece (" + size + " bytes)");
+            }
+            if (size < BinaryMapFormat.HEADER_SIZE) {
+                throw new IOException("Map " + path + " is truncated");
+            }
+            // The mapping stays valid after the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        if (data.getInt(0) != BinaryMapFormat.MAGIC) {
+            throw new IOException(path + " is not a binary map");
+        }
+        int version = data.getShort(4);
+        if (version != BinaryMapFormat.VERSION) {
+            throw new IOException("Unsupported binary map version " + version + " in " + path);
+        }
+        chunkShift = data.getShort(6);
+        width = data.getInt(8);
+        height = data.getInt(12);
+        layers = data.getShort(16);
+        if (chunkShift != ChunkedWorld.CHUNK_SHIFT) {
+            throw new IOException("Map " + path + " has chunk shift " + chunkShift + ", expected "
+                    + ChunkedWorld.CHUNK_SHIFT);
+        }
+        if (width < 0 || height < 0 || layers <= 0) {
+            throw new IOException("Map " + path + " has a bad size of " + width + "x" + height + " tiles in "
+                    + layers + " layers");
+        }
+
+        chunkCols = (int) (((long) width + (1 << chunkShift) - 1) >> chunkShift);
+        int chunkRows = (int) (((long) height + (1 << chunkShift) - 1) >> chunkShift);
+        indexEnd = BinaryMapFormat.HEADER_SIZE + 8L * ((long) chunkCols * chunkRows + 1);
+        if (indexEnd > data.capacity()) {
+            throw new IOException("Map " + path + " is truncated");
+        }
+    }
+
+    /**
+     * Opens a binary map on the classpath, e.g. "/maps/map2.map".
+     * Resources packed in a jar are copied to a temporary file first so they can be mapped.
+     */
+    public static BinaryMapSource fromResource(String resource) throws IOException {
+        URL url = BinaryMapSource.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("Map resource not found: " + resource);
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new BinaryMapSource(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        Path temp = Files.createTempFile("map", ".map");
+        temp.toFile().deleteOnExit();
+        try (InputStream in = url.openStream()) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new BinaryMapSource(temp);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getLayers() {
+        return layers;
+    }
+
+    @Override
+    public void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) throws IOException {
+        if (chunkSize != 1 << chunkShift) {
+            throw new IOException("Map uses " + (1 << chunkShift) + " tile chunks, asked for " + chunkSize);
+        }
+        int cells = chunkSize * chunkSize;
+        int chunk = chunkRow * chunkCols + chunkCol;
+        long start = data.getLong(BinaryMapFormat.HEADER_SIZE + 8 * chunk);
+        long stop = data.getLong(BinaryMapFormat.HEADER_SIZE + 8 * (chunk + 1));
+        // Offsets are only read here, so a corrupt index is caught when its chunk is loaded
+        if (start < indexEnd || stop < start || stop > data.capacity()) {
+            throw new IOException("Chunk " + chunkCol + "," + chunkRow + " lies outside the map (bytes " + start
+                    + " to " + stop + ")");
+        }
+        int pos = (int) start;
+        int end = (int) stop;
+
+        // The layers are stored one after another, exactly the way they are laid out in dest
+        int total = cells * layers;
+        int i = 0;
+        while (i < total) {
+            if (pos >= end) {
+                throw new IOException("Chunk " + chunkCol + "," + chunkRow + " is truncated");
+            }
+            // Inline varint decoding, using absolute reads so no buffer state is shared
+            int run = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get(pos++);
+                run |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int value = 0;
+            shift = 0;
+            do {
+                b = data.get(pos++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            // A run never crosses from one layer into the next
+            if (run <= 0 || i + run > (i / cells + 1) * cells || value - 1 > Short.MAX_VALUE) {
+                throw new IOException("Corrupt run in chunk " + chunkCol + "," + chunkRow);
+            }
+            Arrays.fill(dest, i, i + run, (short) (value - 1));
+            i += run;
+        }
+    }
+
+    @Override
+    public void close() {
+        // A MappedByteBuffer is released when it is garbage collected
+    }
+}
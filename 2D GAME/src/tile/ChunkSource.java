@@ -0,0 +1,42 @@
+package tile;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Supplies the tile data of a world one chunk at a time.
+ * Implementations are called from the world loader thread, never from the game thread,
+ * so they are free to block on disk I/O.
+ */
+public interface ChunkSource extends Closeable {
+
+    /**
+     * @return The width of the world in tiles
+     */
+    int getWidth();
+
+    /**
+     * @return The height of the world in tiles
+     */
+    int getHeight();
+
+    /**
+     * @return How many layers (see MapLayer) the source has, starting at the ground
+     */
+    default int getLayers() {
+        return 1;
+    }
+
+    /**
+     * Fills dest with the tiles of one chunk, one layer after another, each in row-major order
+     * (dest[layer * chunkSize * chunkSize + row * chunkSize + col]). Only the first getLayers() layers are written.
+     * Cells that fall outside the world must be set to -1.
+     *
+     * @param chunkCol Chunk column (tile column / chunkSize)
+     * @param chunkRow Chunk row (tile row / chunkSize)
+     * @param chunkSize Width and height of a chunk in tiles
+     * @param dest Array of at least getLayers() * chunkSize * chunkSize entries to fill
+     * @throws IOException If the underlying data can't be read
+     */
+    void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) throws IOException;
+}
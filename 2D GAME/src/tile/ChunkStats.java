@@ -0,0 +1,81 @@
+package tile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing how the ChunkedWorld is streaming chunks.
+ * Written by the loader thread and the game thread, readable from anywhere.
+ */
+public class ChunkStats {
+    final AtomicLong loads = new AtomicLong();
+    final AtomicLong evictions = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+    final AtomicLong staleSkips = new AtomicLong();
+    final AtomicLong loadNanosTotal = new AtomicLong();
+    final AtomicLong loadNanosMax = new AtomicLong();
+
+    volatile int resident;
+    volatile int pending;
+    volatile long residentBytes;
+
+    void recordLoad(long nanos) {
+        loads.incrementAndGet();
+        loadNanosTotal.addAndGet(nanos);
+        loadNanosMax.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    // Loads that were dropped because the camera moved away before they ran
+    public long getStaleSkips() {
+        return staleSkips.get();
+    }
+
+    public int getResident() {
+        return resident;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return Tile data and solid bits of the resident chunks, as of the last ChunkedWorld.getStats()
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return Resident bytes per resident tile
+     */
+    public double getBytesPerTile() {
+        return resident == 0 ? 0 : residentBytes / (double) resident / WorldChunk.AREA;
+    }
+
+    public double getAverageLoadMillis() {
+        long n = loads.get();
+        return n == 0 ? 0 : loadNanosTotal.get() / (double) n / 1_000_000.0;
+    }
+
+    public double getMaxLoadMillis() {
+        return loadNanosMax.get() / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("chunks resident=%d (%.2f bytes/tile) pending=%d loads=%d evictions=%d stale=%d failed=%d avgLoad=%.2fms maxLoad=%.2fms",
+                resident, getBytesPerTile(), pending, getLoads(), getEvictions(), getStaleSkips(), getFailures(),
+                getAverageLoadMillis(), getMaxLoadMillis());
+    }
+}
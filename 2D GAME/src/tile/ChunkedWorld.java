@@ -0,0 +1,543 @@
+package tile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Streams a world of any size through a fixed window of resident chunks.
+ *
+ * Only the chunks within {@code radius} chunks of the current focus are kept in memory.
+ * They live in a toroidal slot array of (2 * radius + 1)^2 entries, so memory is bounded no matter
+ * how large the world is and a tile lookup is two shifts and an array read with no hashing or boxing.
+ * Chunks are read from the ChunkSource on a single background thread; until a chunk has arrived
+ * its tiles read as -1 and the game thread never waits on disk.
+ * Each chunk stores a short array for every layer (see MapLayer) that has something on it, none for
+ * the empty ones, and carries a bitset of its solid cells, built on the loader thread as it arrives.
+ * Tiles can be changed at run time; the tiles of edited chunks are kept aside when the chunk is
+ * evicted and used instead of the source when it comes back, so edits survive streaming.
+ * Edited chunks can be handed out for saving without copying them: a chunk handed out is copied
+ * the next time it is edited, so the saved arrays never change under the thread writing them.
+ */
+public class ChunkedWorld implements CollisionMap {
+    /**
+     * Receives the tiles of an edited chunk, one array per layer and null for empty layers (see WorldChunk).
+     */
+    public interface ChunkVisitor {
+        void chunk(int chunkCol, int chunkRow, short[][] layers);
+    }
+
+    public static final int CHUNK_SHIFT = 5;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 32x32 tiles per chunk
+    public static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ChunkSource source;
+    private final int width;
+    private final int height;
+    private final int chunkCols;
+    private final int chunkRows;
+    private final int radius;
+    private final int span;
+    // Which tile ids block movement
+    private final boolean[] solidTiles;
+    // Layers the source provides, and layers a chunk can hold (never fewer than MapLayer.COUNT)
+    private final int sourceLayers;
+    private final int planes;
+    // Loader thread only: what the source writes a chunk into before it is split into layers
+    private final short[] packed;
+
+    // Resident chunk for each slot, written by the loader and read by the game/render threads
+    private final AtomicReferenceArray<WorldChunk> slots;
+    // Key of the chunk each slot is supposed to hold, -1 if none. Loads for keys no longer wanted are dropped.
+    private final AtomicLongArray wanted;
+
+    // One loader thread: loads complete in the order they were requested, which keeps slot handover simple
+    private final ExecutorService loader;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ChunkStats stats = new ChunkStats();
+    // Bumped whenever a chunk arrives or is evicted so caches of the tile layer know to refresh
+    private final AtomicLong version = new AtomicLong();
+    // Like version, but not bumped by single tile edits (those are reported to the listeners instead)
+    private final AtomicLong residencyVersion = new AtomicLong();
+    // Counts chunk arrivals and evictions; each slot holds the count right after its latest one
+    private final AtomicLong stamp = new AtomicLong();
+    private final AtomicLongArray slotStamps;
+
+    // Tiles of every chunk changed by setTile, by chunk key. Grows by one chunk per edited chunk.
+    private final ConcurrentHashMap<Long, short[][]> edited = new ConcurrentHashMap<>();
+    // Edited chunks not handed to takeUnsavedEdits yet, and chunks whose tiles were handed out and must be
+    // copied before they change again. Game thread only.
+    private final Set<Long> unsaved = new HashSet<>();
+    private final Set<Long> shared = new HashSet<>();
+    private final CopyOnWriteArrayList<TileListener> listeners = new CopyOnWriteArrayList<>();
+
+    private int focusChunkCol = Integer.MIN_VALUE;
+    private int focusChunkRow = Integer.MIN_VALUE;
+
+    /**
+     * @param source Where chunk data is read from
+     * @param radius How many chunks around the focus chunk stay resident in each direction
+     */
+    public ChunkedWorld(ChunkSource source, int radius) {
+        this(source, radius, new boolean[0]);
+    }
+
+    /**
+     * @param source Where chunk data is read from
+     * @param radius How many chunks around the focus chunk stay resident in each direction
+     * @param solidTiles Which tile ids block movement, indexed by tile id
+     */
+    public ChunkedWorld(ChunkSource source, int radius, boolean[] solidTiles) {
+        this.source = source;
+        this.solidTiles = solidTiles.clone();
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.sourceLayers = Math.max(1, source.getLayers());
+        this.planes = Math.max(MapLayer.COUNT, sourceLayers);
+        this.packed = new short[sourceLayers * WorldChunk.AREA];
+        this.chunkCols = (width + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.chunkRows = (height + CHUNK_MASK) >> CHUNK_SHIFT;
+        this.radius = radius;
+        this.span = 2 * radius + 1;
+
+        slots = new AtomicReferenceArray<>(span * span);
+        wanted = new AtomicLongArray(span * span);
+        slotStamps = new AtomicLongArray(span * span);
+        for (int i = 0; i < span * span; i++) {
+            wanted.set(i, -1);
+        }
+
+        loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "chunk-loader");
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        });
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the ground tile id at a world position.
+     * Safe to call from any thread.
+     *
+     * @return The tile id, or -1 if the position is outside the world or its chunk isn't loaded yet
+     */
+    public int getTile(int col, int row) {
+        return getTile(MapLayer.GROUND, col, row);
+    }
+
+    /**
+     * Returns the tile id on one layer at a world position. Safe to call from any thread.
+     *
+     * @return The tile id, or -1 if the cell is empty on that layer, outside the world or not loaded yet
+     */
+    public int getTile(int layer, int col, int row) {
+        if (col < 0 || row < 0 || col >= width || row >= height) {
+            return -1;
+        }
+        int chunkCol = col >> CHUNK_SHIFT;
+        int chunkRow = row >> CHUNK_SHIFT;
+        WorldChunk chunk = slots.get(slotIndex(chunkCol, chunkRow));
+        if (chunk == null || chunk.chunkCol != chunkCol || chunk.chunkRow != chunkRow) {
+            return -1;
+        }
+        return chunk.getTile(layer, ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK));
+    }
+
+    /**
+     * Copies a run of tiles of one row of a layer, looking each chunk up once and copying its part
+     * of the row in one go. Renderers use this instead of one getTile call per cell.
+     * Safe to call from any thread.
+     *
+     * @param dest Receives count tile ids, -1 where a cell is empty, outside the world or not loaded
+     */
+    public void getRow(int layer, int col, int row, int count, short[] dest) {
+        int i = 0;
+        if (row < 0 || row >= height) {
+            Arrays.fill(dest, 0, count, (short) -1);
+            return;
+        }
+        int chunkRow = row >> CHUNK_SHIFT;
+        int rowStart = (row & CHUNK_MASK) << CHUNK_SHIFT;
+        while (i < count) {
+            int c = col + i;
+            if (c < 0 || c >= width) {
+                dest[i++] = -1;
+                continue;
+            }
+            int chunkCol = c >> CHUNK_SHIFT;
+            // Cells up to the end of this chunk, the world or the run, whichever comes first
+            int span = Math.min(count - i, Math.min(CHUNK_SIZE - (c & CHUNK_MASK), width - c));
+            WorldChunk chunk = slots.get(slotIndex(chunkCol, chunkRow));
+            short[] tiles = chunk == null || chunk.chunkCol != chunkCol || chunk.chunkRow != chunkRow
+                    ? null : chunk.layers[layer];
+            if (tiles == null) {
+                Arrays.fill(dest, i, i + span, (short) -1);
+            } else {
+                System.arraycopy(tiles, rowStart + (c & CHUNK_MASK), dest, i, span);
+            }
+            i += span;
+        }
+    }
+
+    /**
+     * Tells whether a tile blocks movement. Safe to call from any thread.
+     * Positions outside the world and in chunks that aren't loaded yet are solid,
+     * so nothing can walk into a part of the world it can't see.
+     */
+    @Override
+    public boolean isSolid(int col, int row) {
+        if (col < 0 || row < 0 || col >= width || row >= height) {
+            return true;
+        }
+        int chunkCol = col >> CHUNK_SHIFT;
+        int chunkRow = row >> CHUNK_SHIFT;
+        WorldChunk chunk = slots.get(slotIndex(chunkCol, chunkRow));
+        if (chunk == null || chunk.chunkCol != chunkCol || chunk.chunkRow != chunkRow) {
+            return true;
+        }
+        int bit = ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+        return (chunk.solid[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Changes one ground tile.
+     *
+     * @see #setTile(int, int, int, int)
+     */
+    public boolean setTile(int col, int row, int tile) {
+        return setTile(MapLayer.GROUND, col, row, tile);
+    }
+
+    /**
+     * Changes one tile of a layer. Only tiles of resident chunks can be changed.
+     * Must be called from the game thread; listeners are told before this returns.
+     *
+     * @param tile New tile id, -1 to clear the cell
+     * @return true if the tile changed
+     */
+    public boolean setTile(int layer, int col, int row, int tile) {
+        if (tile < -1 || tile > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Tile id " + tile + " doesn't fit in a map cell");
+        }
+        if (col < 0 || row < 0 || col >= width || row >= height) {
+            return false;
+        }
+        int chunkCol = col >> CHUNK_SHIFT;
+        int chunkRow = row >> CHUNK_SHIFT;
+        int slot = slotIndex(chunkCol, chunkRow);
+        WorldChunk chunk = slots.get(slot);
+        if (chunk == null || chunk.chunkCol != chunkCol || chunk.chunkRow != chunkRow) {
+            return false;
+        }
+        int cell = ((row & CHUNK_MASK) << CHUNK_SHIFT) | (col & CHUNK_MASK);
+        int oldTile = chunk.getTile(layer, cell);
+        if (oldTile == tile) {
+            return false;
+        }
+        long key = key(chunkCol, chunkRow);
+        if (shared.remove(key)) {
+            // A save may still be reading these tiles, so the chunk changes a copy of its own
+            chunk = new WorldChunk(chunkCol, chunkRow, WorldChunk.copy(chunk.layers), chunk.solid);
+            slots.set(slot, chunk);
+            edited.put(key, chunk.layers);
+        }
+        if (chunk.layers[layer] == null) {
+            // First tile on an empty layer: the chunk is replaced rather than changed so other threads
+            // never see the new layer before it is filled
+            short[][] layers = chunk.layers.clone();
+            layers[layer] = new short[WorldChunk.AREA];
+            Arrays.fill(layers[layer], (short) -1);
+            chunk = new WorldChunk(chunkCol, chunkRow, layers, chunk.solid);
+            slots.set(slot, chunk);
+            edited.put(key, layers);
+        }
+        chunk.layers[layer][cell] = (short) tile;
+        long bit = 1L << cell;
+        if (WorldChunk.isSolid(chunk.layers, cell, solidTiles)) {
+            chunk.solid[cell >> 6] |= bit;
+        } else {
+            chunk.solid[cell >> 6] &= ~bit;
+        }
+        edited.putIfAbsent(key, chunk.layers);
+        unsaved.add(key);
+        version.incrementAndGet();
+
+        for (TileListener listener : listeners) {
+            listener.tileChanged(layer, col, row, oldTile, tile);
+        }
+        return true;
+    }
+
+    /**
+     * Hands every chunk edited since the last call to the visitor, e.g. to save them. The arrays handed
+     * out never change afterwards, so they can be read on another thread while the game goes on.
+     * Must be called from the game thread.
+     *
+     * @return Number of chunks handed out
+     */
+    public int takeUnsavedEdits(ChunkVisitor visitor) {
+        for (long key : unsaved) {
+            visitor.chunk((int) key, (int) (key >> 32), edited.get(key));
+            shared.add(key);
+        }
+        int count = unsaved.size();
+        unsaved.clear();
+        return count;
+    }
+
+    /**
+     * Puts back the tiles of a chunk edited in an earlier session, e.g. read from a save. They replace
+     * what the source has for the chunk from now on and count as saved. Must be called from the game thread.
+     *
+     * @param layers The tiles of each layer, null for empty ones; the world keeps the arrays but never changes them
+     */
+    public void restoreChunk(int chunkCol, int chunkRow, short[][] layers) {
+        if (chunkCol < 0 || chunkRow < 0 || chunkCol >= chunkCols || chunkRow >= chunkRows) {
+            return;
+        }
+        short[][] tiles = layers.length == planes ? layers
+                // Saved with a different number of layers: keep the ones that exist now, the rest stay empty
+                : Arrays.copyOf(layers, planes);
+        long key = key(chunkCol, chunkRow);
+        edited.put(key, tiles);
+        unsaved.remove(key);
+        shared.add(key);
+
+        int slot = slotIndex(chunkCol, chunkRow);
+        WorldChunk chunk = slots.get(slot);
+        if (chunk != null && chunk.chunkCol == chunkCol && chunk.chunkRow == chunkRow) {
+            slots.set(slot, new WorldChunk(chunkCol, chunkRow, tiles, WorldChunk.buildSolid(tiles, solidTiles)));
+            chunkChanged(slot);
+        } else if (wanted.get(slot) == key) {
+            // On its way from the source: load it again after that, which installs these tiles instead
+            pending.incrementAndGet();
+            loader.execute(() -> load(slot, chunkCol, chunkRow, key));
+        }
+    }
+
+    public void addTileListener(TileListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeTileListener(TileListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Moves the resident window so it is centered on the chunk containing the given tile.
+     * Chunks that drop out of the window are evicted and missing ones are queued for loading,
+     * nearest first. Cheap to call every tick: it returns immediately while the focus chunk is unchanged.
+     * Must be called from the game thread.
+     */
+    public void updateFocus(int col, int row) {
+        int chunkCol = Math.max(0, Math.min(chunkCols - 1, col >> CHUNK_SHIFT));
+        int chunkRow = Math.max(0, Math.min(chunkRows - 1, row >> CHUNK_SHIFT));
+        if (chunkCol == focusChunkCol && chunkRow == focusChunkRow) {
+            return;
+        }
+        focusChunkCol = chunkCol;
+        focusChunkRow = chunkRow;
+
+        // Walk outward ring by ring so the chunks closest to the camera arrive first
+        for (int ring = 0; ring <= radius; ring++) {
+            for (int dy = -ring; dy <= ring; dy++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    if (Math.max(Math.abs(dx), Math.abs(dy)) == ring) {
+                        requestChunk(chunkCol + dx, chunkRow + dy);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Centers the window on a tile and blocks until every chunk in it has been loaded.
+     * Used before the first frame so the game doesn't start on a blank screen.
+     */
+    public void preload(int col, int row) {
+        updateFocus(col, row);
+        try {
+            // The loader runs tasks in order, so once this no-op finishes everything queued before it has too
+            loader.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Blocks until every chunk requested so far has been loaded.
+     * Used when the game has to behave the same on every run, e.g. while recording or replaying input,
+     * because collision treats chunks that haven't arrived yet as solid.
+     */
+    public void awaitLoads() {
+        if (pending.get() == 0) {
+            return;
+        }
+        try {
+            loader.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void requestChunk(int chunkCol, int chunkRow) {
+        if (chunkCol < 0 || chunkRow < 0 || chunkCol >= chunkCols || chunkRow >= chunkRows) {
+            return;
+        }
+        int slot = slotIndex(chunkCol, chunkRow);
+        long key = key(chunkCol, chunkRow);
+        if (wanted.get(slot) == key) {
+            return; // Already resident or on its way
+        }
+
+        // The slot belonged to a chunk that has left the window
+        if (slots.getAndSet(slot, null) != null) {
+            stats.evictions.incrementAndGet();
+            chunkChanged(slot);
+        }
+        wanted.set(slot, key);
+        pending.incrementAndGet();
+        loader.execute(() -> load(slot, chunkCol, chunkRow, key));
+    }
+
+    // Runs on the loader thread
+    private void load(int slot, int chunkCol, int chunkRow, long key) {
+        try {
+            if (wanted.get(slot) != key) {
+                stats.staleSkips.incrementAndGet();
+                return;
+            }
+
+            short[][] tiles = edited.get(key);
+            if (tiles == null) {
+                long start = System.nanoTime();
+                try {
+                    source.loadChunk(chunkCol, chunkRow, CHUNK_SIZE, packed);
+                    tiles = WorldChunk.split(packed, sourceLayers, planes);
+                    stats.recordLoad(System.nanoTime() - start);
+                } catch (IOException | RuntimeException e) {
+                    // Install an empty chunk so a broken region shows as void instead of being retried every frame
+                    stats.failures.incrementAndGet();
+                    System.err.println("Error loading chunk " + chunkCol + "," + chunkRow + ": " + e.getMessage());
+                    tiles = new short[planes][];
+                }
+            }
+
+            if (wanted.get(slot) == key) {
+                slots.set(slot, new WorldChunk(chunkCol, chunkRow, tiles, WorldChunk.buildSolid(tiles, solidTiles)));
+                chunkChanged(slot);
+            } else {
+                stats.staleSkips.incrementAndGet();
+            }
+        } finally {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return A counter that changes every time the set of resident chunks changes
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return A counter that changes every time a chunk arrives or is evicted, but not on tile edits
+     */
+    public long getResidencyVersion() {
+        return residencyVersion.get();
+    }
+
+    /**
+     * @return A counter that goes up with every chunk arrival and eviction. Read it before working something
+     *         out from the tiles, and pass it to changedSince later to learn whether that is out of date.
+     */
+    public long getStamp() {
+        return stamp.get();
+    }
+
+    /**
+     * Tells whether a chunk touching a rectangle of tiles arrived or was evicted after getStamp() returned the
+     * given value. Chunks sharing a slot of the window are tracked together, so this can also be true because a
+     * chunk elsewhere came or went; it is never false when one of these did. Safe to call from any thread.
+     */
+    public boolean changedSince(long since, int col, int row, int cols, int rows) {
+        int firstCol = Math.max(0, col >> CHUNK_SHIFT);
+        int firstRow = Math.max(0, row >> CHUNK_SHIFT);
+        int lastCol = Math.min(chunkCols - 1, (col + cols - 1) >> CHUNK_SHIFT);
+        int lastRow = Math.min(chunkRows - 1, (row + rows - 1) >> CHUNK_SHIFT);
+        for (int chunkRow = firstRow; chunkRow <= lastRow; chunkRow++) {
+            for (int chunkCol = firstCol; chunkCol <= lastCol; chunkCol++) {
+                if (slotStamps.get(slotIndex(chunkCol, chunkRow)) > since) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Stamps the slot before bumping the versions, so whoever sees a new version also sees the stamp
+    private void chunkChanged(int slot) {
+        slotStamps.set(slot, stamp.incrementAndGet());
+        version.incrementAndGet();
+        residencyVersion.incrementAndGet();
+    }
+
+    public ChunkStats getStats() {
+        int resident = 0;
+        long bytes = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            WorldChunk chunk = slots.get(i);
+            if (chunk != null) {
+                resident++;
+                bytes += chunk.getMemoryBytes();
+            }
+        }
+        stats.resident = resident;
+        stats.residentBytes = bytes;
+        stats.pending = pending.get();
+        return stats;
+    }
+
+    /**
+     * Stops the loader thread and releases the chunk source.
+     */
+    public void close() {
+        loader.shutdownNow();
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int slotIndex(int chunkCol, int chunkRow) {
+        return (chunkRow % span) * span + (chunkCol % span);
+    }
+
+    private static long key(int chunkCol, int chunkRow) {
+        return ((long) chunkRow << 32) | (chunkCol & 0xffffffffL);
+    }
+}
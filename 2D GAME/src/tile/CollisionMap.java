@@ -0,0 +1,12 @@
+package tile;
+
+/**
+ * Answers whether a tile blocks movement.
+ */
+public interface CollisionMap {
+
+    /**
+     * @return true if the tile at the given world position can't be walked through
+     */
+    boolean isSolid(int col, int row);
+}
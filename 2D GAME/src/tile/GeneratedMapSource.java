@@ -0,0 +1,67 @@
+package tile;
+
+/**
+ * ChunkSource that makes up a world of any size from a seed instead of reading a file.
+ * Used for benchmarks and stress tests of worlds far larger than the hand-made maps.
+ * The same seed and position always give the same tile.
+ */
+public class GeneratedMapSource implements ChunkSource {
+    private final int width;
+    private final int height;
+    private final long seed;
+    private final int tileTypes;
+
+    /**
+     * @param tileTypes Tile ids are picked from 0 to tileTypes - 1; at least 2, the floor and something on it
+     */
+    public GeneratedMapSource(int width, int height, long seed, int tileTypes) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("A generated map must be at least 1x1 tiles, got " + width + "x" + height);
+        }
+        if (tileTypes < 2) {
+            throw new IllegalArgumentException("A generated map needs at least 2 tile types, got " + tileTypes);
+        }
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.tileTypes = tileTypes;
+    }
+
+    public int getTileAt(int col, int row) {
+        // Border of the last tile type, scattered patches inside
+        if (col == 0 || row == 0 || col == width - 1 || row == height - 1) {
+            return tileTypes - 1;
+        }
+        long h = seed ^ ((long) col * 0x9E3779B97F4A7C15L) ^ ((long) row * 0xC2B2AE3D27D4EB4FL);
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        int roll = (int) ((h >>> 1) % 100);
+        return roll < 80 ? 0 : 1 + (int) ((h >>> 33) % (tileTypes - 1));
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) {
+        for (int r = 0; r < chunkSize; r++) {
+            int row = chunkRow * chunkSize + r;
+            for (int c = 0; c < chunkSize; c++) {
+                int col = chunkCol * chunkSize + c;
+                dest[r * chunkSize + c] = (short) ((col < width && row < height) ? getTileAt(col, row) : -1);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,85 @@
+package tile;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Stacks single-layer sources into one multi-layer map, e.g. a text map with its decoration and overlay
+ * kept in separate files. Only the first layer of each source is used. The ground source sets the size of
+ * the map; a missing layer is left empty (-1).
+ */
+public class LayeredMapSource implements ChunkSource {
+    private final ChunkSource[] layers;
+    private final int count;
+    private short[] buffer = new short[0];
+
+    /**
+     * @param layers One source per layer (see MapLayer), starting at the ground. Entries after the first may be null.
+     */
+    public LayeredMapSource(ChunkSource... layers) {
+        this.layers = layers.clone();
+        int count = layers.length;
+        while (count > 1 && layers[count - 1] == null) {
+            count--;
+        }
+        this.count = count;
+    }
+
+    @Override
+    public int getWidth() {
+        return layers[0].getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return layers[0].getHeight();
+    }
+
+    @Override
+    public int getLayers() {
+        return count;
+    }
+
+    @Override
+    public synchronized void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) throws IOException {
+        int area = chunkSize * chunkSize;
+        layers[0].loadChunk(chunkCol, chunkRow, chunkSize, dest);
+        for (int layer = 1; layer < count; layer++) {
+            if (layers[layer] == null) {
+                Arrays.fill(dest, layer * area, (layer + 1) * area, (short) -1);
+                continue;
+            }
+            // Each layer source fills its own ground plane, so load it aside and copy that plane into place
+            int needed = layers[layer].getLayers() * area;
+            if (buffer.length < needed) {
+                buffer = new short[needed];
+            }
+            layers[layer].loadChunk(chunkCol, chunkRow, chunkSize, buffer);
+            System.arraycopy(buffer, 0, dest, layer * area, area);
+            // Cells beyond the ground's edge stay empty even if the layer file is bigger
+            int inside = Math.max(0, Math.min(chunkSize, getWidth() - chunkCol * chunkSize));
+            for (int r = 0; r < chunkSize; r++) {
+                int firstOutside = chunkRow * chunkSize + r < getHeight() ? inside : 0;
+                Arrays.fill(dest, layer * area + r * chunkSize + firstOutside, layer * area + (r + 1) * chunkSize, (short) -1);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ChunkSource layer : layers) {
+            if (layer == null) {
+                continue;
+            }
+            try {
+                layer.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
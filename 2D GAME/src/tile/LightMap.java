@@ -0,0 +1,719 @@
+package tile;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Darkness, lights and fog of war over the tile grid, drawn as one translucent layer over the scene.
+ *
+ * Every light works out once which tiles around it it reaches, with solid tiles (ChunkedWorld.isSolid,
+ * so tileSprite.collision and the collision layer) casting shadows, and keeps that field until it moves
+ * or a tile within its reach changes. The light of a tile is the ambient level plus what every light
+ * adds to it. With fog of war on, a viewer (the player) sees the tiles in its line of sight; tiles it
+ * has seen before stay dimly visible and the rest are black.
+ *
+ * The result lives in a window of tiles a little larger than the view, one pixel per tile, and is
+ * scaled up with smoothing into a cached image at the size tiles are drawn. Only the tiles whose light
+ * or visibility changed are shaded and scaled again; when the view scrolls, the cached image is moved
+ * and just the strip scrolled into view is filled in. Drawing a frame is one blit of that image.
+ *
+ * Apart from tileChanged, which ChunkedWorld calls on the game thread, everything must be called
+ * from one thread, the one that draws.
+ */
+public class LightMap implements TileListener {
+    // Furthest a light reaches, in tiles
+    public static final int MAX_RADIUS = 16;
+    public static final int FULL = 255;
+
+    // Light level of tiles the viewer has seen before but can't see now
+    private static final int REMEMBERED = 56;
+    // Tiles kept around the view on each side, so the window only moves every few tiles of scrolling
+    private static final int MARGIN = 6;
+    // More changed regions than this in one update are shaded as one
+    private static final int MAX_DIRTY = 64;
+
+    private ChunkedWorld world;
+    private long shownResidency = -1;
+    private int ambient = FULL;
+
+    // Lights by id; a radius of 0 marks a free id
+    private int lightCount;
+    private int[] lightCol = new int[16];
+    private int[] lightRow = new int[16];
+    private int[] lightRadius = new int[16];
+    private int[] lightLevel = new int[16];
+    private boolean[] lightStale = new boolean[16];
+    // World stamp (see ChunkedWorld.getStamp) each light field was worked out at
+    private long[] lightStamp = new long[16];
+    // What each light adds to the (2 * radius + 1)^2 tiles around it, null until worked out
+    private byte[][] lightField = new byte[16][];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    // Lights reaching into the window as of the last update, the only ones shading has to look at
+    private int[] near = new int[16];
+    private int nearCount;
+
+    // Fog of war: the viewer, the tiles it sees (like a light field) and every tile it has seen, by chunk
+    private boolean fog;
+    private int viewerCol;
+    private int viewerRow;
+    private int viewerRadius;
+    private byte[] viewerField;
+    private boolean viewerStale;
+    private long viewerStamp;
+    private final HashMap<Long, long[]> explored = new HashMap<>();
+
+    // Tiles the window covers
+    private int windowCol;
+    private int windowRow;
+    private int windowCols;
+    private int windowRows;
+    // Darkness of every tile of the window (FULL - light), row by row: the light map at one pixel per tile
+    private int[] darkness;
+    // The window scaled to tileSize pixels per tile, black with the darkness as alpha
+    private BufferedImage scaled;
+    private int scaledTileSize;
+
+    // Tile regions (col, row, end col, end row in world tiles) to shade again
+    private int[] dirty = new int[4 * MAX_DIRTY];
+    private int dirtyCount;
+    private boolean allDirty = true;
+    // Columns of each window row to scale again, from unscaledFrom up to unscaledTo; overlapping changes
+    // merge, so a frame never scales more than the whole window
+    private int[] unscaledFrom = new int[0];
+    private int[] unscaledTo = new int[0];
+    private boolean anyUnscaled;
+    private boolean allUnscaled = true;
+
+    // Tiles changed on the game thread since the last update
+    private int[] editCols = new int[16];
+    private int[] editRows = new int[16];
+    private int edits;
+    private int[] takenCols = new int[16];
+    private int[] takenRows = new int[16];
+
+    private boolean[] solidScratch = new boolean[0];
+    private int[] sumScratch = new int[0];
+    private int[] pixelScratch = new int[0];
+    private int[] sampleScratch = new int[0];
+
+    // Light fields worked out and tiles shaded so far (observable for tuning)
+    private long lightUpdates;
+    private long tilesShaded;
+
+    /**
+     * @param level Light of a tile no light reaches, 0 (black) to FULL (daylight)
+     */
+    public void setAmbient(int level) {
+        level = Math.max(0, Math.min(FULL, level));
+        if (level != ambient) {
+            ambient = level;
+            allDirty = true;
+        }
+    }
+
+    /**
+     * @param radius How many tiles the light reaches, 1 to MAX_RADIUS
+     * @param level Light it gives its own tile, fading to nothing past its radius
+     * @return The light's id
+     */
+    public int addLight(int col, int row, int radius, int level) {
+        int id;
+        if (freeCount > 0) {
+            id = freeIds[--freeCount];
+        } else {
+            if (lightCount == lightCol.length) {
+                int size = lightCount * 2;
+                lightCol = Arrays.copyOf(lightCol, size);
+                lightRow = Arrays.copyOf(lightRow, size);
+                lightRadius = Arrays.copyOf(lightRadius, size);
+                lightLevel = Arrays.copyOf(lightLevel, size);
+                lightStale = Arrays.copyOf(lightStale, size);
+                lightStamp = Arrays.copyOf(lightStamp, size);
+                lightField = Arrays.copyOf(lightField, size);
+            }
+            id = lightCount++;
+        }
+        lightCol[id] = col;
+        lightRow[id] = row;
+        lightRadius[id] = Math.max(1, Math.min(MAX_RADIUS, radius));
+        lightLevel[id] = Math.max(0, Math.min(FULL, level));
+        lightField[id] = null;
+        lightStale[id] = true;
+        return id;
+    }
+
+    public void moveLight(int id, int col, int row) {
+        if (lightCol[id] == col && lightRow[id] == row) {
+            return;
+        }
+        clearLight(id);
+        lightCol[id] = col;
+        lightRow[id] = row;
+        lightStale[id] = true;
+    }
+
+    public void removeLight(int id) {
+        clearLight(id);
+        lightRadius[id] = 0;
+        lightField[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * Turns fog of war on or off. With it on, only what the viewer can see is lit.
+     */
+    public void setFog(boolean fog) {
+        if (fog != this.fog) {
+            this.fog = fog;
+            viewerStale = true;
+            allDirty = true;
+        }
+    }
+
+    /**
+     * Moves the viewer fog of war is seen from.
+     *
+     * @param radius How many tiles the viewer can see, 1 to MAX_RADIUS
+     */
+    public void setViewer(int col, int row, int radius) {
+        radius = Math.max(1, Math.min(MAX_RADIUS, radius));
+        if (col == viewerCol && row == viewerRow && radius == viewerRadius) {
+            return;
+        }
+        if (viewerField != null) {
+            addDirty(viewerCol - viewerRadius, viewerRow - viewerRadius, viewerRadius);
+        }
+        viewerCol = col;
+        viewerRow = row;
+        viewerRadius = radius;
+        viewerStale = true;
+    }
+
+    /**
+     * @return true if the viewer has ever seen the tile
+     */
+    public boolean isExplored(int col, int row) {
+        long[] bits = explored.get(chunkKey(col, row));
+        int bit = ((row & ChunkedWorld.CHUNK_MASK) << ChunkedWorld.CHUNK_SHIFT) | (col & ChunkedWorld.CHUNK_MASK);
+        return bits != null && (bits[bit >> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * Works everything out again on the next update, e.g. after tile collision flags change.
+     */
+    public void invalidate() {
+        for (int id = 0; id < lightCount; id++) {
+            lightStale[id] = true;
+        }
+        viewerStale = true;
+        allDirty = true;
+    }
+
+    @Override
+    public synchronized void tileChanged(int layer, int col, int row, int oldTile, int newTile) {
+        if (edits == editCols.length) {
+            editCols = Arrays.copyOf(editCols, edits * 2);
+            editRows = Arrays.copyOf(editRows, edits * 2);
+        }
+        editCols[edits] = col;
+        editRows[edits] = row;
+        edits++;
+    }
+
+    /**
+     * Brings the light of the tiles around a view up to date.
+     *
+     * @param world World whose solid tiles block light; switching worlds starts over
+     * @param viewCol First tile column in view
+     * @param viewRow First tile row in view
+     * @param viewCols Columns in view, including one scrolled partly into view
+     * @param viewRows Rows in view, likewise
+     */
+    public void update(ChunkedWorld world, int viewCol, int viewRow, int viewCols, int viewRows) {
+        if (world != this.world) {
+            if (this.world != null) {
+                this.world.removeTileListener(this);
+            }
+            this.world = world;
+            explored.clear();
+            synchronized (this) {
+                edits = 0;
+            }
+            if (world != null) {
+                world.addTileListener(this);
+                shownResidency = world.getResidencyVersion();
+            }
+            invalidate();
+        }
+        if (world == null) {
+            return;
+        }
+        // Chunks that aren't loaded count as solid, so a field reaching into one that came or went is out of date
+        long stamp = world.getStamp();
+        long residency = world.getResidencyVersion();
+        if (residency != shownResidency) {
+            shownResidency = residency;
+            takeResidencyChanges();
+        }
+        takeEdits();
+        moveWindow(viewCol, viewRow, viewCols, viewRows);
+
+        int windowEndCol = windowCol + windowCols;
+        int windowEndRow = windowRow + windowRows;
+        nearCount = 0;
+        for (int id = 0; id < lightCount; id++) {
+            int r = lightRadius[id];
+            // Lights away from the window are left alone until it comes near them
+            if (r == 0 || lightCol[id] + r < windowCol || lightCol[id] - r >= windowEndCol
+                    || lightRow[id] + r < windowRow || lightRow[id] - r >= windowEndRow) {
+                continue;
+            }
+            if (lightStale[id]) {
+                lightField[id] = cast(lightCol[id], lightRow[id], r, lightLevel[id], true, lightField[id]);
+                lightStale[id] = false;
+                lightStamp[id] = stamp;
+                lightUpdates++;
+                addDirty(lightCol[id] - r, lightRow[id] - r, r);
+            }
+            if (nearCount == near.length) {
+                near = Arrays.copyOf(near, nearCount * 2);
+            }
+            near[nearCount++] = id;
+        }
+        if (fog && viewerStale) {
+            viewerField = cast(viewerCol, viewerRow, viewerRadius, FULL, false, viewerField);
+            viewerStale = false;
+            viewerStamp = stamp;
+            explore();
+            addDirty(viewerCol - viewerRadius, viewerRow - viewerRadius, viewerRadius);
+        }
+
+        if (allDirty) {
+            shade(windowCol, windowRow, windowEndCol, windowEndRow);
+        } else {
+            for (int i = 0; i < dirtyCount * 4; i += 4) {
+                shade(Math.max(dirty[i], windowCol), Math.max(dirty[i + 1], windowRow),
+                        Math.min(dirty[i + 2], windowEndCol), Math.min(dirty[i + 3], windowEndRow));
+            }
+        }
+        allDirty = false;
+        dirtyCount = 0;
+    }
+
+    /**
+     * Brings the light up to date and draws it over the view whose top-left corner is at the given world pixel.
+     *
+     * @param tileSize Size tiles are drawn at; the camera is in pixels of that size
+     */
+    public void draw(Graphics2D g2, ChunkedWorld world, int cameraX, int cameraY, int viewWidth, int viewHeight,
+                     int tileSize) {
+        int viewCol = Math.floorDiv(cameraX, tileSize);
+        int viewRow = Math.floorDiv(cameraY, tileSize);
+        update(world, viewCol, viewRow, (viewWidth + tileSize - 1) / tileSize + 1,
+                (viewHeight + tileSize - 1) / tileSize + 1);
+        if (world == null) {
+            return;
+        }
+        scale(tileSize);
+        int x = cameraX - windowCol * tileSize;
+        int y = cameraY - windowRow * tileSize;
+        g2.drawImage(scaled, 0, 0, viewWidth, viewHeight, x, y, x + viewWidth, y + viewHeight, null);
+    }
+
+    /**
+     * @return Light of a tile in the window as last shaded, 0 to FULL, or -1 outside the window
+     */
+    public int getLight(int col, int row) {
+        if (darkness == null || col < windowCol || row < windowRow || col >= windowCol + windowCols
+                || row >= windowRow + windowRows) {
+            return -1;
+        }
+        return FULL - darkness[(row - windowRow) * windowCols + col - windowCol];
+    }
+
+    public int getLightCount() {
+        return lightCount - freeCount;
+    }
+
+    public long getLightUpdates() {
+        return lightUpdates;
+    }
+
+    public long getTilesShaded() {
+        return tilesShaded;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lights=%d updates=%d shaded=%d", getLightCount(), lightUpdates, tilesShaded);
+    }
+
+    // The tiles a light lit before it moved or went away need shading again
+    private void clearLight(int id) {
+        if (lightField[id] != null && !lightStale[id]) {
+            addDirty(lightCol[id] - lightRadius[id], lightRow[id] - lightRadius[id], lightRadius[id]);
+        }
+    }
+
+    // Marks the fields that reach into a chunk that arrived or left since they were worked out
+    private void takeResidencyChanges() {
+        for (int id = 0; id < lightCount; id++) {
+            int r = lightRadius[id];
+            if (r != 0 && !lightStale[id]
+                    && world.changedSince(lightStamp[id], lightCol[id] - r, lightRow[id] - r, 2 * r + 1, 2 * r + 1)) {
+                clearLight(id);
+                lightStale[id] = true;
+            }
+        }
+        if (fog && !viewerStale && world.changedSince(viewerStamp, viewerCol - viewerRadius, viewerRow - viewerRadius,
+                2 * viewerRadius + 1, 2 * viewerRadius + 1)) {
+            viewerStale = true;
+        }
+    }
+
+    private void takeEdits() {
+        int count;
+        synchronized (this) {
+            count = edits;
+            if (count == 0) {
+                return;
+            }
+            if (takenCols.length < count) {
+                takenCols = new int[editCols.length];
+                takenRows = new int[editRows.length];
+            }
+            System.arraycopy(editCols, 0, takenCols, 0, count);
+            System.arraycopy(editRows, 0, takenRows, 0, count);
+            edits = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            int col = takenCols[i];
+            int row = takenRows[i];
+            for (int id = 0; id < lightCount; id++) {
+                int r = lightRadius[id];
+                if (r != 0 && Math.abs(col - lightCol[id]) <= r && Math.abs(row - lightRow[id]) <= r) {
+                    clearLight(id);
+                    lightStale[id] = true;
+                }
+            }
+            if (fog && Math.abs(col - viewerCol) <= viewerRadius && Math.abs(row - viewerRow) <= viewerRadius) {
+                viewerStale = true;
+            }
+        }
+    }
+
+    // Keeps the view inside the window, moving the window and what it already holds when the view leaves it
+    private void moveWindow(int viewCol, int viewRow, int viewCols, int viewRows) {
+        int cols = viewCols + 2 * MARGIN;
+        int rows = viewRows + 2 * MARGIN;
+        if (cols != windowCols || rows != windowRows) {
+            windowCols = cols;
+            windowRows = rows;
+            windowCol = viewCol - MARGIN;
+            windowRow = viewRow - MARGIN;
+            darkness = new int[cols * rows];
+            unscaledFrom = new int[rows];
+            unscaledTo = new int[rows];
+            Arrays.fill(unscaledFrom, cols);
+            scaled = null;
+            allDirty = true;
+            return;
+        }
+        if (viewCol >= windowCol && viewRow >= windowRow && viewCol + viewCols <= windowCol + cols
+                && viewRow + viewRows <= windowRow + rows) {
+            return;
+        }
+
+        int newCol = viewCol - MARGIN;
+        int newRow = viewRow - MARGIN;
+        int dx = newCol - windowCol;
+        int dy = newRow - windowRow;
+        windowCol = newCol;
+        windowRow = newRow;
+        if (allDirty || Math.abs(dx) >= cols || Math.abs(dy) >= rows) {
+            allDirty = true;
+            return;
+        }
+
+        // Keep the tiles both windows cover, then shade the ones that came into it
+        int keepCols = cols - Math.abs(dx);
+        int keepRows = rows - Math.abs(dy);
+        int from = Math.max(dx, 0);
+        int to = Math.max(-dx, 0);
+        if (dy >= 0) {
+            for (int row = 0; row < keepRows; row++) {
+                System.arraycopy(darkness, (row + dy) * cols + from, darkness, row * cols + to, keepCols);
+            }
+        } else {
+            for (int row = keepRows - 1; row >= 0; row--) {
+                System.arraycopy(darkness, row * cols + from, darkness, (row - dy) * cols + to, keepCols);
+            }
+        }
+        if (scaled != null && !allUnscaled && !anyUnscaled) {
+            Graphics2D g = scaled.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.copyArea(from * scaledTileSize, Math.max(dy, 0) * scaledTileSize, keepCols * scaledTileSize,
+                    keepRows * scaledTileSize, -dx * scaledTileSize, -dy * scaledTileSize);
+            g.dispose();
+        } else {
+            allUnscaled = true;
+        }
+        int endCol = windowCol + cols;
+        int endRow = windowRow + rows;
+        if (dx > 0) {
+            addRegion(endCol - dx, windowRow, endCol, endRow);
+        } else if (dx < 0) {
+            addRegion(windowCol, windowRow, windowCol - dx, endRow);
+        }
+        if (dy > 0) {
+            addRegion(windowCol, endRow - dy, endCol, endRow);
+        } else if (dy < 0) {
+            addRegion(windowCol, windowRow, endCol, windowRow - dy);
+        }
+    }
+
+    // Works out the field a light or the viewer casts on the square of tiles within radius of it.
+    // A tile gets nothing if a solid tile lies on the line to it; solid tiles themselves are lit
+    // on the side facing the source. With fade the level falls off with distance, without it every
+    // tile in sight gets FULL.
+    private byte[] cast(int col, int row, int radius, int level, boolean fade, byte[] field) {
+        int side = 2 * radius + 1;
+        int area = side * side;
+        if (field == null || field.length != area) {
+            field = new byte[area];
+        }
+        if (solidScratch.length < area) {
+            solidScratch = new boolean[area];
+        }
+        boolean[] solid = solidScratch;
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                solid[y * side + x] = world.isSolid(col - radius + x, row - radius + y);
+            }
+        }
+        double reach = radius + 0.5;
+        for (int y = -radius; y <= radius; y++) {
+            for (int x = -radius; x <= radius; x++) {
+                double distance = Math.sqrt(x * x + y * y);
+                int value = 0;
+                if (distance <= reach && inSight(solid, side, radius, x, y)) {
+                    value = fade ? (int) (level * (1 - distance / (radius + 1))) : FULL;
+                }
+                field[(y + radius) * side + x + radius] = (byte) value;
+            }
+        }
+        return field;
+    }
+
+    // Walks the line from the middle of the square to x, y and tells whether it gets there before a solid tile
+    private static boolean inSight(boolean[] solid, int side, int radius, int toX, int toY) {
+        int stepX = toX > 0 ? 1 : -1;
+        int stepY = toY > 0 ? 1 : -1;
+        int dx = Math.abs(toX);
+        int dy = -Math.abs(toY);
+        int error = dx + dy;
+        int x = 0;
+        int y = 0;
+        while (x != toX || y != toY) {
+            if ((x != 0 || y != 0) && solid[(y + radius) * side + x + radius]) {
+                return false;
+            }
+            int e2 = 2 * error;
+            if (e2 >= dy) {
+                error += dy;
+                x += stepX;
+            }
+            if (e2 <= dx) {
+                error += dx;
+                y += stepY;
+            }
+        }
+        return true;
+    }
+
+    // Remembers every tile the viewer sees now as explored
+    private void explore() {
+        int side = 2 * viewerRadius + 1;
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                if (viewerField[y * side + x] == 0) {
+                    continue;
+                }
+                int col = viewerCol - viewerRadius + x;
+                int row = viewerRow - viewerRadius + y;
+                long[] bits = explored.computeIfAbsent(chunkKey(col, row),
+                        k -> new long[ChunkedWorld.CHUNK_SIZE * ChunkedWorld.CHUNK_SIZE / 64]);
+                int bit = ((row & ChunkedWorld.CHUNK_MASK) << ChunkedWorld.CHUNK_SHIFT) | (col & ChunkedWorld.CHUNK_MASK);
+                bits[bit >> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    // Works out the light of the tiles from col, row up to endCol, endRow (exclusive) and stores it as darkness
+    private void shade(int col, int row, int endCol, int endRow) {
+        int width = endCol - col;
+        int height = endRow - row;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (sumScratch.length < width * height) {
+            sumScratch = new int[width * height];
+        }
+        int[] sum = sumScratch;
+        Arrays.fill(sum, 0, width * height, ambient);
+
+        for (int i = 0; i < nearCount; i++) {
+            int id = near[i];
+            byte[] field = lightField[id];
+            int r = lightRadius[id];
+            int side = 2 * r + 1;
+            int left = lightCol[id] - r;
+            int top = lightRow[id] - r;
+            int fromCol = Math.max(col, left);
+            int toCol = Math.min(endCol, left + side);
+            int fromRow = Math.max(row, top);
+            int toRow = Math.min(endRow, top + side);
+            for (int y = fromRow; y < toRow; y++) {
+                int in = (y - top) * side - left;
+                int out = (y - row) * width - col;
+                for (int x = fromCol; x < toCol; x++) {
+                    sum[out + x] += field[in + x] & 0xFF;
+                }
+            }
+        }
+
+        int viewerSide = 2 * viewerRadius + 1;
+        for (int y = 0; y < height; y++) {
+            int cell = (row - windowRow + y) * windowCols + col - windowCol;
+            for (int x = 0; x < width; x++) {
+                int light = Math.min(FULL, sum[y * width + x]);
+                if (fog) {
+                    int vx = col + x - viewerCol + viewerRadius;
+                    int vy = row + y - viewerRow + viewerRadius;
+                    boolean seen = viewerField != null && vx >= 0 && vy >= 0 && vx < viewerSide && vy < viewerSide
+                            && viewerField[vy * viewerSide + vx] != 0;
+                    if (!seen) {
+                        light = isExplored(col + x, row + y) ? Math.min(light, REMEMBERED) : 0;
+                    }
+                }
+                darkness[cell + x] = FULL - light;
+            }
+        }
+        tilesShaded += (long) width * height;
+        addUnscaled(col - windowCol, row - windowRow, endCol - windowCol, endRow - windowRow);
+    }
+
+    // Scales the shaded tiles that changed into the cached image, smoothing between tile centres
+    private void scale(int tileSize) {
+        if (scaled == null || tileSize != scaledTileSize) {
+            // Premultiplied blends faster, and black pixels are the same either way
+            scaled = new BufferedImage(windowCols * tileSize, windowRows * tileSize, BufferedImage.TYPE_INT_ARGB_PRE);
+            scaledTileSize = tileSize;
+            allUnscaled = true;
+        }
+        if (allUnscaled) {
+            scale(0, 0, windowCols, windowRows);
+        } else if (anyUnscaled) {
+            for (int row = 0; row < windowRows; row++) {
+                if (unscaledFrom[row] < unscaledTo[row]) {
+                    scale(unscaledFrom[row], row, unscaledTo[row], row + 1);
+                }
+            }
+        }
+        Arrays.fill(unscaledFrom, windowCols);
+        Arrays.fill(unscaledTo, 0);
+        allUnscaled = false;
+        anyUnscaled = false;
+    }
+
+    // Bilinear scaling of the window tiles from col, row up to endCol, endRow (exclusive), in 8 bit fixed point.
+    // Writing through the raster keeps the image managed, so it can still be cached by the graphics device.
+    private void scale(int col, int row, int endCol, int endRow) {
+        int size = scaledTileSize;
+        int width = (endCol - col) * size;
+        if (pixelScratch.length < width) {
+            pixelScratch = new int[width];
+            sampleScratch = new int[width];
+        }
+        for (int x = 0; x < width; x++) {
+            sampleScratch[x] = sample(col * size + x);
+        }
+        WritableRaster raster = scaled.getRaster();
+        for (int y = row * size; y < endRow * size; y++) {
+            int rowSample = sample(y);
+            int upper = (rowSample >> 8) * windowCols;
+            int lower = Math.min((rowSample >> 8) + 1, windowRows - 1) * windowCols;
+            int weight = rowSample & 0xFF;
+            for (int x = 0; x < width; x++) {
+                int left = sampleScratch[x] >> 8;
+                int right = Math.min(left + 1, windowCols - 1);
+                int w = sampleScratch[x] & 0xFF;
+                int top = darkness[upper + left] * (256 - w) + darkness[upper + right] * w;
+                int bottom = darkness[lower + left] * (256 - w) + darkness[lower + right] * w;
+                pixelScratch[x] = ((top * (256 - weight) + bottom * weight) >> 16) << 24;
+            }
+            raster.setDataElements(col * size, y, width, 1, pixelScratch);
+        }
+    }
+
+    // Finds the tile whose centre is at or before pixel p and how far p is from it towards the next one,
+    // out of 256, packed as tile << 8 | weight. Past the outer tile centres the weight is 0.
+    private int sample(int p) {
+        int size = scaledTileSize;
+        // p + 0.5 - size / 2 in half pixels
+        int offset = 2 * p + 1 - size;
+        if (offset < 0) {
+            return 0;
+        }
+        return (offset / (2 * size)) << 8 | (offset % (2 * size)) * 256 / (2 * size);
+    }
+
+    // Marks the square of tiles a field covers, from col, row, to be shaded again
+    private void addDirty(int col, int row, int radius) {
+        addRegion(col, row, col + 2 * radius + 1, row + 2 * radius + 1);
+    }
+
+    private void addRegion(int col, int row, int endCol, int endRow) {
+        // Tiles outside the window aren't kept, and the window shades whatever it moves onto
+        if (allDirty || endCol <= windowCol || endRow <= windowRow || col >= windowCol + windowCols
+                || row >= windowRow + windowRows) {
+            return;
+        }
+        if (dirtyCount == MAX_DIRTY) {
+            allDirty = true;
+            return;
+        }
+        int i = dirtyCount++ * 4;
+        dirty[i] = col;
+        dirty[i + 1] = row;
+        dirty[i + 2] = endCol;
+        dirty[i + 3] = endRow;
+    }
+
+    // Marks window tiles to scale again. Smoothing blends each pixel with the tiles next to it, so the
+    // pixels up to half a tile around them change too: one more tile on each side is scaled with them.
+    private void addUnscaled(int col, int row, int endCol, int endRow) {
+        if (allUnscaled) {
+            return;
+        }
+        col = Math.max(col - 1, 0);
+        endCol = Math.min(endCol + 1, windowCols);
+        for (int r = Math.max(row - 1, 0); r < Math.min(endRow + 1, windowRows); r++) {
+            unscaledFrom[r] = Math.min(unscaledFrom[r], col);
+            unscaledTo[r] = Math.max(unscaledTo[r], endCol);
+        }
+        anyUnscaled = true;
+    }
+
+    private static long chunkKey(int col, int row) {
+        return ((long) (row >> ChunkedWorld.CHUNK_SHIFT) << 32) | ((col >> ChunkedWorld.CHUNK_SHIFT) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,65 @@
+package tile;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Converts text maps, with their layer files, to the binary map format.
+ *
+ * java tile.MapConverter                     converts every res/maps/*.txt to a .map next to it
+ * java tile.MapConverter in.txt [out.map]    converts one file
+ * java tile.MapConverter generated:WxH[:seed] out.map   writes a generated world, for testing huge maps
+ */
+public class MapConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            Path dir = Paths.get("res", "maps");
+            try (DirectoryStream<Path> maps = Files.newDirectoryStream(dir, "*.txt")) {
+                for (Path text : maps) {
+                    if (!tileManager.isLayerFile(text.getFileName().toString())) {
+                        convert(text, withExtension(text, ".map"));
+                    }
+                }
+            }
+            return;
+        }
+
+        if (args[0].startsWith("generated:")) {
+            if (args.length < 2) {
+                System.err.println("Usage: java tile.MapConverter generated:WIDTHxHEIGHT[:seed] out.map");
+                return;
+            }
+            long start = System.nanoTime();
+            try (ChunkSource source = tileManager.openMapSource(args[0])) {
+                BinaryMapFormat.write(source, Paths.get(args[1]));
+            }
+            report(args[0], Paths.get(args[1]), start);
+            return;
+        }
+
+        Path in = Paths.get(args[0]);
+        convert(in, args.length > 1 ? Paths.get(args[1]) : withExtension(in, ".map"));
+    }
+
+    public static void convert(Path text, Path binary) throws IOException {
+        long start = System.nanoTime();
+        try (ChunkSource source = tileManager.openTextMap(text.toString(), true)) {
+            BinaryMapFormat.write(source, binary);
+        }
+        report(text.toString(), binary, start);
+    }
+
+    private static void report(String from, Path to, long start) throws IOException {
+        System.out.printf("%s -> %s (%d bytes, %.1fms)%n", from, to, Files.size(to), (System.nanoTime() - start) / 1e6);
+    }
+
+    private static Path withExtension(Path file, String extension) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return file.resolveSibling((dot < 0 ? name : name.substring(0, dot)) + extension);
+    }
+}
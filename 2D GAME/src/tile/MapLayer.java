@@ -0,0 +1,26 @@
+package tile;
+
+/**
+ * Integer ids of the tile layers every chunk stores, in drawing order.
+ * A cell holding -1 has nothing on that layer.
+ */
+public final class MapLayer {
+    // The floor. -1 is void, which is also solid.
+    public static final int GROUND = 0;
+    // Drawn over the ground and under entities (flowers, rocks, rugs)
+    public static final int DECORATION = 1;
+    // Drawn over entities (tree tops, roofs)
+    public static final int OVERLAY = 2;
+    // Overrides what the tiles say about blocking: -1 uses the tiles' collision flags, 0 is walkable, anything else is solid
+    public static final int COLLISION = 3;
+    public static final int COUNT = 4;
+
+    private static final String[] NAMES = {"ground", "decoration", "overlay", "collision"};
+
+    private MapLayer() {
+    }
+
+    public static String name(int layer) {
+        return NAMES[layer];
+    }
+}
@@ -0,0 +1,206 @@
+package tile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * ChunkSource for the whitespace separated text maps in res/maps. Each file holds one layer;
+ * tileManager.openMapSource stacks the layer files of a map with a LayeredMapSource.
+ *
+ * The file is scanned once up front to remember where each non-empty line starts, which costs
+ * 8 bytes per row instead of holding the whole grid. A chunk load then reads just the rows it
+ * covers with positional reads, so even very large text maps stream with bounded memory.
+ */
+public class TextMapSource implements ChunkSource {
+    private final FileChannel channel;
+    private final long[] rowStart;
+    private final int[] rowLength;
+    private final int width;
+    private final int height;
+
+    public TextMapSource(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        long[] starts = new long[64];
+        int[] lengths = new int[64];
+        int rows = 0;
+        int firstRowColumns = 0;
+
+        // Scan in large blocks; a per-byte read() dominated opening big maps
+        try (InputStream in = Files.newInputStream(path)) {
+            byte[] block = new byte[1 << 16];
+            long pos = 0;
+            long lineStart = 0;
+            boolean lineHasData = false;
+            int columns = 0;
+            boolean inToken = false;
+            int n = 0;
+            int i = 0;
+            while (true) {
+                if (i == n) {
+                    n = in.read(block);
+                    i = 0;
+                }
+                int b = n < 0 ? -1 : block[i++];
+                if (b == '\n' || b == -1) {
+                    if (lineHasData) {
+                        if (rows == starts.length) {
+                            starts = Arrays.copyOf(starts, rows * 2);
+                            lengths = Arrays.copyOf(lengths, rows * 2);
+                        }
+                        starts[rows] = lineStart;
+                        lengths[rows] = (int) (pos - lineStart);
+                        if (rows == 0) {
+                            firstRowColumns = columns;
+                        }
+                        rows++;
+                    }
+                    if (b == -1) {
+                        break;
+                    }
+                    lineStart = pos + 1;
+                    lineHasData = false;
+                    inToken = false;
+                    columns = 0;
+                } else if (b == ' ' || b == '\t' || b == '\r') {
+                    inToken = false;
+                } else {
+                    lineHasData = true;
+                    if (!inToken && rows == 0) {
+                        columns++;
+                    }
+                    inToken = true;
+                }
+                pos++;
+            }
+        }
+
+        if (rows == 0) {
+            channel.close();
+            throw new IOException("Map " + path + " contains no rows");
+        }
+
+        this.rowStart = Arrays.copyOf(starts, rows);
+        this.rowLength = Arrays.copyOf(lengths, rows);
+        this.width = firstRowColumns;
+        this.height = rows;
+    }
+
+    /**
+     * Opens a map on the classpath, e.g. "/maps/map2.txt".
+     * Resources packed in a jar are copied to a temporary file first so they can be read by position.
+     */
+    public static TextMapSource fromResource(String resource) throws IOException {
+        URL url = TextMapSource.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("Map resource not found: " + resource);
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new TextMapSource(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+
+        Path temp = Files.createTempFile("map", ".txt");
+        temp.toFile().deleteOnExit();
+        try (InputStream in = url.openStream()) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new TextMapSource(temp);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void loadChunk(int chunkCol, int chunkRow, int chunkSize, short[] dest) throws IOException {
+        Arrays.fill(dest, 0, chunkSize * chunkSize, (short) -1);
+
+        int firstCol = chunkCol * chunkSize;
+        int lastCol = Math.min(width, firstCol + chunkSize); // exclusive
+        ByteBuffer buffer = null;
+
+        for (int r = 0; r < chunkSize; r++) {
+            int row = chunkRow * chunkSize + r;
+            if (row >= height) {
+                break;
+            }
+
+            int length = rowLength[row];
+            if (buffer == null || buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate(length);
+            }
+            buffer.clear().limit(length);
+            long position = rowStart[row];
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of map file at row " + row);
+                }
+            }
+
+            // Walk the tokens of the row, only parsing the ones that fall inside this chunk
+            byte[] bytes = buffer.array();
+            int col = 0;
+            int i = 0;
+            while (i < length && col < lastCol) {
+                byte b = bytes[i];
+                if (b == ' ' || b == '\t' || b == '\r') {
+                    i++;
+                    continue;
+                }
+                if (col < firstCol) {
+                    while (i < length && bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r') {
+                        i++;
+                    }
+                } else {
+                    // "-1" leaves the cell empty, which layers other than the ground use for most cells
+                    boolean empty = b == '-';
+                    if (empty) {
+                        i++;
+                    }
+                    int value = 0;
+                    while (i < length && bytes[i] != ' ' && bytes[i] != '\t' && bytes[i] != '\r') {
+                        int digit = bytes[i] - '0';
+                        if (digit < 0 || digit > 9) {
+                            throw new IOException("Invalid tile '" + (char) bytes[i] + "' at row " + row + ", column " + col);
+                        }
+                        value = value * 10 + digit;
+                        if (value > Short.MAX_VALUE) {
+                            throw new IOException("Tile id too large at row " + row + ", column " + col);
+                        }
+                        i++;
+                    }
+                    if (empty && value != 1) {
+                        throw new IOException("Invalid tile -" + value + " at row " + row + ", column " + col);
+                    }
+                    dest[r * chunkSize + (col - firstCol)] = (short) (empty ? -1 : value);
+                }
+                col++;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
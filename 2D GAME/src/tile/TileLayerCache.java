@@ -0,0 +1,301 @@
+package tile;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Arrays;
+
+/**
+ * Keeps the static tile layers (ground with its decoration on top) rendered in an accelerated off-screen surface.
+ *
+ * The tiles are scaled up once into compatible images and composed into a VolatileImage one tile
+ * larger than the view in each direction. Scrolling within a tile only moves where that surface is
+ * blitted, so drawing the background stays a single blit while the camera moves smoothly.
+ * The surface is redrawn when the world version or the tile under the view origin changes, and
+ * rebuilt when the graphics device loses or invalidates it.
+ * Animated tiles don't force a redraw: the surface remembers which of its cells hold animated tiles,
+ * and when the tile clock moves a type on to its next frame only those cells are drawn again.
+ */
+public class TileLayerCache {
+    private final tileManager tileM;
+
+    private GraphicsConfiguration config;
+    // Scaled image per tile id and frame: opaque ones for the ground, translucent ones for decoration
+    private Image[][] scaledTiles = new Image[0][];
+    private Image[][] scaledDecorations = new Image[0][];
+    private VolatileImage surface;
+    private BufferedImage fallback; // Used when the device can't give us a volatile image
+
+    // Size of the surface: the view plus one tile
+    private int tileSize;
+    private int width;
+    private int height;
+    private int originCol;
+    private int originRow;
+    private long renderedVersion = -1;
+    private boolean dirty = true;
+
+    // Cells of the surface holding animated tiles (index row * columns + col), with their ground and decoration ids
+    private int[] animatedCells = new int[64];
+    private short[] animatedGround = new short[64];
+    private short[] animatedDecoration = new short[64];
+    // One row of each layer, filled by ChunkedWorld.getRow
+    private short[] groundRow = new short[0];
+    private short[] decorationRow = new short[0];
+    private int animatedCount;
+    // Tick of the tile clock the surface shows
+    private long renderedTick;
+
+    // Number of times the layer had to be redrawn into the surface (observable for tuning)
+    private long rebuilds;
+    // Number of single animated cells redrawn
+    private long cellRedraws;
+
+    public TileLayerCache(tileManager tileM) {
+        this.tileM = tileM;
+    }
+
+    /**
+     * Draws the tile layer for a view starting at the given tile, refreshing the cached surface first if needed.
+     *
+     * @param g2 Destination graphics
+     * @param originCol First visible tile column
+     * @param originRow First visible tile row
+     * @param offsetX How many pixels of the first column are scrolled out of view (0 to tileSize - 1)
+     * @param offsetY How many pixels of the first row are scrolled out of view (0 to tileSize - 1)
+     * @param viewWidth View width in pixels
+     * @param viewHeight View height in pixels
+     * @param tick Tick of the tile animation clock to show
+     * @param tileSize Size tiles are drawn at
+     */
+    public void draw(Graphics2D g2, int originCol, int originRow, int offsetX, int offsetY, int viewWidth, int viewHeight,
+                     long tick, int tileSize) {
+        int width = viewWidth + tileSize;
+        int height = viewHeight + tileSize;
+        GraphicsConfiguration gc = g2.getDeviceConfiguration();
+        if (gc != config || tileSize != this.tileSize || width != this.width || height != this.height) {
+            config = gc;
+            this.tileSize = tileSize;
+            this.width = width;
+            this.height = height;
+            scaledTiles = new Image[0][];
+            scaledDecorations = new Image[0][];
+            releaseSurface();
+        }
+        if (originCol != this.originCol || originRow != this.originRow) {
+            this.originCol = originCol;
+            this.originRow = originRow;
+            dirty = true;
+        }
+        long version = tileM.world.getVersion();
+        if (version != renderedVersion) {
+            dirty = true;
+        }
+
+        if (surface == null && fallback == null) {
+            createSurface();
+        }
+
+        if (fallback != null) {
+            drawFallback(g2, version, tick, offsetX, offsetY);
+            return;
+        }
+
+        do {
+            int status = surface.validate(config);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                releaseSurface();
+                createSurface();
+                if (fallback != null) {
+                    drawFallback(g2, version, tick, offsetX, offsetY);
+                    return;
+                }
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                dirty = true;
+            }
+
+            if (dirty) {
+                render(surface.createGraphics(), version, tick);
+            } else if (tick != renderedTick) {
+                animate(surface.createGraphics(), tick);
+            }
+            g2.drawImage(surface, -offsetX, -offsetY, null);
+        } while (surface.contentsLost());
+    }
+
+    private void drawFallback(Graphics2D g2, long version, long tick, int offsetX, int offsetY) {
+        if (dirty) {
+            render(fallback.createGraphics(), version, tick);
+        } else if (tick != renderedTick) {
+            animate(fallback.createGraphics(), tick);
+        }
+        g2.drawImage(fallback, -offsetX, -offsetY, null);
+    }
+
+    /**
+     * Forces the next draw to redraw the cached surface, e.g. after tile images change.
+     */
+    public void invalidate() {
+        scaledTiles = new Image[0][];
+        scaledDecorations = new Image[0][];
+        dirty = true;
+    }
+
+    public long getRebuilds() {
+        return rebuilds;
+    }
+
+    public long getCellRedraws() {
+        return cellRedraws;
+    }
+
+    private void render(Graphics2D g, long version, long tick) {
+        animatedCount = 0;
+        TileRegistry tiles = tileM.tiles;
+        try {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+
+            int cols = (width + tileSize - 1) / tileSize;
+            int rows = (height + tileSize - 1) / tileSize;
+            if (groundRow.length < cols) {
+                groundRow = new short[cols];
+                decorationRow = new short[cols];
+            }
+            for (int row = 0; row < rows; row++) {
+                tileM.world.getRow(MapLayer.GROUND, originCol, originRow + row, cols, groundRow);
+                tileM.world.getRow(MapLayer.DECORATION, originCol, originRow + row, cols, decorationRow);
+                for (int col = 0; col < cols; col++) {
+                    short ground = groundRow[col];
+                    short decoration = decorationRow[col];
+                    drawCell(g, ground, decoration, col * tileSize, row * tileSize, tick);
+                    tileSprite a = tiles.get(ground);
+                    tileSprite b = tiles.get(decoration);
+                    if ((a != null && a.isAnimated()) || (b != null && b.isAnimated())) {
+                        addAnimatedCell(row * cols + col, ground, decoration);
+                    }
+                }
+            }
+        } finally {
+            g.dispose();
+        }
+        renderedVersion = version;
+        renderedTick = tick;
+        dirty = false;
+        rebuilds++;
+    }
+
+    // Draws again just the animated cells whose type moved to another frame since the surface was drawn
+    private void animate(Graphics2D g, long tick) {
+        try {
+            int cols = (width + tileSize - 1) / tileSize;
+            for (int i = 0; i < animatedCount; i++) {
+                if (!tileM.frameChanged(animatedGround[i], renderedTick, tick)
+                        && !tileM.frameChanged(animatedDecoration[i], renderedTick, tick)) {
+                    continue;
+                }
+                int x = animatedCells[i] % cols * tileSize;
+                int y = animatedCells[i] / cols * tileSize;
+                drawCell(g, animatedGround[i], animatedDecoration[i], x, y, tick);
+                cellRedraws++;
+            }
+        } finally {
+            g.dispose();
+        }
+        renderedTick = tick;
+    }
+
+    // Draws one cell of the layer: its ground, or black where there is none, then its decoration
+    private void drawCell(Graphics2D g, int ground, int decoration, int x, int y, long tick) {
+        Image image = getScaledTile(ground, tick, true);
+        if (image != null) {
+            g.drawImage(image, x, y, null);
+        } else if (decoration >= 0) {
+            g.setColor(Color.BLACK);
+            g.fillRect(x, y, tileSize, tileSize);
+        }
+        image = getScaledTile(decoration, tick, false);
+        if (image != null) {
+            g.drawImage(image, x, y, null);
+        }
+    }
+
+    private void addAnimatedCell(int cell, short ground, short decoration) {
+        if (animatedCount == animatedCells.length) {
+            animatedCells = Arrays.copyOf(animatedCells, animatedCount * 2);
+            animatedGround = Arrays.copyOf(animatedGround, animatedCount * 2);
+            animatedDecoration = Arrays.copyOf(animatedDecoration, animatedCount * 2);
+        }
+        animatedCells[animatedCount] = cell;
+        animatedGround[animatedCount] = ground;
+        animatedDecoration[animatedCount] = decoration;
+        animatedCount++;
+    }
+
+    // Returns the tile's image for the tick, already scaled to tileSize in the device's native format.
+    // The layer is black under every ground tile, so those are flattened onto black and stored opaque:
+    // opaque copies are cheaper, and an animated cell can be overwritten without clearing it first.
+    // Decoration keeps its transparency so the ground shows through.
+    private Image getScaledTile(int tileNum, long tick, boolean opaque) {
+        TileRegistry tiles = tileM.tiles;
+        tileSprite t = tiles.get(tileNum);
+        if (t == null || t.image == null) {
+            return null;
+        }
+        Image[][] cache = opaque ? scaledTiles : scaledDecorations;
+        if (cache.length != tiles.size()) {
+            cache = new Image[tiles.size()][];
+            if (opaque) {
+                scaledTiles = cache;
+            } else {
+                scaledDecorations = cache;
+            }
+        }
+        int frame = t.frameAt(tick);
+        if (cache[tileNum] == null) {
+            cache[tileNum] = new Image[t.isAnimated() ? t.frames.length : 1];
+        }
+        Image scaled = cache[tileNum][frame];
+        if (scaled == null) {
+            BufferedImage image = config.createCompatibleImage(tileSize, tileSize,
+                    opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+            Graphics2D g = image.createGraphics();
+            if (opaque) {
+                g.setColor(Color.BLACK);
+                g.fillRect(0, 0, tileSize, tileSize);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.drawImage(t.imageAt(tick), 0, 0, tileSize, tileSize, null);
+            g.dispose();
+            cache[tileNum][frame] = image;
+            scaled = image;
+        }
+        return scaled;
+    }
+
+    private void createSurface() {
+        try {
+            surface = config.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+        } catch (RuntimeException e) {
+            surface = null;
+        }
+        if (surface == null) {
+            fallback = config.createCompatibleImage(width, height, Transparency.OPAQUE);
+        }
+        dirty = true;
+    }
+
+    private void releaseSurface() {
+        if (surface != null) {
+            surface.flush();
+            surface = null;
+        }
+        fallback = null;
+        dirty = true;
+    }
+}
@@ -0,0 +1,15 @@
+package tile;
+
+/**
+ * Told about every tile changed through ChunkedWorld.setTile, on the thread that changed it.
+ * Lets caches built from the tile grid repair just the part that changed instead of starting over.
+ */
+public interface TileListener {
+
+    /**
+     * @param layer Layer of the tile (see MapLayer)
+     * @param oldTile Tile id before the change
+     * @param newTile Tile id after the change
+     */
+    void tileChanged(int layer, int col, int row, int oldTile, int newTile);
+}
@@ -0,0 +1,63 @@
+package tile;
+
+import java.util.Arrays;
+
+/**
+ * Every tile type the game knows, by id. Map cells store these ids in a short, so there can be up to
+ * Short.MAX_VALUE + 1 types; the table grows as types are registered instead of having a fixed size.
+ */
+public class TileRegistry {
+    private tileSprite[] tiles = new tileSprite[16];
+    private int size;
+
+    /**
+     * Adds a tile type.
+     *
+     * @return The id map cells use for it
+     */
+    public int register(tileSprite tile) {
+        if (size > Short.MAX_VALUE) {
+            throw new IllegalStateException("No tile ids left");
+        }
+        if (size == tiles.length) {
+            tiles = Arrays.copyOf(tiles, size * 2);
+        }
+        tiles[size] = tile;
+        return size++;
+    }
+
+    /**
+     * @return The tile type with this id, or null for -1 (an empty cell) and unknown ids
+     */
+    public tileSprite get(int id) {
+        return id >= 0 && id < size ? tiles[id] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Which ids block movement, indexed by id
+     */
+    public boolean[] getSolidFlags() {
+        boolean[] solid = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            solid[i] = tiles[i].collision;
+        }
+        return solid;
+    }
+
+    /**
+     * @return true if some animated type shows a different frame at tick to than at tick from
+     */
+    public boolean framesChanged(long from, long to) {
+        for (int i = 0; i < size; i++) {
+            tileSprite t = tiles[i];
+            if (t.isAnimated() && t.frameAt(from) != t.frameAt(to)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
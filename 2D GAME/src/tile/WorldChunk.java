@@ -0,0 +1,116 @@
+package tile;
+
+import java.util.Arrays;
+
+/**
+ * One square block of tiles held in memory by the ChunkedWorld.
+ *
+ * Each layer of the chunk (see MapLayer) is a flat row-major short array, so a row of a layer is
+ * contiguous and a tile costs two bytes per layer that has something on it. A layer with nothing on
+ * it has no array at all (null), so a map with only ground costs two bytes per tile.
+ * Which cells are solid is kept alongside as a packed bitset (one bit per cell, same order),
+ * combining the tiles' collision flags with the collision layer.
+ */
+public class WorldChunk {
+    public static final int AREA = ChunkedWorld.CHUNK_SIZE * ChunkedWorld.CHUNK_SIZE;
+
+    public final int chunkCol;
+    public final int chunkRow;
+    // Tiles of each layer by layer id, null where the layer is empty
+    public final short[][] layers;
+    public final long[] solid;
+
+    public WorldChunk(int chunkCol, int chunkRow, short[][] layers, long[] solid) {
+        this.chunkCol = chunkCol;
+        this.chunkRow = chunkRow;
+        this.layers = layers;
+        this.solid = solid;
+    }
+
+    /**
+     * @return The tile of one cell of a layer, -1 if the layer is empty
+     */
+    public int getTile(int layer, int cell) {
+        short[] tiles = layers[layer];
+        return tiles == null ? -1 : tiles[cell];
+    }
+
+    /**
+     * @return Bytes of tile data and solid bits the chunk holds, not counting object headers
+     */
+    public long getMemoryBytes() {
+        long bytes = (long) solid.length * Long.BYTES;
+        for (short[] tiles : layers) {
+            if (tiles != null) {
+                bytes += (long) tiles.length * Short.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Splits layers packed one after another (as a ChunkSource writes them) into one array per layer,
+     * leaving out the ones with nothing on them.
+     *
+     * @param count Layers to keep, at least as many as are packed; the extra ones are empty
+     */
+    public static short[][] split(short[] packed, int packedLayers, int count) {
+        short[][] layers = new short[count][];
+        for (int layer = 0; layer < packedLayers; layer++) {
+            int start = layer * AREA;
+            for (int i = start; i < start + AREA; i++) {
+                if (packed[i] != -1) {
+                    layers[layer] = Arrays.copyOfRange(packed, start, start + AREA);
+                    break;
+                }
+            }
+        }
+        return layers;
+    }
+
+    /**
+     * @return A copy of the layers that shares none of their arrays
+     */
+    public static short[][] copy(short[][] layers) {
+        short[][] copy = new short[layers.length][];
+        for (int i = 0; i < layers.length; i++) {
+            copy[i] = layers[i] == null ? null : layers[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * Packs the solid flags of a chunk's cells into a bitset.
+     *
+     * @param solidTiles Which tile ids block movement
+     */
+    public static long[] buildSolid(short[][] layers, boolean[] solidTiles) {
+        long[] bits = new long[(AREA + 63) >> 6];
+        for (int i = 0; i < AREA; i++) {
+            if (isSolid(layers, i, solidTiles)) {
+                bits[i >> 6] |= 1L << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Whether one cell blocks movement: the collision layer decides if it is set, otherwise the cell is solid
+     * if it has no ground (outside the world) or its ground or decoration tile is solid.
+     */
+    public static boolean isSolid(short[][] layers, int cell, boolean[] solidTiles) {
+        short[] collision = layers[MapLayer.COLLISION];
+        int override = collision == null ? -1 : collision[cell];
+        if (override >= 0) {
+            return override != 0;
+        }
+        short[] grounds = layers[MapLayer.GROUND];
+        int ground = grounds == null ? -1 : grounds[cell];
+        if (ground < 0 || (ground < solidTiles.length && solidTiles[ground])) {
+            return true;
+        }
+        short[] decorations = layers[MapLayer.DECORATION];
+        int decoration = decorations == null ? -1 : decorations[cell];
+        return decoration >= 0 && decoration < solidTiles.length && solidTiles[decoration];
+    }
+}
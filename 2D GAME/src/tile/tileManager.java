@@ -1,98 +1,375 @@
 package tile;
 
 import Main.gamePanel;
+import asset.AssetManager;
+import asset.SpriteAtlas;
 
-import javax.imageio.ImageIO;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.awt.Graphics2D;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
-public class tileManager {
+public class tileManager implements CollisionMap {
     gamePanel gp;
-    tileSprite[] tile;
-    int mapTileNum[][];
+    final TileRegistry tiles = new TileRegistry();
+    ChunkedWorld world;
+    TileLayerCache layerCache = new TileLayerCache(this);
+
+    // Draw the background from the cached layer (one blit) instead of one scaled drawImage per tile
+    public boolean useLayerCache = true;
+
+    // Wait for streamed chunks every tick so the game plays out the same on every run
+    public boolean synchronousLoads = false;
+
+    // How many chunks around the player stay in memory in each direction
+    static final int CHUNK_RADIUS = 1;
+
+    // The one clock every animated tile reads its frame from, advanced once per tick by the game thread
+    private volatile long animationTick;
+
+    // One row of a layer at a time, filled by ChunkedWorld.getRow
+    private short[] rowBuffer = new short[0];
 
     public tileManager(gamePanel gp) {
         this.gp = gp;
 
-        tile = new tileSprite[10];
-        mapTileNum = new int[gp.maxScreenCol][gp.maxScreenRow];
-
         getTileImage();
-        loadMap();
     }
 
     public void getTileImage() {
+        registerDefaultTiles(tiles);
+    }
+
+    /**
+     * Registers the game's tile types, e.g. for a server that needs their collision flags without a tileManager.
+     */
+    public static void registerDefaultTiles(TileRegistry tiles) {
+        // Tile images come from the shared sprite atlas, already converted to the screen's format
+        SpriteAtlas atlas = SpriteAtlas.game();
+
+        // Registered in the order of the ids the maps use: 0 grass, 1 water, 2 brick
+        tileSprite grass = new tileSprite();
+        grass.image = atlas.get("/Tiles/grassTile2.png");
+        grass.frames = new BufferedImage[]{grass.image, atlas.get("/Tiles/grassTile.png")};
+        grass.frameTicks = 90;
+        tiles.register(grass);
+        tileSprite water = new tileSprite();
+        water.image = atlas.get("/Tiles/waterTile2.png");
+        water.frames = new BufferedImage[]{water.image, atlas.get("/Tiles/waterTile.png")};
+        water.frameTicks = 30;
+        water.collision = true;
+        tiles.register(water);
+        tileSprite brick = new tileSprite();
+        brick.image = atlas.get("/Tiles/brickTile.png");
+        brick.collision = true;
+        tiles.register(brick);
+    }
+
+    public TileRegistry getTiles() {
+        return tiles;
+    }
+
+    /**
+     * Opens a map and streams it through a ChunkedWorld.
+     * Only the chunks around the origin are loaded before returning, the rest follow the player.
+     *
+     * @param path A map name as accepted by openMapSource
+     */
+    public void loadMap(String path) {
+        loadMap(path, AssetManager.shared().map(path));
+    }
+
+    /**
+     * Opens a map that is already being loaded through the AssetManager, waiting for it if needed.
+     */
+    public void loadMap(String path, CompletableFuture<ChunkSource> source) {
         try {
-            tile[0] = new tileSprite();
-            tile[0].image = ImageIO.read(getClass().getResourceAsStream("/Tiles/grassTile2.png"));
-            tile[1] = new tileSprite();
-            tile[1].image = ImageIO.read(getClass().getResourceAsStream("/Tiles/waterTile2.png"));
-            tile[2] = new tileSprite();
-            tile[2].image = ImageIO.read(getClass().getResourceAsStream("/Tiles/brickTile.png"));
+            loadMap(source.join());
+
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
 
+    /**
+     * Replaces the current world with one streamed from the given source.
+     */
+    public void loadMap(ChunkSource source) {
+        if (world != null) {
+            world.close();
+        }
+        world = new ChunkedWorld(source, CHUNK_RADIUS, tiles.getSolidFlags());
+        world.preload(0, 0);
+    }
 
-        } catch (
-                IOException e) {
-            e.printStackTrace();
+    /**
+     * Opens the source of a map. Names ending in .map are binary maps, anything else is a text map.
+     *
+     * @param path A map resource such as "/maps/map2.txt", a file on disk as "file:path/to/world.map",
+     *             or "generated:WIDTHxHEIGHT[:seed]" for a made-up world
+     */
+    public static ChunkSource openMapSource(String path) throws IOException {
+        if (path.startsWith("generated:")) {
+            String[] parts = path.substring("generated:".length()).split(":", -1);
+            String[] size = parts[0].split("x", -1);
+            if (parts.length > 2 || size.length != 2) {
+                throw new IOException("Bad generated map spec " + path + ", expected generated:WIDTHxHEIGHT[:seed]");
+            }
+            int width;
+            int height;
+            long seed;
+            try {
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+                seed = parts.length > 1 ? Long.parseLong(parts[1]) : 1;
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad generated map spec " + path + ": " + e.getMessage(), e);
+            }
+            if (width < 1 || height < 1) {
+                throw new IOException("Bad generated map spec " + path + ", width and height must be at least 1");
+            }
+            return new GeneratedMapSource(width, height, seed, 3);
         }
+        boolean binary = path.endsWith(".map");
+        if (path.startsWith("file:")) {
+            Path file = Paths.get(path.substring("file:".length()));
+            return binary ? new BinaryMapSource(file) : openTextMap(file.toString(), true);
+        }
+        return binary ? BinaryMapSource.fromResource(path) : openTextMap(path, false);
     }
-    public void loadMap() {
+
+    /**
+     * Opens a text map together with the text files holding its other layers, named after the map and
+     * the layer (map2.decoration.txt, map2.overlay.txt, map2.collision.txt). Without them the map is just ground.
+     *
+     * @param onDisk true if path is a file, false if it is a classpath resource
+     */
+    public static ChunkSource openTextMap(String path, boolean onDisk) throws IOException {
+        ChunkSource[] layers = new ChunkSource[MapLayer.COUNT];
+        int dot = path.lastIndexOf('.');
+        String base = dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
         try {
-            InputStream is = getClass().getResourceAsStream("/Maps/map2.txt");
-            BufferedReader br = new BufferedReader(new InputStreamReader(is));
+            for (int layer = 0; layer < MapLayer.COUNT; layer++) {
+                String name = layer == MapLayer.GROUND ? path : base + "." + MapLayer.name(layer) + ".txt";
+                if (onDisk) {
+                    Path file = Paths.get(name);
+                    if (layer == MapLayer.GROUND || Files.exists(file)) {
+                        layers[layer] = new TextMapSource(file);
+                    }
+                } else if (layer == MapLayer.GROUND || tileManager.class.getResource(name) != null) {
+                    layers[layer] = TextMapSource.fromResource(name);
+                }
+            }
+        } catch (IOException e) {
+            for (ChunkSource layer : layers) {
+                if (layer != null) {
+                    layer.close();
+                }
+            }
+            throw e;
+        }
+        for (int layer = 1; layer < layers.length; layer++) {
+            if (layers[layer] != null) {
+                return new LayeredMapSource(layers);
+            }
+        }
+        return layers[MapLayer.GROUND];
+    }
 
-            int row = 0;
+    /**
+     * @return true if a text map file holds one layer of another map rather than a map of its own
+     */
+    public static boolean isLayerFile(String name) {
+        for (int layer = 1; layer < MapLayer.COUNT; layer++) {
+            if (name.endsWith("." + MapLayer.name(layer) + ".txt")) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            while (row < gp.maxScreenRow) {
+    /**
+     * Keeps the resident chunks centered on the given world pixel position.
+     * Called every tick from the game thread.
+     */
+    public void update(int focusX, int focusY) {
+        animationTick++;
+        if (world != null) {
+            world.updateFocus(focusX / gp.tileSize, focusY / gp.tileSize);
+            if (synchronousLoads) {
+                world.awaitLoads();
+            }
+        }
+    }
 
-                String line = br.readLine();
+    public ChunkedWorld getWorld() {
+        return world;
+    }
 
-                if (line == null || line.trim().isEmpty()) {
-                    continue;   // skip empty lines
-                }
+    /**
+     * @return The current tick of the tile animation clock
+     */
+    public long getAnimationTick() {
+        return animationTick;
+    }
 
-                String[] numbers = line.trim().split("\\s+");
+    /**
+     * @return true if some animated tile type shows a different frame at tick to than at tick from
+     */
+    public boolean framesChanged(long from, long to) {
+        return tiles.framesChanged(from, to);
+    }
 
-                for (int col = 0; col < gp.maxScreenCol; col++) {
-                    int num = Integer.parseInt(numbers[col]);
-                    mapTileNum[col][row] = num;
-                }
+    /**
+     * @return true if tiles with this id show a different frame at tick to than at tick from
+     */
+    public boolean frameChanged(int tileNum, long from, long to) {
+        tileSprite t = tiles.get(tileNum);
+        return t != null && t.frameAt(from) != t.frameAt(to);
+    }
 
-                row++;
-            }
+    /**
+     * @return Width of the current map in pixels, 0 if there is none
+     */
+    public int getWorldWidth() {
+        return world != null ? world.getWidth() * gp.tileSize : 0;
+    }
 
-            br.close();
+    /**
+     * @return Height of the current map in pixels, 0 if there is none
+     */
+    public int getWorldHeight() {
+        return world != null ? world.getHeight() * gp.tileSize : 0;
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    /**
+     * Changes one tile of the current map, e.g. a wall being built or knocked down.
+     * Must be called from the game thread; the tile's chunk has to be loaded.
+     *
+     * @return true if the tile changed
+     */
+    public boolean setTile(int col, int row, int tileNum) {
+        return setTile(MapLayer.GROUND, col, row, tileNum);
     }
+
+    /**
+     * Changes one tile on a layer of the current map, e.g. a sign added to the decoration layer.
+     *
+     * @param tileNum New tile id, -1 to clear the cell
+     * @return true if the tile changed
+     */
+    public boolean setTile(int layer, int col, int row, int tileNum) {
+        return world != null && world.setTile(layer, col, row, tileNum);
+    }
+
+    /**
+     * Collision against the current map. With no map loaded nothing is solid.
+     */
+    @Override
+    public boolean isSolid(int col, int row) {
+        return world != null && world.isSolid(col, row);
+    }
+
         public void draw(Graphics2D g2) {
+           draw(g2, gp.getCamera().getX(), gp.getCamera().getY());
+        }
 
-           int col = 0;
-           int row = 0;
-           int x = 0;
-           int y = 0;
+        public void draw(Graphics2D g2, int cameraX, int cameraY) {
+           draw(g2, cameraX, cameraY, animationTick);
+        }
 
-           while(col < gp.maxScreenCol && row < gp.maxScreenRow) {
+        /**
+         * Draws the part of the map under the view whose top-left corner is at the given world pixel.
+         * Only the tiles in view are touched, so the cost doesn't depend on the size of the map.
+         *
+         * @param tick Tick of the tile animation clock to show animated tiles at
+         */
+        public void draw(Graphics2D g2, int cameraX, int cameraY, long tick) {
+           draw(g2, cameraX, cameraY, tick, gp.tileSize);
+        }
 
-               int tileNum = mapTileNum[col][row];
+        /**
+         * Draws the map with tiles of the given size, e.g. the sprites' own 16 pixels for a frame composed
+         * at native resolution. The camera position is in pixels of that size, and the view is always
+         * maxScreenCol x maxScreenRow tiles.
+         */
+        public void draw(Graphics2D g2, int cameraX, int cameraY, long tick, int tileSize) {
 
-               g2.drawImage(tile[tileNum].image, x, y, gp.tileSize, gp.tileSize, null);
-               col++;
-               x += gp.tileSize;
+           if (world == null) {
+               return;
+           }
 
-               if(col == gp.maxScreenCol){
-                   col = 0;
-                   x = 0;
-                   row++;
-                   y += gp.tileSize;
-               }
+           int originCol = Math.floorDiv(cameraX, tileSize);
+           int originRow = Math.floorDiv(cameraY, tileSize);
+           int offsetX = cameraX - originCol * tileSize;
+           int offsetY = cameraY - originRow * tileSize;
+
+           if (useLayerCache) {
+               layerCache.draw(g2, originCol, originRow, offsetX, offsetY, gp.maxScreenCol * tileSize,
+                       gp.maxScreenRow * tileSize, tick, tileSize);
+           } else {
+               drawLayer(g2, MapLayer.GROUND, originCol, originRow, offsetX, offsetY, tick, tileSize);
+               drawLayer(g2, MapLayer.DECORATION, originCol, originRow, offsetX, offsetY, tick, tileSize);
+           }
+        }
+
+        /**
+         * Draws every visible ground and decoration tile straight to the destination, scaling each sprite on the fly.
+         * One extra column and row are drawn for the tiles scrolled partly into view.
+         */
+        public void drawTiles(Graphics2D g2, int originCol, int originRow, int offsetX, int offsetY, long tick) {
+           drawLayer(g2, MapLayer.GROUND, originCol, originRow, offsetX, offsetY, tick, gp.tileSize);
+           drawLayer(g2, MapLayer.DECORATION, originCol, originRow, offsetX, offsetY, tick, gp.tileSize);
+        }
+
+        /**
+         * Draws the overlay layer (tree tops, roofs) for the view at the given world pixel.
+         * Called after the entities and the player so it covers them.
+         */
+        public void drawOverlay(Graphics2D g2, int cameraX, int cameraY, long tick) {
+           drawOverlay(g2, cameraX, cameraY, tick, gp.tileSize);
+        }
+
+        /**
+         * Draws the overlay layer with tiles of the given size, the camera being in pixels of that size.
+         */
+        public void drawOverlay(Graphics2D g2, int cameraX, int cameraY, long tick, int tileSize) {
+           int originCol = Math.floorDiv(cameraX, tileSize);
+           int originRow = Math.floorDiv(cameraY, tileSize);
+           drawLayer(g2, MapLayer.OVERLAY, originCol, originRow,
+                   cameraX - originCol * tileSize, cameraY - originRow * tileSize, tick, tileSize);
+        }
+
+        // Draws one layer a row at a time; each row is one contiguous copy per chunk it crosses
+        private void drawLayer(Graphics2D g2, int layer, int originCol, int originRow, int offsetX, int offsetY, long tick,
+                               int tileSize) {
+
+           if (world == null) {
+               return;
+           }
+
+           int cols = gp.maxScreenCol + 1;
+           int rows = gp.maxScreenRow + 1;
+           if (rowBuffer.length < cols) {
+               rowBuffer = new short[cols];
+           }
+           short[] cells = rowBuffer;
+
+           for (int row = 0; row < rows; row++) {
+               int y = row * tileSize - offsetY;
+               world.getRow(layer, originCol, originRow + row, cols, cells);
+               for (int col = 0; col < cols; col++) {
+                   // -1 means an empty cell, outside the map or not streamed in yet
+                   tileSprite t = tiles.get(cells[col]);
+                   if (t != null) {
+                       g2.drawImage(t.imageAt(tick), col * tileSize - offsetX, y, tileSize, tileSize, null);
+                   }
                }
+           }
         }
     }
-
@@ -6,4 +6,23 @@ public class tileSprite {
     public BufferedImage image;
     public boolean collision = false;
 
+    // Animated tiles cycle through these frames, each shown for frameTicks ticks of the tile clock.
+    // null for a still tile. Every cell of the type shows the same frame, so cells need no state of their own.
+    public BufferedImage[] frames;
+    public int frameTicks = 1;
+
+    public boolean isAnimated() {
+        return frames != null && frames.length > 1;
+    }
+
+    /**
+     * @return Which frame every tile of this type shows at a tick of the tile clock, 0 for still tiles
+     */
+    public int frameAt(long tick) {
+        return isAnimated() ? (int) ((tick / frameTicks) % frames.length) : 0;
+    }
+
+    public BufferedImage imageAt(long tick) {
+        return isAnimated() ? frames[frameAt(tick)] : image;
+    }
 }